@@ -0,0 +1,270 @@
+package lazic.sources;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.Locale;
+import java.util.Random;
+import java.util.function.Supplier;
+
+/**
+ * Response payloads for the parser benchmarks, shaped like what each source receives.
+ *
+ * By default they are generated deterministically. Point -Dnorn.bench.fixtures at a directory of recorded replies
+ * (yf_chart.json, yf_fundamentals.json, oecd_rates_fx.json, oecd_vehicles.json, oecd_gdp.xml,
+ * oecd_business_confidence.xml) to benchmark against real payloads instead; missing files fall back to generated ones.
+ */
+public class SourceFixtures {
+	private static final String RECORDED_DIR = System.getProperty("norn.bench.fixtures");
+
+	/**
+	 * Returns the recorded payload of that name if there is one, else the generated one.
+	 */
+	public static String load(String name, Supplier<String> generated) {
+		if (RECORDED_DIR != null) {
+			Path recorded = Path.of(RECORDED_DIR, name);
+			if (Files.exists(recorded)) {
+				try {
+					return Files.readString(recorded, StandardCharsets.UTF_8);
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			}
+		}
+		return generated.get();
+	}
+
+	/**
+	 * A v8 chart reply with daily bars, the occasional null bar, and the meta / adjclose parts the parser skips.
+	 */
+	public static String yahooChart(int days) {
+		Random random = new Random(42);
+		long start = 946857600L; // 2000-01-03, seconds
+		double close = 5;
+
+		StringBuilder ts = new StringBuilder();
+		StringBuilder open = new StringBuilder(), high = new StringBuilder(), low = new StringBuilder();
+		StringBuilder closes = new StringBuilder(), volume = new StringBuilder();
+
+		for (int d = 0; d < days; d++) {
+			String sep = d == 0 ? "" : ",";
+			ts.append(sep).append(start + d * 86400L);
+
+			if (random.nextInt(200) == 0) {
+				open.append(sep).append("null");
+				high.append(sep).append("null");
+				low.append(sep).append("null");
+				closes.append(sep).append("null");
+				volume.append(sep).append("null");
+				continue;
+			}
+
+			close = Math.max(0.01, close * (1 + random.nextGaussian() * 0.02));
+			open.append(sep).append(close * (1 + random.nextGaussian() * 0.01));
+			high.append(sep).append(close * 1.01);
+			low.append(sep).append(close * 0.99);
+			closes.append(sep).append(close);
+			volume.append(sep).append(random.nextInt(2_000_000));
+		}
+
+		return "{\"chart\":{\"result\":[{\"meta\":{\"currency\":\"NZD\",\"symbol\":\"AIR.NZ\",\"exchangeName\":\"NZE\","
+						+ "\"instrumentType\":\"EQUITY\",\"gmtoffset\":46800,\"timezone\":\"NZDT\","
+						+ "\"exchangeTimezoneName\":\"Pacific/Auckland\",\"dataGranularity\":\"1d\","
+						+ "\"validRanges\":[\"1d\",\"5d\",\"1mo\",\"3mo\",\"6mo\",\"1y\",\"2y\",\"5y\",\"10y\",\"ytd\",\"max\"]},"
+						+ "\"timestamp\":[" + ts + "],"
+						+ "\"indicators\":{\"quote\":[{\"open\":[" + open + "],\"high\":[" + high + "],\"low\":[" + low
+						+ "],\"close\":[" + closes + "],\"volume\":[" + volume + "]}],"
+						+ "\"adjclose\":[{\"adjclose\":[" + closes + "]}]}}],\"error\":null}}";
+	}
+
+	/**
+	 * A fundamentals-timeseries reply: one result per type, annual types padded with leading nulls the way
+	 * padTimeSeries=true does, and trailing types with a single entry.
+	 */
+	public static String yahooFundamentals(int types, int years) {
+		Random random = new Random(42);
+		StringBuilder json = new StringBuilder("{\"timeseries\":{\"result\":[");
+
+		for (int t = 0; t < types; t++) {
+			boolean annual = t % 2 == 0;
+			String type = (annual ? "annual" : "trailing") + "Feature" + t / 2;
+			int entries = annual ? years : 1;
+
+			if (t > 0) {
+				json.append(',');
+			}
+			json.append("{\"meta\":{\"symbol\":[\"AIR.NZ\"],\"type\":[\"").append(type).append("\"]},\"timestamp\":[");
+			for (int y = 0; y < entries; y++) {
+				json.append(y == 0 ? "" : ",").append(1277856000L + (years - entries + y) * 31536000L);
+			}
+			json.append("],\"").append(type).append("\":[");
+
+			int padding = annual ? random.nextInt(3) : 0;
+			for (int p = 0; p < padding; p++) {
+				json.append("null,");
+			}
+			for (int y = 0; y < entries; y++) {
+				LocalDate asOf = LocalDate.of(2010 + years - entries + y, 6, 30);
+				double raw = Math.round(random.nextGaussian() * 1e8);
+				json.append(y == 0 ? "" : ",")
+								.append("{\"dataId\":").append(20000 + t)
+								.append(",\"asOfDate\":\"").append(asOf)
+								.append("\",\"periodType\":\"").append(annual ? "12M" : "TTM")
+								.append("\",\"currencyCode\":\"NZD\",\"reportedValue\":{\"raw\":").append(raw)
+								.append(",\"fmt\":\"").append(String.format(Locale.ROOT, "%.2fM", raw / 1e6)).append("\"}}");
+			}
+			json.append("]}");
+		}
+
+		return json.append("],\"error\":null}}").toString();
+	}
+
+	/**
+	 * An SDMX-JSON 2.0 reply with flat observations keyed over ten dimensions, MEASURE at position 2 and
+	 * TIME_PERIOD at position 9, like the OECD financial indicators dataflow.
+	 */
+	public static String oecdRatesFx(int measures, int months) {
+		Random random = new Random(42);
+		String[] ids = {"REF_AREA", "FREQ", "MEASURE", "UNIT_MEASURE", "ACTIVITY", "ADJUSTMENT",
+						"TRANSFORMATION", "TIME_HORIZ", "METHODOLOGY", "TIME_PERIOD"};
+
+		StringBuilder json = new StringBuilder("{\"meta\":{\"schema\":\"https://raw.githubusercontent.com/sdmx-twg/sdmx-json/master/data-message/tools/schemas/2.0.0/sdmx-json-data-schema.json\"},");
+		json.append("\"data\":{\"dataSets\":[{\"action\":\"Replace\",\"observations\":{");
+		boolean first = true;
+		for (int m = 0; m < measures; m++) {
+			for (int t = 0; t < months; t++) {
+				json.append(first ? "" : ",")
+								.append("\"0:0:").append(m).append(":0:0:0:0:0:0:").append(t).append("\":[")
+								.append(Math.round((1 + random.nextDouble() * 6) * 100) / 100.0).append(",0]");
+				first = false;
+			}
+		}
+		json.append("}}],\"structures\":[{\"name\":\"Financial market\",\"dimensions\":{\"dataSet\":[],\"series\":[],\"observation\":[");
+
+		for (int d = 0; d < ids.length; d++) {
+			json.append(d == 0 ? "" : ",").append("{\"id\":\"").append(ids[d]).append("\",\"name\":\"").append(ids[d])
+							.append("\",\"keyPosition\":").append(d).append(",\"values\":[");
+			if (d == 2) {
+				for (int m = 0; m < measures; m++) {
+					json.append(m == 0 ? "" : ",").append("{\"id\":\"M").append(m).append("\",\"name\":\"Measure ").append(m).append("\"}");
+				}
+			} else if (d == 9) {
+				YearMonth start = YearMonth.of(2000, 1);
+				for (int t = 0; t < months; t++) {
+					YearMonth ym = start.plusMonths(t);
+					json.append(t == 0 ? "" : ",").append("{\"id\":\"").append(ym).append("\",\"name\":\"").append(ym)
+									.append("\",\"start\":\"").append(ym.atDay(1)).append("T00:00:00\",\"end\":\"")
+									.append(ym.atEndOfMonth()).append("T23:59:59\"}");
+				}
+			} else {
+				json.append("{\"id\":\"X\",\"name\":\"X\"}");
+			}
+			json.append("]}");
+		}
+
+		return json.append("]}}]}}").toString();
+	}
+
+	/**
+	 * An SDMX-JSON 1.0 reply keyed by series over eight dimensions (VEHICLE_TYPE at position 6), with time as the
+	 * only observation dimension, like the OECD vehicle registrations dataflow.
+	 */
+	public static String oecdVehicles(int vehicleTypes, int months) {
+		Random random = new Random(42);
+		String[] ids = {"REF_AREA", "FREQ", "MEASURE", "UNIT_MEASURE", "TRANSPORT_MODE", "GEO_COVERAGE", "VEHICLE_TYPE", "FUEL"};
+
+		StringBuilder json = new StringBuilder("{\"header\":{\"id\":\"bench\",\"prepared\":\"2025-01-01T00:00:00Z\"},");
+		json.append("\"dataSets\":[{\"action\":\"Information\",\"series\":{");
+		for (int v = 0; v < vehicleTypes; v++) {
+			json.append(v == 0 ? "" : ",").append("\"0:0:0:0:0:0:").append(v).append(":0\":{\"attributes\":[0],\"observations\":{");
+			for (int t = 0; t < months; t++) {
+				json.append(t == 0 ? "" : ",").append('"').append(t).append("\":[").append(1000 + random.nextInt(9000)).append(",null]");
+			}
+			json.append("}}");
+		}
+		json.append("}}],\"structure\":{\"name\":\"Vehicle registrations\",\"dimensions\":{\"series\":[");
+
+		for (int d = 0; d < ids.length; d++) {
+			json.append(d == 0 ? "" : ",").append("{\"keyPosition\":").append(d).append(",\"id\":\"").append(ids[d])
+							.append("\",\"name\":\"").append(ids[d]).append("\",\"values\":[");
+			if (d == 6) {
+				for (int v = 0; v < vehicleTypes; v++) {
+					json.append(v == 0 ? "" : ",").append("{\"id\":\"V").append(v).append("\",\"name\":\"Vehicle type ").append(v).append("\"}");
+				}
+			} else {
+				json.append("{\"id\":\"X\",\"name\":\"X\"}");
+			}
+			json.append("]}");
+		}
+
+		json.append("],\"observation\":[{\"keyPosition\":0,\"id\":\"TIME_PERIOD\",\"name\":\"Time period\",\"values\":[");
+		YearMonth start = YearMonth.of(2000, 1);
+		for (int t = 0; t < months; t++) {
+			YearMonth ym = start.plusMonths(t);
+			json.append(t == 0 ? "" : ",").append("{\"id\":\"").append(ym).append("\",\"name\":\"").append(ym).append("\"}");
+		}
+
+		return json.append("]}]}}}").toString();
+	}
+
+	/**
+	 * An SDMX-ML 2.1 generic data reply of quarterly sector accounts, with UNIT_MULT as an observation attribute.
+	 */
+	public static String oecdGdp(int quarters) {
+		Random random = new Random(42);
+		String[][] keys = {{"S13", "P3"}, {"S13", "P51G"}, {"S14", "P3"}, {"S14", "P51G"}};
+
+		StringBuilder xml = genericDataHeader();
+		for (int q = 0; q < quarters; q++) {
+			String period = (2000 + q / 4) + "-Q" + (q % 4 + 1);
+			for (String[] key : keys) {
+				xml.append("<generic:Obs><generic:ObsKey>")
+								.append("<generic:Value id=\"TIME_PERIOD\" value=\"").append(period).append("\" />")
+								.append("<generic:Value id=\"REF_AREA\" value=\"NZL\" />")
+								.append("<generic:Value id=\"SECTOR\" value=\"").append(key[0]).append("\" />")
+								.append("<generic:Value id=\"TRANSACTION\" value=\"").append(key[1]).append("\" />")
+								.append("</generic:ObsKey><generic:ObsValue value=\"").append(2000 + random.nextInt(8000)).append("\" />")
+								.append("<generic:Attributes><generic:Value id=\"OBS_STATUS\" value=\"A\" />")
+								.append("<generic:Value id=\"UNIT_MULT\" value=\"6\" /></generic:Attributes></generic:Obs>\n");
+			}
+		}
+		return xml.append("</message:DataSet></message:GenericData>").toString();
+	}
+
+	/**
+	 * An SDMX-ML 2.1 generic data reply of monthly business and consumer confidence.
+	 */
+	public static String oecdBusinessConfidence(int months) {
+		Random random = new Random(42);
+		String[] measures = {"BCICP", "CCICP"};
+
+		StringBuilder xml = genericDataHeader();
+		YearMonth start = YearMonth.of(2000, 1);
+		for (int t = 0; t < months; t++) {
+			for (String measure : measures) {
+				xml.append("<generic:Obs><generic:ObsKey>")
+								.append("<generic:Value id=\"REF_AREA\" value=\"NZL\" />")
+								.append("<generic:Value id=\"FREQ\" value=\"M\" />")
+								.append("<generic:Value id=\"MEASURE\" value=\"").append(measure).append("\" />")
+								.append("<generic:Value id=\"TIME_PERIOD\" value=\"").append(start.plusMonths(t)).append("\" />")
+								.append("</generic:ObsKey><generic:ObsValue value=\"")
+								.append(Math.round((95 + random.nextDouble() * 10) * 1e5) / 1e5).append("\" />")
+								.append("<generic:Attributes><generic:Value id=\"OBS_STATUS\" value=\"A\" /></generic:Attributes></generic:Obs>\n");
+			}
+		}
+		return xml.append("</message:DataSet></message:GenericData>").toString();
+	}
+
+	private static StringBuilder genericDataHeader() {
+		return new StringBuilder("<?xml version=\"1.0\" encoding=\"utf-8\"?>\n")
+						.append("<message:GenericData xmlns:message=\"http://www.sdmx.org/resources/sdmxml/schemas/v2_1/message\" ")
+						.append("xmlns:generic=\"http://www.sdmx.org/resources/sdmxml/schemas/v2_1/data/generic\" ")
+						.append("xmlns:common=\"http://www.sdmx.org/resources/sdmxml/schemas/v2_1/common\">\n")
+						.append("<message:Header><message:ID>bench</message:ID><message:Test>false</message:Test></message:Header>\n")
+						.append("<message:DataSet structureRef=\"bench\">\n");
+	}
+}
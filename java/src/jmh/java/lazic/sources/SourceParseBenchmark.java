@@ -0,0 +1,93 @@
+package lazic.sources;
+
+import lazic.utils.ingest.TimeSeriesStore;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.xml.stream.XMLStreamException;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decoding cost of every source, from the raw reply body into a store, without any network.
+ * Throughput gives parses per second, SampleTime the latency percentiles; run with -prof gc for bytes allocated per parse.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SourceParseBenchmark {
+
+	private String chart;
+	private String fundamentals;
+	private String ratesFx;
+	private String vehicles;
+	private byte[] gdp;
+	private byte[] businessConfidence;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		// roughly the size of a full-history reply for each source
+		chart = SourceFixtures.load("yf_chart.json", () -> SourceFixtures.yahooChart(6500));
+		fundamentals = SourceFixtures.load("yf_fundamentals.json", () -> SourceFixtures.yahooFundamentals(250, 5));
+		ratesFx = SourceFixtures.load("oecd_rates_fx.json", () -> SourceFixtures.oecdRatesFx(4, 300));
+		vehicles = SourceFixtures.load("oecd_vehicles.json", () -> SourceFixtures.oecdVehicles(6, 300));
+		gdp = SourceFixtures.load("oecd_gdp.xml", () -> SourceFixtures.oecdGdp(100)).getBytes(StandardCharsets.UTF_8);
+		businessConfidence = SourceFixtures.load("oecd_business_confidence.xml", () -> SourceFixtures.oecdBusinessConfidence(300))
+						.getBytes(StandardCharsets.UTF_8);
+	}
+
+	@Benchmark
+	public YfPrices.Chart yfPrices() throws IOException {
+		return YfPrices.parseChart(new StringReader(chart));
+	}
+
+	@Benchmark
+	public TimeSeriesStore yfFinances() throws IOException {
+		TimeSeriesStore sink = new TimeSeriesStore();
+		YfFinances.parse(new StringReader(fundamentals), sink);
+		return sink;
+	}
+
+	@Benchmark
+	public TimeSeriesStore nzRatesFx() throws IOException {
+		TimeSeriesStore sink = new TimeSeriesStore();
+		NzRatesFx.parse(new StringReader(ratesFx), sink);
+		return sink;
+	}
+
+	@Benchmark
+	public TimeSeriesStore nzVehicleRegistrations() throws IOException {
+		TimeSeriesStore sink = new TimeSeriesStore();
+		NzVehicleRegistrations.parse(new StringReader(vehicles), sink);
+		return sink;
+	}
+
+	@Benchmark
+	public TimeSeriesStore nzGdp() throws XMLStreamException {
+		TimeSeriesStore sink = new TimeSeriesStore();
+		NzGdp.parse(new ByteArrayInputStream(gdp), sink);
+		return sink;
+	}
+
+	@Benchmark
+	public TimeSeriesStore nzBusinessConfidence() throws XMLStreamException {
+		TimeSeriesStore sink = new TimeSeriesStore();
+		NzBusinessConfidence.parse(new ByteArrayInputStream(businessConfidence), sink);
+		return sink;
+	}
+}
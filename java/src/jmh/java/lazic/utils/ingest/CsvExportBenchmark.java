@@ -0,0 +1,104 @@
+package lazic.utils.ingest;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Long-format CSV export: the original BufferedWriter / String concatenation path against the buffered
+ * byte-level writer, sequential, parallel and gzip.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CsvExportBenchmark {
+
+	@Param({"20", "170"})
+	public int tickers;
+
+	private TimeSeriesStore store;
+	private Path dir;
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		store = Fixtures.priceStore(tickers, 2500);
+		dir = Files.createTempDirectory("csv-bench");
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		try (var files = Files.list(dir)) {
+			for (Path p : files.toList()) {
+				Files.delete(p);
+			}
+		}
+		Files.delete(dir);
+	}
+
+	@Benchmark
+	public void legacy() throws IOException {
+		legacySaveCsv(dir.resolve("legacy.csv"), store);
+	}
+
+	@Benchmark
+	public void buffered() throws IOException {
+		CsvLongParser.write(dir.resolve("buffered.csv"), store, false);
+	}
+
+	@Benchmark
+	public void bufferedParallel() throws IOException {
+		CsvLongParser.write(dir.resolve("parallel.csv"), store, true);
+	}
+
+	@Benchmark
+	public void bufferedGzip() throws IOException {
+		CsvLongParser.write(dir.resolve("buffered.csv.gz"), store, false);
+	}
+
+	// the export as it was before the buffered writer: per-row replace passes, String concatenation, FileWriter
+	static void legacySaveCsv(Path path, TimeSeriesStore data) throws IOException {
+		try (BufferedWriter bw = new BufferedWriter(new FileWriter(path.toFile()))) {
+			bw.write("timestamp,ticker,feature,value");
+			bw.newLine();
+
+			data.forEach((ts, ticker, feature, value) -> {
+				ticker = ticker != null ? ticker : "";
+				feature = feature != null ? feature : "";
+
+				ticker = ticker.replace(",", "-");
+				ticker = ticker.replace("\n", "-");
+
+				feature = feature.replace(",", "-");
+				feature = feature.replace("\n", "-");
+
+				try {
+					bw.write(ts + "," + ticker + "," + feature + "," + value);
+					bw.newLine();
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			});
+		}
+	}
+}
@@ -0,0 +1,45 @@
+package lazic.utils.ingest;
+
+import java.util.Random;
+
+/**
+ * Deterministic, network-free inputs for the benchmarks.
+ */
+public class Fixtures {
+	public static final long DAY_MILLIS = 24L * 60 * 60 * 1000;
+	public static final String[] PRICE_FEATURES = {"Close", "Open", "High", "Low", "Volume"};
+
+	/**
+	 * A store shaped like a YfPrices run: daily OHLCV bars for the given number of tickers,
+	 * plus a few monthly macro series without a ticker.
+	 */
+	public static TimeSeriesStore priceStore(int tickers, int days) {
+		Random random = new Random(42);
+		TimeSeriesStore store = new TimeSeriesStore();
+		long start = 946684800000L; // 2000-01-01
+
+		for (int t = 0; t < tickers; t++) {
+			String ticker = "T" + t + ".NZ";
+			double close = 1 + random.nextDouble() * 20;
+
+			for (int d = 0; d < days; d++) {
+				long ts = start + d * DAY_MILLIS;
+				close = Math.max(0.01, close * (1 + random.nextGaussian() * 0.02));
+				double open = Math.round(close * (1 + random.nextGaussian() * 0.01) * 1000) / 1000.0;
+
+				store.append(ticker, "Close", ts, Math.round(close * 1000) / 1000.0);
+				store.append(ticker, "Open", ts, open);
+				store.append(ticker, "High", ts, Math.max(open, close) * 1.01);
+				store.append(ticker, "Low", ts, Math.min(open, close) * 0.99);
+				store.append(ticker, "Volume", ts, random.nextInt(2_000_000));
+			}
+		}
+
+		for (int m = 0; m < days / 30; m++) {
+			store.append(null, "Long-term interest rates", start + m * 30 * DAY_MILLIS, 2 + random.nextDouble() * 5);
+			store.append(null, "OECD_BCICP", start + m * 30 * DAY_MILLIS, 95 + random.nextDouble() * 10);
+		}
+
+		return store;
+	}
+}
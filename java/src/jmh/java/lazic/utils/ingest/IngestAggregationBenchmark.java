@@ -0,0 +1,87 @@
+package lazic.utils.ingest;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * IngestManager.fetchDataFromSources with six sources that push prebuilt point sets, so only the sink path
+ * (segment, dedup) and the merge into the store are measured.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.AverageTime, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class IngestAggregationBenchmark {
+	private static final int SOURCES = 6;
+
+	@Param({"20", "170"})
+	public int tickers;
+
+	private List<DataSourceBase> previous;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		// the store is only the generator here, every source gets a share of its series as DataPoint's
+		List<Set<DataPoint>> shares = new ArrayList<>();
+		for (int i = 0; i < SOURCES; i++) {
+			shares.add(new HashSet<>());
+		}
+		Fixtures.priceStore(tickers, 2500).forEach((ts, ticker, feature, value) -> {
+			LocalDateTime time = LocalDateTime.ofInstant(Instant.ofEpochMilli(ts), ZoneOffset.UTC);
+			int share = Math.floorMod(ticker == null ? feature.hashCode() : ticker.hashCode(), SOURCES);
+			shares.get(share).add(new DataPoint(time, ticker, feature, value));
+		});
+
+		previous = List.copyOf(IngestManager.INSTANCE.sources);
+		IngestManager.INSTANCE.sources.clear();
+		shares.forEach(points -> IngestManager.INSTANCE.register(new FixedSource(points)));
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		IngestManager.INSTANCE.sources.clear();
+		IngestManager.INSTANCE.sources.addAll(previous);
+		IngestManager.INSTANCE.data.clear();
+	}
+
+	@Benchmark
+	public long fetchDataFromSources() {
+		IngestManager.INSTANCE.fetchDataFromSources();
+		return IngestManager.INSTANCE.data.size();
+	}
+
+	static final class FixedSource extends DataSourceBase {
+		private final Set<DataPoint> points;
+
+		FixedSource(Set<DataPoint> points) {
+			this.points = points;
+		}
+
+		@Override
+		public void ingest(DataPointSink sink) {
+			points.forEach(sink::accept);
+		}
+	}
+}
@@ -1,29 +1,146 @@
 package lazic;
 
-import lazic.sources.*;
+import lazic.utils.ingest.ColumnarLongParser;
 import lazic.utils.ingest.CsvLongParser;
+import lazic.utils.ingest.FeatureEngine;
+import lazic.utils.ingest.FeatureManifest;
 import lazic.utils.ingest.IngestManager;
+import lazic.utils.ingest.IngestMetrics;
+import lazic.utils.ingest.SeriesQuery;
+import lazic.utils.ingest.TimeSeriesDb;
+import lazic.utils.ingest.TradingDays;
+import lazic.utils.ingest.WebHtmlGetter;
+import lazic.utils.ingest.WidePivot;
 
+import java.io.IOException;
 import java.nio.file.Path;
+import java.util.List;
 
 public class Main {
-	public static void main(String[] args) {
-		new NzBusinessConfidence();
-		new NzGdp();
-		new NzRatesFx();
-		new NzVehicleRegistrations();
-		new YfFinances();
-		new YfPrices();
+	public static void main(String[] args) throws IOException {
+		List<String> flags = List.of(args);
 
-		IngestManager.INSTANCE.fetchDataFromSources();
-		IngestManager.INSTANCE.printSubset(100);
+		// -Dnorn.metrics.jmx=true: also publish the run metrics over JMX while ingesting
+		if (Boolean.getBoolean("norn.metrics.jmx")) {
+			IngestMetrics.INSTANCE.registerMBean();
+		}
+
+		IngestManager.INSTANCE.loadSources();
 
-		String out = Path.of("")
+		Path dataDir = Path.of("")
 						.toAbsolutePath()
 						.getParent()
-						.toString()
-						+ "\\data\\data_long.csv";
+						.resolve("data");
+
+		// --format=columnar: export to data/data_long.ncol instead of the long CSV
+		boolean columnar = flags.contains("--format=columnar");
+		Path out = dataDir.resolve(columnar ? "data_long.ncol" : "data_long.csv");
+		Path state = dataDir.resolve("ingest_state.properties");
+
+		// replies are cached under data/http-cache, --no-cache turns that off
+		// --offline: replay everything from the cache without touching the network
+		if (!flags.contains("--no-cache")) {
+			WebHtmlGetter.enableCache(dataDir.resolve("http-cache"));
+		}
+		if (flags.contains("--offline")) {
+			WebHtmlGetter.setOffline(true);
+		}
+
+		// --manifest[=path]: only ingest the features listed in the manifest python-ml writes from its feature
+		// importances, data/feature_manifest.json by default
+		String manifest = flags.contains("--manifest") ? "feature_manifest.json" : flagValue(flags, "--manifest");
+		if (manifest != null) {
+			IngestManager.INSTANCE.project(FeatureManifest.load(dataDir.resolve(manifest)));
+			System.out.println("Ingesting " + IngestManager.INSTANCE.manifest());
+		}
+
+		// --tsdb: append every fetch to the database under data/tsdb, and let --incremental start from it
+		TimeSeriesDb db = null;
+		if (flags.contains("--tsdb")) {
+			db = TimeSeriesDb.open(dataDir.resolve("tsdb"));
+			if (db.timeModel() != TradingDays.TIME_MODEL) {
+				System.out.println("data/tsdb predates the current timestamp convention, starting it over");
+				db.clear();
+			}
+			IngestManager.INSTANCE.persistTo(db);
+		}
+
+		// --incremental: only fetch what is newer than the last export, and merge it into that export
+		if (flags.contains("--incremental")) {
+			if (db != null && !db.isEmpty()) {
+				IngestManager.INSTANCE.loadPrevious(db, state);
+			} else {
+				IngestManager.INSTANCE.loadPrevious(out, state);
+			}
+		}
+
+		IngestManager.INSTANCE.fetchDataFromSources();
+
+		// --derived: adds returns, moving averages, RSI, ATR, volume z-scores and P/E as features of their own
+		if (flags.contains("--derived")) {
+			FeatureEngine.addTo(IngestManager.INSTANCE.data, IngestManager.INSTANCE.manifest());
+		}
+		IngestManager.INSTANCE.printSubset(100);
+
+		boolean saved = columnar
+						? ColumnarLongParser.saveColumnar(out.toString())
+						: CsvLongParser.saveCsv(out.toString());
+
+		// --wide: also writes the pivoted, forward-filled table python-ml trains on to data/data_wide.nwide
+		if (flags.contains("--wide")) {
+			WidePivot.saveWide(dataDir.resolve("data_wide.nwide").toString());
+		}
+
+		if (saved) {
+			IngestManager.INSTANCE.state.save(state);
+		}
+
+		// --slice-from=<ms> --slice-to=<ms> --slice-tickers=A,B --slice-features=X,Y: also writes just that slice to
+		// data/data_slice.csv, an empty entry in --slice-tickers selects the macro series
+		SeriesQuery slice = sliceQuery(flags);
+		if (slice != null) {
+			CsvLongParser.saveCsv(dataDir.resolve("data_slice.csv").toString(), slice.select(IngestManager.INSTANCE.data));
+		}
+		if (db != null) {
+			db.close();
+		}
+
+		// per-host, per-source and export timings of this run
+		IngestMetrics.INSTANCE.writeReport(dataDir.resolve("ingest_report.json"));
+	}
+
+	// null when no --slice-* flag is given
+	private static SeriesQuery sliceQuery(List<String> flags) {
+		String from = flagValue(flags, "--slice-from");
+		String to = flagValue(flags, "--slice-to");
+		String tickers = flagValue(flags, "--slice-tickers");
+		String features = flagValue(flags, "--slice-features");
+		if (from == null && to == null && tickers == null && features == null) {
+			return null;
+		}
+
+		SeriesQuery query = SeriesQuery.all().between(
+						from != null ? Long.parseLong(from) : Long.MIN_VALUE,
+						to != null ? Long.parseLong(to) : Long.MAX_VALUE);
+		if (features != null) {
+			query = query.withFeatures(features.split(","));
+		}
+		if (tickers != null) {
+			String[] names = tickers.split(",", -1);
+			for (int i = 0; i < names.length; i++) {
+				names[i] = names[i].isEmpty() ? null : names[i];
+			}
+			query = query.tickers(names);
+		}
+		return query;
+	}
 
-		CsvLongParser.saveCsv(out);
+	private static String flagValue(List<String> flags, String name) {
+		for (String flag : flags) {
+			if (flag.startsWith(name + "=")) {
+				return flag.substring(name.length() + 1);
+			}
+		}
+		return null;
 	}
-}
\ No newline at end of file
+}
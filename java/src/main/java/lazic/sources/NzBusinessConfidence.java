@@ -1,105 +1,73 @@
 package lazic.sources;
 
-import lazic.utils.ingest.DataPoint;
+import lazic.utils.ingest.DataPointSink;
 import lazic.utils.ingest.DataSourceBase;
+import lazic.utils.ingest.SdmxGenericReader;
+import lazic.utils.ingest.SdmxPeriods;
 import lazic.utils.ingest.WebHtmlGetter;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.NodeList;
-import org.xml.sax.InputSource;
 
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import java.io.StringReader;
-import java.time.YearMonth;
-import java.time.format.DateTimeFormatter;
-import java.util.HashSet;
-import java.util.Set;
+import javax.xml.stream.XMLStreamException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Duration;
 
 public class NzBusinessConfidence extends DataSourceBase {
+	// monthly indicator, a cached reply is good for a day
+	private static final Duration CACHE_TTL = Duration.ofDays(1);
+
 	private final String URL = "https://sdmx.oecd.org/public/rest/data/OECD.SDD.STES,DSD_STES@DF_CLI,4.1/NZL.M.......?dimensionAtObservation=AllDimensions&format=genericdata";
 
 	/**
-	 * Returns a set of DataPoint's. Ticker is null if the datapoint does not pertain to a particular ticker, such as macroeconomic data for example
-	 * There are multiple DataPoint's in a time-series feature, and there may be multiple features returned overall.
+	 * Pushes the monthly confidence indicators into the sink, ticker is null as this is macroeconomic data.
 	 */
 	@Override
-	public Set<DataPoint> getDataPoints() {
-		Set<DataPoint> result = new HashSet<>();
-		String rawData = WebHtmlGetter.get(URL);
-
-		if (rawData == null || rawData.isEmpty()) {
-			return result;
+	public void ingest(DataPointSink sink) throws IOException, XMLStreamException {
+		try (InputStream in = WebHtmlGetter.getStream(targetUrl(), CACHE_TTL)) {
+			timedParse(() -> parse(in, sink));
 		}
+	}
 
-		try {
-			// Initialize XML Parser
-			DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-			// Namespace awareness helps if the parser struggles with "generic:Obs" vs "Obs"
-			factory.setNamespaceAware(true);
-			DocumentBuilder builder = factory.newDocumentBuilder();
-			InputSource is = new InputSource(new StringReader(rawData));
-			Document doc = builder.parse(is);
-
-			doc.getDocumentElement().normalize();
-
-			// The data is contained in <generic:Obs> tags
-			// We use getElementsByTagNameNS to handle the "generic" namespace safely,
-			// or strictly by name if namespace URI is not strictly required for simple extraction.
-			NodeList obsList = doc.getElementsByTagName("generic:Obs");
-
-			for (int i = 0; i < obsList.getLength(); i++) {
-				Element obs = (Element) obsList.item(i);
-
-				// 1. Extract Key values (Time and Measure)
-				Element obsKey = (Element) obs.getElementsByTagName("generic:ObsKey").item(0);
-				NodeList keyValues = obsKey.getElementsByTagName("generic:Value");
-
-				String timePeriodStr = null;
-				String measureCode = null;
-
-				for (int k = 0; k < keyValues.getLength(); k++) {
-					Element valElem = (Element) keyValues.item(k);
-					String id = valElem.getAttribute("id");
-					if ("TIME_PERIOD".equals(id)) {
-						timePeriodStr = valElem.getAttribute("value");
-					} else if ("MEASURE".equals(id)) {
-						measureCode = valElem.getAttribute("value");
-					}
-				}
-
-				// 2. Extract the numerical value
-				Element obsValue = (Element) obs.getElementsByTagName("generic:ObsValue").item(0);
-				String valStr = obsValue.getAttribute("value");
+	/**
+	 * Parses an SDMX-ML generic data reply into the sink as it streams in, one feature per MEASURE.
+	 */
+	static void parse(InputStream in, DataPointSink sink) throws XMLStreamException {
+		SdmxGenericReader.read(in, obs -> {
+			// 1. Extract Key values (Time and Measure) and the numerical value
+			String timePeriodStr = obs.key("TIME_PERIOD");
+			String measureCode = obs.key("MEASURE");
+			String valStr = obs.value();
+
+			// 2. Push the observation
+			if (timePeriodStr == null || measureCode == null || valStr == null) {
+				return;
+			}
 
-				// 3. Build the DataPoint
-				if (timePeriodStr != null && measureCode != null && valStr != null) {
-					// Parse Date: Format is YYYY-MM (e.g., 2001-02)
-					// We convert this to the first day of that month at start of day
-					YearMonth ym = YearMonth.parse(timePeriodStr, DateTimeFormatter.ofPattern("yyyy-MM"));
+			// Parse Date: Format is YYYY-MM (e.g., 2001-02)
+			// We convert this to the first day of that month at start of day
+			long monthStart = SdmxPeriods.startMillis(timePeriodStr);
+			if (monthStart == Long.MIN_VALUE) {
+				System.err.println("Skipping observation " + measureCode + " with period " + timePeriodStr);
+				return;
+			}
 
-					// Determine Feature Name based on Measure Code
-					// BCICP = Business Confidence, CCICP = Consumer Confidence
-					String featureName = "OECD_" + measureCode;
+			try {
+				// Determine Feature Name based on Measure Code
+				// BCICP = Business Confidence, CCICP = Consumer Confidence
+				String featureName = "OECD_" + measureCode;
 
-					Double value = Double.valueOf(valStr);
+				// Macro data usually has null ticker
+				sink.accept(null, featureName, monthStart, Double.parseDouble(valStr));
 
-					// Macro data usually has null ticker
-					DataPoint point = new DataPoint(
-									ym.atDay(1).atStartOfDay(),
-									null,
-									featureName,
-									value
-					);
-					result.add(point);
-				}
+			} catch (NumberFormatException e) {
+				// one malformed observation does not spoil the rest of the reply
+				System.err.println("Skipping observation " + measureCode + " " + timePeriodStr + ": " + e.getMessage());
 			}
+		});
+	}
 
-		} catch (Exception e) {
-			System.err.println("Error parsing XML for NzBusinessConfidence: " + e.getMessage());
-			e.printStackTrace();
-		}
-
-		return result;
+	// when running incrementally, only ask for the months from the last saved observation on
+	private String targetUrl() {
+		long mark = highWaterMark(null);
+		return mark < 0 ? URL : URL + "&startPeriod=" + SdmxPeriods.month(mark);
 	}
-}
\ No newline at end of file
+}
@@ -1,114 +1,88 @@
 package lazic.sources;
 
-import lazic.utils.ingest.DataPoint;
+import lazic.utils.ingest.DataPointSink;
 import lazic.utils.ingest.DataSourceBase;
+import lazic.utils.ingest.SdmxGenericReader;
+import lazic.utils.ingest.SdmxPeriods;
 import lazic.utils.ingest.WebHtmlGetter;
 
-import java.time.LocalDateTime;
-import java.util.HashSet;
-import java.util.Set;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import javax.xml.stream.XMLStreamException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Duration;
+import java.util.Map;
 
 public class NzGdp extends DataSourceBase {
-	final String URL = "https://sdmx.oecd.org/public/rest/data/OECD.SDD.NAD,DSD_NAMAIN1@DF_QNA_EXPENDITURE_NATIO_CURR,1.1/Q..NZL.S13+S14.........?startPeriod=2000-Q1&dimensionAtObservation=AllDimensions&format=genericdata";
+	// quarterly national accounts rarely change, reuse a cached reply for a week
+	private static final Duration CACHE_TTL = Duration.ofDays(7);
+
+	// Look up maps for better feature names (extend as needed)
+	private static final Map<String, String> SECTORS = Map.of(
+					"S13", "GeneralGovernment",
+					"S14", "NFISH"); // Non-profit institutions serving households
+
+	private static final Map<String, String> TRANSACTIONS = Map.of(
+					"P51G", "GrossFixedCapitalFormation",
+					"P3", "FinalConsumptionExpenditure");
+
+	final String URL = "https://sdmx.oecd.org/public/rest/data/OECD.SDD.NAD,DSD_NAMAIN1@DF_QNA_EXPENDITURE_NATIO_CURR,1.1/Q..NZL.S13+S14.........?startPeriod={START_PERIOD}&dimensionAtObservation=AllDimensions&format=genericdata";
 
 	/**
-	 * Returns a set of DataPoint's. Ticker is null if the datapoint does not pertain to a particular ticker, such as macroeconomic data for example
-	 * There are multiple DataPoint's in a time-series feature, and there may be multiple features returned overall.
+	 * Pushes the quarterly expenditure series into the sink, ticker is null as this is macroeconomic data.
 	 */
 	@Override
-	public Set<DataPoint> getDataPoints() {
-		String rawData = WebHtmlGetter.get(URL);
-		return parseXmlData(rawData);
+	public void ingest(DataPointSink sink) throws IOException, XMLStreamException {
+		// when running incrementally, start from the quarter of the last saved observation
+		long mark = highWaterMark(null);
+		String startPeriod = mark < 0 ? "2000-Q1" : SdmxPeriods.quarter(mark);
+
+		try (InputStream in = WebHtmlGetter.getStream(URL.replace("{START_PERIOD}", startPeriod), CACHE_TTL)) {
+			timedParse(() -> parse(in, sink));
+		}
 	}
 
 	/**
-	 * Parses the SDMX-ML XML raw data.
+	 * Parses the SDMX-ML generic data reply as it streams in.
 	 * Extracts TIME_PERIOD, SECTOR, TRANSACTION, ObsValue, and UNIT_MULT.
 	 */
-	private Set<DataPoint> parseXmlData(String rawData) {
-		Set<DataPoint> dataPoints = new HashSet<>();
-
-		// Updated Regex to capture TIME_PERIOD, SECTOR, TRANSACTION, ObsValue, and UNIT_MULT.
-		// Group 1: TIME_PERIOD value (e.g., "2023-Q2")
-		// Group 2: SECTOR value (e.g., "S13" or "S14")
-		// Group 3: TRANSACTION value (e.g., "P51G" or "P3")
-		// Group 4: ObsValue (the data value, e.g., "6569")
-		// Group 5: UNIT_MULT value (e.g., "6")
-		String regex = "<generic:Obs>.*?<generic:Value id=\"TIME_PERIOD\" value=\"(.*?)\" />.*?" +
-						"<generic:Value id=\"SECTOR\" value=\"(.*?)\" />.*?" +
-						"<generic:Value id=\"TRANSACTION\" value=\"(.*?)\" />.*?" +
-						"</generic:ObsKey><generic:ObsValue value=\"(.*?)\" />.*?<generic:Value id=\"UNIT_MULT\" value=\"(\\d)\" />";
-
-		Pattern pattern = Pattern.compile(regex, Pattern.DOTALL);
-		Matcher matcher = pattern.matcher(rawData);
-
-		// Ticker is null for macroeconomic data
-		final String ticker = null;
-
-		// Look up map for better feature names (example, extend as needed)
-		final java.util.Map<String, String> sectorMap = new java.util.HashMap<>();
-		sectorMap.put("S13", "GeneralGovernment");
-		sectorMap.put("S14", "NFISH"); // Non-profit institutions serving households
-
-		final java.util.Map<String, String> transactionMap = new java.util.HashMap<>();
-		transactionMap.put("P51G", "GrossFixedCapitalFormation");
-		transactionMap.put("P3", "FinalConsumptionExpenditure");
-		// Add other relevant transaction codes from the data as needed
-
-		while (matcher.find()) {
-			String timePeriodStr = matcher.group(1);
-			String sectorCode = matcher.group(2);
-			String transactionCode = matcher.group(3);
-			String obsValueStr = matcher.group(4);
-			String unitMultiplierStr = matcher.group(5);
+	static void parse(InputStream in, DataPointSink sink) throws XMLStreamException {
+		SdmxGenericReader.read(in, obs -> {
+			String timePeriodStr = obs.key("TIME_PERIOD");
+			String sectorCode = obs.key("SECTOR");
+			String transactionCode = obs.key("TRANSACTION");
+			String obsValueStr = obs.value();
+			if (timePeriodStr == null || sectorCode == null || transactionCode == null || obsValueStr == null) {
+				return;
+			}
 
 			// Construct a meaningful feature name
-			String sectorName = sectorMap.getOrDefault(sectorCode, sectorCode);
-			String transactionName = transactionMap.getOrDefault(transactionCode, transactionCode);
+			String sectorName = SECTORS.getOrDefault(sectorCode, sectorCode);
+			String transactionName = TRANSACTIONS.getOrDefault(transactionCode, transactionCode);
 
 			// Example: NZL_GeneralGovernment_GrossFixedCapitalFormation_MillionsNZD
-			final String featureName = "NZL_" + sectorName + "_" + transactionName + "_MillionsNZD";
+			String featureName = "NZL_" + sectorName + "_" + transactionName + "_MillionsNZD";
 
 			try {
-				// Convert the "YYYY-QX" quarter string to a LocalDateTime at the start of the quarter
-				LocalDateTime dateTime = convertQuarterToDateTime(timePeriodStr);
+				// Convert the "YYYY-QX" quarter string to the start of the quarter
+				long quarterStart = SdmxPeriods.startMillis(timePeriodStr);
+				if (quarterStart == Long.MIN_VALUE) {
+					throw new IllegalArgumentException("Invalid quarter: " + timePeriodStr);
+				}
 
 				// Convert the value string to a Double, applying the unit multiplier (e.g., 10^6 for Millions)
-				int unitMultiplierPower = Integer.parseInt(unitMultiplierStr);
+				String unitMultiplierStr = obs.attribute("UNIT_MULT");
+				int unitMultiplierPower = unitMultiplierStr != null ? Integer.parseInt(unitMultiplierStr) : 0;
 				double rawValue = Double.parseDouble(obsValueStr);
 				double finalValue = rawValue * Math.pow(10, unitMultiplierPower);
 
-				dataPoints.add(new DataPoint(dateTime, ticker, featureName, finalValue));
+				// Ticker is null for macroeconomic data
+				sink.accept(null, featureName, quarterStart, finalValue);
 
 			} catch (Exception e) {
 				// Log or handle parsing errors if necessary
 				System.err.println("Error parsing data point: " + timePeriodStr + ", " + obsValueStr +
 								", Sector: " + sectorCode + ", Transaction: " + transactionCode + ": " + e.getMessage());
 			}
-		}
-
-		return dataPoints;
-	}
-
-	/**
-	 * Converts a quarterly string (YYYY-QX) to a LocalDateTime at the start of that quarter.
-	 */
-	private LocalDateTime convertQuarterToDateTime(String quarterStr) {
-		String[] parts = quarterStr.split("-Q");
-		int year = Integer.parseInt(parts[0]);
-		int quarter = Integer.parseInt(parts[1]);
-
-		int month = switch (quarter) {
-			case 1 -> 1; // Q1 starts Jan 1st
-			case 2 -> 4; // Q2 starts Apr 1st
-			case 3 -> 7; // Q3 starts Jul 1st
-			case 4 -> 10; // Q4 starts Oct 1st
-			default -> throw new IllegalArgumentException("Invalid quarter: " + quarter);
-		};
-
-		// Assuming the data point is for the first day of the quarter
-		return LocalDateTime.of(year, month, 1, 0, 0);
+		});
 	}
-}
\ No newline at end of file
+}
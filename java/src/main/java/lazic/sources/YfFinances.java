@@ -1,113 +1,288 @@
 package lazic.sources;
 
-import com.google.gson.Gson;
-import com.google.gson.JsonArray;
-import com.google.gson.JsonElement;
-import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
 import lazic.sources.config.Tickers;
-import lazic.utils.ingest.DataPoint;
+import lazic.utils.ingest.BatchPolicy;
+import lazic.utils.ingest.DataPointSink;
 import lazic.utils.ingest.DataSourceBase;
+import lazic.utils.ingest.JsonStreams;
+import lazic.utils.ingest.SourcePolicy;
+import lazic.utils.ingest.TickerFanOut;
 import lazic.utils.ingest.WebHtmlGetter;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.time.LocalDate;
-import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
-import java.util.HashSet;
-import java.util.Set;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class YfFinances extends DataSourceBase {
+	// fundamentals only move when a report is published, revalidate daily
+	private static final Duration CACHE_TTL = Duration.ofDays(1);
 
-	private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd");
+	// the slowest source by far (a large type list per ticker), so it is started first and given the most time; every
+	// ticker sends its sub-requests at once, so a few tickers at a time fill the host's request slots
+	private static final SourcePolicy POLICY = new SourcePolicy(10, Duration.ofMinutes(30), 2, Duration.ofSeconds(30), 4);
 
 	/**
-	 * Returns a set of DataPoint's. Ticker is null if the datapoint does not pertain to a particular ticker.
+	 * How many types one request asks for. The full list is split into three sub-requests.
+	 * Can be overridden with -Dnorn.yahoo.typesPerRequest=N
 	 */
+	static final BatchPolicy TYPE_POLICY = new BatchPolicy(Integer.getInteger("norn.yahoo.typesPerRequest", 100), 4000);
+
+	private static final String DEFAULT_PERIOD1 = "493590046";
+	private static final long DAY_MILLIS = 24L * 60 * 60 * 1000;
+
+	// every report of every ticker shares a few hundred distinct asOfDate strings, each is parsed once
+	private static final Map<String, Long> AS_OF_DATES = new ConcurrentHashMap<>();
+
 	@Override
-	public Set<DataPoint> getDataPoints() {
-		Set<DataPoint> points = new HashSet<>();
-		String[] tickers = Tickers.TICKERS;
-		Gson gson = new Gson();
-
-		for (String ticker : tickers) {
-			try {
-				// Construct URL and fetch data
-				String targetUrl = URL.replace("{TICKER}", ticker);
-				String rawData = WebHtmlGetter.get(targetUrl);
-
-				if (rawData == null || rawData.isEmpty()) {
-					continue;
-				}
+	public SourcePolicy policy() {
+		return POLICY;
+	}
+
+	/**
+	 * Pushes every reported fundamentals value of every ticker into the sink, for the types the feature manifest
+	 * includes.
+	 */
+	@Override
+	public void ingest(DataPointSink sink) throws InterruptedException, IOException {
+		List<String> types = manifest().select(TYPES);
+		if (types.isEmpty()) {
+			return;
+		}
+		TickerFanOut.fetchAll(Tickers.TICKERS, POLICY.concurrency(), (ticker, tickerSink) -> fetchTicker(ticker, types, tickerSink), sink);
+	}
+
+	/**
+	 * Fetches and parses the fundamentals time-series of a single ticker. A long type list is split into
+	 * sub-requests that are all sent at once, and decoded one after the other as they come in.
+	 */
+	private void fetchTicker(String ticker, List<String> types, DataPointSink sink) throws IOException {
+		// 1. Construct the URLs, only asking for reports from the last saved one on when running incrementally
+		// (the tickers are configured url-encoded (%5EGSP), their points are stored under the decoded symbol (^GSP))
+		long mark = highWaterMark(URLDecoder.decode(ticker, StandardCharsets.UTF_8));
+		String base = URL
+						.replace("{TICKER}", ticker)
+						.replace("{PERIOD1}", mark < 0 ? DEFAULT_PERIOD1 : Long.toString(mark / 1000));
 
-				// Parse Root Object
-				JsonObject rootNode = gson.fromJson(rawData, JsonObject.class);
+		// 2. Send every sub-request
+		List<CompletableFuture<InputStream>> replies = new ArrayList<>();
+		for (List<String> part : TYPE_POLICY.split(types, base.length())) {
+			replies.add(WebHtmlGetter.getStreamAsync(base + String.join(",", part), CACHE_TTL));
+		}
 
-				// Navigate to timeseries -> result
-				if (!rootNode.has("timeseries")) continue;
-				JsonObject timeseries = rootNode.getAsJsonObject("timeseries");
+		// 3. Decode them straight off the response streams, closing whatever is left if one of them fails
+		try {
+			for (CompletableFuture<InputStream> reply : replies) {
+				try (Reader in = new InputStreamReader(reply.join(), StandardCharsets.UTF_8)) {
+					timedParse(() -> parse(in, sink));
+				}
+			}
+		} catch (IOException | RuntimeException e) {
+			for (CompletableFuture<InputStream> reply : replies) {
+				reply.thenAccept(YfFinances::closeQuietly);
+			}
+			throw e;
+		}
+	}
 
-				if (!timeseries.has("result") || timeseries.get("result").isJsonNull()) continue;
-				JsonArray results = timeseries.getAsJsonArray("result");
+	private static void closeQuietly(InputStream in) {
+		try {
+			in.close();
+		} catch (IOException ignored) {
+			// already failing
+		}
+	}
 
-				// Iterate through the various financial features (NetIncome, EBITDA, etc.)
-				for (JsonElement resultElement : results) {
-					JsonObject resultObj = resultElement.getAsJsonObject();
+	// ============================================================
+	// Streaming decoder for the fundamentals-timeseries JSON
+	// Structure: timeseries -> result[] -> [meta -> {symbol[0], type[0]}, timestamp[], <type> -> [null | {asOfDate, reportedValue -> raw}]]
+	// Every result is walked once; the null pads of padTimeSeries are skipped without allocating, and the
+	// (asOfDate, raw) pairs are buffered in primitive arrays until the result's meta is known to match them.
+	// ============================================================
 
-					// 1. Extract Metadata to find out what feature this is
-					if (!resultObj.has("meta")) continue;
-					JsonObject meta = resultObj.getAsJsonObject("meta");
+	/**
+	 * Parses a fundamentals-timeseries reply into the sink, one feature per reported type.
+	 */
+	static void parse(Reader in, DataPointSink sink) throws IOException {
+		JsonReader reader = new JsonReader(in);
+		Reports reports = new Reports();
 
-					if (!meta.has("type") || !meta.has("symbol")) continue;
+		reader.beginObject();
+		while (reader.hasNext()) {
+			if (!reader.nextName().equals("timeseries") || reader.peek() != JsonToken.BEGIN_OBJECT) {
+				reader.skipValue();
+				continue;
+			}
 
-					String featureType = meta.getAsJsonArray("type").get(0).getAsString();
-					String symbol = meta.getAsJsonArray("symbol").get(0).getAsString();
+			reader.beginObject();
+			while (reader.hasNext()) {
+				if (!reader.nextName().equals("result") || reader.peek() != JsonToken.BEGIN_ARRAY) {
+					reader.skipValue(); // error, or a null result
+					continue;
+				}
 
-					// 2. Use the 'type' string to find the actual data array in the same object
-					// Example: if type is "annualNetIncome", we look for resultObj.get("annualNetIncome")
-					if (resultObj.has(featureType) && !resultObj.get(featureType).isJsonNull()) {
-						JsonArray dataArray = resultObj.getAsJsonArray(featureType);
+				reader.beginArray();
+				while (reader.hasNext()) {
+					if (reader.peek() == JsonToken.BEGIN_OBJECT) {
+						readResult(reader, reports, sink);
+					} else {
+						reader.skipValue();
+					}
+				}
+				reader.endArray();
+			}
+			reader.endObject();
+		}
+		reader.endObject();
+	}
 
-						// 3. Iterate the time-series data for this feature
-						for (JsonElement dataPointElement : dataArray) {
-							// Handle cases where data might be [null, null, {data}]
-							if (dataPointElement == null || dataPointElement.isJsonNull()) {
-								continue;
-							}
+	// one result: its meta names the type and symbol, and the array under the type's name holds the reports
+	private static void readResult(JsonReader reader, Reports reports, DataPointSink sink) throws IOException {
+		String type = null;
+		String symbol = null;
+		String buffered = null; // the name the buffered reports were read under
 
-							JsonObject dataObj = dataPointElement.getAsJsonObject();
+		reports.clear();
+		reader.beginObject();
+		while (reader.hasNext()) {
+			String name = reader.nextName();
+			if (name.equals("meta") && reader.peek() == JsonToken.BEGIN_OBJECT) {
+				reader.beginObject();
+				while (reader.hasNext()) {
+					switch (reader.nextName()) {
+						case "type" -> type = firstString(reader);
+						case "symbol" -> symbol = firstString(reader);
+						default -> reader.skipValue();
+					}
+				}
+				reader.endObject();
+			} else if (reader.peek() == JsonToken.BEGIN_ARRAY && !name.equals("timestamp")
+							&& (type == null || name.equals(type))) {
+				// meta normally comes first; if it does not, the array is kept until it can be matched
+				reports.clear();
+				readReports(reader, reports);
+				buffered = name;
+			} else {
+				reader.skipValue();
+			}
+		}
+		reader.endObject();
 
-							// Extract Date
-							if (!dataObj.has("asOfDate")) continue;
-							String dateStr = dataObj.get("asOfDate").getAsString();
-							LocalDateTime date = LocalDate.parse(dateStr, DATE_FORMATTER).atStartOfDay();
+		if (type == null || symbol == null || !type.equals(buffered)) {
+			return;
+		}
+		for (int i = 0; i < reports.count; i++) {
+			sink.accept(symbol, type, reports.dates[i], reports.values[i]);
+		}
+	}
 
-							// Extract Value
-							if (dataObj.has("reportedValue") && !dataObj.get("reportedValue").isJsonNull()) {
-								JsonObject reportedValue = dataObj.getAsJsonObject("reportedValue");
-								if (reportedValue.has("raw")) {
-									Double value = reportedValue.get("raw").getAsDouble();
+	private static void readReports(JsonReader reader, Reports reports) throws IOException {
+		reader.beginArray();
+		while (reader.hasNext()) {
+			if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+				reader.skipValue(); // a null pad
+				continue;
+			}
 
-									// Create and add DataPoint
-									points.add(new DataPoint(date, symbol, featureType, value));
-								}
-							}
+			String asOfDate = null;
+			double raw = Double.NaN;
+			reader.beginObject();
+			while (reader.hasNext()) {
+				String name = reader.nextName();
+				if (name.equals("asOfDate") && reader.peek() == JsonToken.STRING) {
+					asOfDate = reader.nextString();
+				} else if (name.equals("reportedValue") && reader.peek() == JsonToken.BEGIN_OBJECT) {
+					reader.beginObject();
+					while (reader.hasNext()) {
+						if (reader.nextName().equals("raw")) {
+							raw = JsonStreams.nextDoubleOrNaN(reader);
+						} else {
+							reader.skipValue();
 						}
 					}
+					reader.endObject();
+				} else {
+					reader.skipValue();
 				}
-			} catch (Exception e) {
-				System.err.println("Error parsing data for ticker: " + ticker);
-				e.printStackTrace();
+			}
+			reader.endObject();
+
+			if (asOfDate != null && !Double.isNaN(raw)) {
+				reports.add(AS_OF_DATES.computeIfAbsent(asOfDate, d -> LocalDate.parse(d).toEpochDay() * DAY_MILLIS), raw);
+			}
+		}
+		reader.endArray();
+	}
+
+	// the first string of a ["..."] array, or a bare string
+	private static String firstString(JsonReader reader) throws IOException {
+		if (reader.peek() == JsonToken.STRING) {
+			return reader.nextString();
+		}
+		if (reader.peek() != JsonToken.BEGIN_ARRAY) {
+			reader.skipValue();
+			return null;
+		}
+
+		String first = null;
+		reader.beginArray();
+		while (reader.hasNext()) {
+			if (first == null && reader.peek() == JsonToken.STRING) {
+				first = reader.nextString();
+			} else {
+				reader.skipValue();
 			}
 		}
+		reader.endArray();
+		return first;
+	}
 
-		return points;
+	// the (asOfDate, raw) pairs of one result, reused from result to result
+	private static final class Reports {
+		long[] dates = new long[16];
+		double[] values = new double[16];
+		int count;
+
+		void add(long date, double value) {
+			if (count == dates.length) {
+				dates = Arrays.copyOf(dates, count * 2);
+				values = Arrays.copyOf(values, count * 2);
+			}
+			dates[count] = date;
+			values[count++] = value;
+		}
+
+		void clear() {
+			count = 0;
+		}
 	}
 
-	private final String URL = "https://query1.finance.yahoo.com/ws/fundamentals-timeseries/v1/finance/timeseries/{TICKER}"
+	// -Dnorn.yahoo.baseUrl points the requests at another host, such as a local stub
+	private static final String BASE_URL = System.getProperty("norn.yahoo.baseUrl", "https://query1.finance.yahoo.com");
+
+	private final String URL = BASE_URL + "/ws/fundamentals-timeseries/v1/finance/timeseries/{TICKER}"
 					+ "?merge=false"
 					+ "&padTimeSeries=true"
-					+ "&period1=493590046"
+					+ "&period1={PERIOD1}"
 					+ "&period2=2750557599"
-					+ "&type=annualTaxEffectOfUnusualItems,trailingTaxEffectOfUnusualItems,annualTaxRateForCalcs,trailingTaxRateForCalcs,"
+					+ "&lang=en-NZ"
+					+ "&region=NZ"
+					+ "&type=";
+
+	// every type there is to request, narrowed down by the feature manifest
+	static final List<String> TYPES = List.of(("annualTaxEffectOfUnusualItems,trailingTaxEffectOfUnusualItems,annualTaxRateForCalcs,trailingTaxRateForCalcs,"
 					+ "annualNormalizedEBITDA,trailingNormalizedEBITDA,annualNormalizedDilutedEPS,trailingNormalizedDilutedEPS,"
 					+ "annualNormalizedBasicEPS,trailingNormalizedBasicEPS,annualTotalUnusualItems,trailingTotalUnusualItems,"
 					+ "annualTotalUnusualItemsExcludingGoodwill,trailingTotalUnusualItemsExcludingGoodwill,"
@@ -202,7 +377,5 @@ public class YfFinances extends DataSourceBase {
 					+ "annualInterestIncomeFromSecurities,trailingInterestIncomeFromSecurities,"
 					+ "annualInterestIncomeFromLoansAndLease,trailingInterestIncomeFromLoansAndLease,"
 					+ "annualInterestIncomeFromLeases,trailingInterestIncomeFromLeases,"
-					+ "annualInterestIncomeFromLoans,trailingInterestIncomeFromLoans"
-					+ "&lang=en-NZ"
-					+ "&region=NZ";
+					+ "annualInterestIncomeFromLoans,trailingInterestIncomeFromLoans").split(","));
 }
\ No newline at end of file
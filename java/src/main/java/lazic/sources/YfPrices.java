@@ -1,134 +1,387 @@
 package lazic.sources;
 
-import com.google.gson.Gson;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
 import lazic.sources.config.Tickers;
-import lazic.utils.ingest.DataPoint;
+import lazic.utils.ingest.BatchPolicy;
+import lazic.utils.ingest.DataPointSink;
 import lazic.utils.ingest.DataSourceBase;
+import lazic.utils.ingest.JsonStreams;
+import lazic.utils.ingest.SourcePolicy;
+import lazic.utils.ingest.TickerFanOut;
+import lazic.utils.ingest.TradingDays;
 import lazic.utils.ingest.WebHtmlGetter;
 
-import java.time.Instant;
-import java.time.LocalDateTime;
-import java.time.ZoneId;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Set;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 public class YfPrices extends DataSourceBase {
+	// a new daily bar every trading day, so a cached reply goes stale within hours
+	private static final Duration CACHE_TTL = Duration.ofHours(12);
 
-	private final String URL_TEMPLATE = "https://query1.finance.yahoo.com/v8/finance/chart/{TICKER}?interval=1d&period1=0&period2=99999999999&includeAdjustedClose=true";
+	// a few spark requests on a daily refresh, a chart request per ticker to backfill: started right after the fundamentals,
+	// retried once (cached replies are not refetched), as many requests at once as a host allows
+	private static final SourcePolicy POLICY = new SourcePolicy(5, Duration.ofMinutes(20), 2, Duration.ofSeconds(30),
+					WebHtmlGetter.MAX_REQUESTS_PER_HOST);
+
+	// -Dnorn.yahoo.baseUrl points the requests at another host, such as a local stub
+	private static final String BASE_URL = System.getProperty("norn.yahoo.baseUrl", "https://query1.finance.yahoo.com");
+
+	private final String URL_TEMPLATE = BASE_URL + "/v8/finance/chart/{TICKER}?interval=1d&period1={PERIOD1}&period2=99999999999&includeAdjustedClose=true";
+
+	// the latest daily bars of many symbols in one request, the same result objects as a chart reply
+	private final String SPARK_TEMPLATE = BASE_URL + "/v7/finance/spark?interval=1d&range={RANGE}&symbols=";
 
 	/**
-	 * Returns a set of DataPoint's.
+	 * Spark requests carry at most 20 symbols (and stay well clear of url limits).
+	 * Can be overridden with -Dnorn.yahoo.batchSymbols=N, 0 turns batching off
 	 */
+	static final BatchPolicy BATCH_POLICY = new BatchPolicy(Integer.getInteger("norn.yahoo.batchSymbols", 20), 2000);
+
+	// the spark ranges, and up to how old a saved bar may be for each one to still overlap it
+	private static final String[] SPARK_RANGES = {"5d", "1mo", "3mo"};
+	private static final long[] SPARK_RANGE_DAYS = {3, 25, 85};
+
 	@Override
-	public Set<DataPoint> getDataPoints() {
-		Set<DataPoint> dataPoints = new HashSet<>();
-		String[] tickers = Tickers.TICKERS;
-		Gson gson = new Gson();
+	public SourcePolicy policy() {
+		return POLICY;
+	}
 
-		for (String ticker : tickers) {
-			try {
-				// 1. Construct URL
-				String targetUrl = URL_TEMPLATE.replace("{TICKER}", ticker);
+	/**
+	 * Pushes the daily bars of every ticker into the sink. Tickers whose saved bars are recent enough, which is all of
+	 * them on a daily incremental run, get their latest bars from batched spark requests; everything else is
+	 * backfilled with a chart request per ticker.
+	 */
+	@Override
+	public void ingest(DataPointSink sink) throws InterruptedException, IOException {
+		// 1. group the tickers by the smallest spark range that reaches back to their last saved bar
+		Map<String, List<String>> byRange = new LinkedHashMap<>();
+		List<String> backfill = new ArrayList<>();
+		long now = System.currentTimeMillis();
+		for (String ticker : Tickers.TICKERS) {
+			String range = sparkRange(highWaterMark(ticker), now);
+			if (range != null) {
+				byRange.computeIfAbsent(range, r -> new ArrayList<>()).add(ticker);
+			} else {
+				backfill.add(ticker);
+			}
+		}
 
-				// 2. Fetch Data
-				System.out.println("Fetching data for: " + ticker);
-				String rawData = WebHtmlGetter.get(targetUrl);
+		// 2. one task per batch, run on the same fan-out as the per-ticker backfill
+		Map<String, List<String>> batches = new LinkedHashMap<>();
+		Queue<String> fallback = new ConcurrentLinkedQueue<>();
+		byRange.forEach((range, tickers) -> {
+			String base = SPARK_TEMPLATE.replace("{RANGE}", range);
+			for (List<String> batch : BATCH_POLICY.split(tickers, base.length())) {
+				batches.put(base + String.join(",", batch), batch);
+			}
+		});
+		if (!batches.isEmpty()) {
+			TickerFanOut.fetchAll(batches.keySet().toArray(String[]::new), POLICY.concurrency(),
+							(url, batchSink) -> fetchBatch(url, batches.get(url), batchSink, fallback), sink);
+		}
 
-				if (rawData == null || rawData.isEmpty()) {
-					System.err.println("No data received for " + ticker);
-					continue;
-				}
+		// 3. a chart request per ticker to backfill, or that a batch could not serve, each one failing on its own
+		backfill.addAll(fallback);
+		if (!backfill.isEmpty()) {
+			TickerFanOut.fetchAll(backfill.toArray(String[]::new), POLICY.concurrency(), this::fetchTicker, sink);
+		}
+	}
 
-				// 3. Parse JSON using Inner DTOs
-				YfResponse response = gson.fromJson(rawData, YfResponse.class);
+	// null when the ticker has no saved bars, or they are older than the largest range reaches back
+	private static String sparkRange(long mark, long now) {
+		if (mark < 0 || BATCH_POLICY.maxSymbols() <= 0) {
+			return null;
+		}
+		long days = (now - mark) / (24 * 60 * 60 * 1000);
+		for (int i = 0; i < SPARK_RANGES.length; i++) {
+			if (days <= SPARK_RANGE_DAYS[i]) {
+				return SPARK_RANGES[i];
+			}
+		}
+		return null;
+	}
 
-				// 4. Validate response structure
-				if (response.chart == null || response.chart.result == null || response.chart.result.isEmpty()) {
-					System.err.println("Invalid JSON structure for " + ticker);
-					continue;
-				}
+	/**
+	 * Fetches the latest bars of a batch of tickers in one spark request. Tickers missing from the reply, or without a
+	 * full bar in it (spark replies often carry only the close), or the whole batch if the request fails, are added to
+	 * fallback for a chart request each, so every feature stays up to date.
+	 */
+	void fetchBatch(String url, List<String> tickers, DataPointSink sink, Collection<String> fallback) {
+		System.out.println("Fetching latest bars for " + tickers.size() + " tickers");
+		Map<String, Chart> charts;
+		try (Reader in = new InputStreamReader(WebHtmlGetter.getStream(url, CACHE_TTL), StandardCharsets.UTF_8)) {
+			charts = timedParse(() -> parseSpark(in));
+		} catch (IOException | RuntimeException e) {
+			System.err.println("Batch request failed, falling back to a chart request per ticker: " + e.getMessage());
+			charts = Map.of();
+		}
 
-				Result result = response.chart.result.get(0);
-				List<Long> timestamps = result.timestamp;
-				Indicators indicators = result.indicators;
+		for (String ticker : tickers) {
+			// the tickers are configured url-encoded (%5EGSP), the reply names them decoded (^GSP)
+			Chart chart = charts.get(URLDecoder.decode(ticker, StandardCharsets.UTF_8));
+			if (chart != null && chart.timestamps.length > 0 && chart.hasFullBars()) {
+				pushBars(ticker, chart, sink);
+			} else {
+				fallback.add(ticker);
+			}
+		}
+	}
 
-				// Validate data arrays exist
-				if (timestamps == null || indicators == null || indicators.quote == null || indicators.quote.isEmpty()) {
-					continue;
-				}
+	/**
+	 * Fetches and parses the full daily history of a single ticker.
+	 */
+	private void fetchTicker(String ticker, DataPointSink sink) throws IOException {
+		// 1. Construct URL, only asking for bars from the last saved one on when running incrementally
+		String targetUrl = URL_TEMPLATE
+						.replace("{TICKER}", ticker)
+						.replace("{PERIOD1}", Long.toString(period1(ticker)));
 
-				Quote quote = indicators.quote.get(0);
+		// 2. Fetch Data, decoding it straight off the response stream
+		System.out.println("Fetching data for: " + ticker);
+		Chart chart;
+		try (Reader in = new InputStreamReader(WebHtmlGetter.getStream(targetUrl, CACHE_TTL), StandardCharsets.UTF_8)) {
+			chart = timedParse(() -> parseChart(in));
+		}
 
-				// 5. Iterate through time series and create DataPoints
-				for (int i = 0; i < timestamps.size(); i++) {
-					Long ts = timestamps.get(i);
+		// 3. Validate response structure
+		if (chart == null || chart.timestamps.length == 0) {
+			System.err.println("No data received for " + ticker);
+			return;
+		}
 
-					// Yahoo timestamps are in seconds, convert to LocalDateTime
-					// Using system default zone, but you might prefer ZoneId.of("NZ") based on your data
-					LocalDateTime date = LocalDateTime.ofInstant(Instant.ofEpochSecond(ts), ZoneId.systemDefault());
+		// 4. Push every bar
+		pushBars(ticker, chart, sink);
+	}
 
-					// Extract features (handling potential nulls in the stream)
-					addPoint(dataPoints, date, ticker, "Close", quote.close, i);
-					addPoint(dataPoints, date, ticker, "Open", quote.open, i);
-					addPoint(dataPoints, date, ticker, "High", quote.high, i);
-					addPoint(dataPoints, date, ticker, "Low", quote.low, i);
-					addPoint(dataPoints, date, ticker, "Volume", quote.volume, i);
-				}
+	private void pushBars(String ticker, Chart chart, DataPointSink sink) {
+		// a bar is stored under its trading date in the exchange's zone, Pacific/Auckland unless the reply names another
+		TradingDays.Zone zone = TradingDays.zone(chart.timezone);
+		for (int i = 0; i < chart.timestamps.length; i++) {
+			long ts = zone.dayMillis(chart.timestamps[i]); // Yahoo timestamps are in seconds
 
-			} catch (Exception e) {
-				System.err.println("Error processing ticker " + ticker + ": " + e.getMessage());
-				e.printStackTrace();
-			}
+			// Extract features (nulls in the stream were decoded as NaN, which the sink drops)
+			addPoint(sink, ts, ticker, "Close", chart.close, i);
+			addPoint(sink, ts, ticker, "Open", chart.open, i);
+			addPoint(sink, ts, ticker, "High", chart.high, i);
+			addPoint(sink, ts, ticker, "Low", chart.low, i);
+			addPoint(sink, ts, ticker, "Volume", chart.volume, i);
 		}
+	}
 
-		return dataPoints;
+	// Yahoo period1 in epoch seconds: 0 for the full history, else one day before the high-water mark,
+	// the overlapping bars are replaced when merging
+	private long period1(String ticker) {
+		long mark = highWaterMark(ticker);
+		return mark < 0 ? 0 : Math.max(0, mark / 1000 - 24 * 60 * 60);
 	}
 
-	// Helper to safely add a datapoint if the value exists at that index
-	private void addPoint(Set<DataPoint> points, LocalDateTime date, String ticker, String feature, List<Double> values, int index) {
-		if (values != null && index < values.size() && values.get(index) != null) {
-			points.add(new DataPoint(date, ticker, feature, values.get(index)));
+	// Helper to safely push a value if the series has one at that index
+	private void addPoint(DataPointSink sink, long ts, String ticker, String feature, double[] values, int index) {
+		if (values != null && index < values.length) {
+			sink.accept(ticker, feature, ts, values[index]);
 		}
 	}
 
 	// ============================================================
-	// Internal DTO classes to map Yahoo Finance JSON structure
+	// Streaming decoder for the Yahoo Finance chart JSON
 	// Structure: chart -> result[] -> [timestamp[], indicators -> quote[]]
+	// Arrays are decoded straight into primitive arrays, no DTOs or boxed lists.
 	// ============================================================
 
-	private static class YfResponse {
-		Chart chart;
+	static final class Chart {
+		String timezone; // meta.exchangeTimezoneName, e.g. "Pacific/Auckland"
+		long[] timestamps = new long[0];
+		double[] open;
+		double[] high;
+		double[] low;
+		double[] close;
+		double[] volume;
+
+		// whether open, high, low, close and volume all came with the reply
+		boolean hasFullBars() {
+			return open != null && high != null && low != null && close != null && volume != null;
+		}
 	}
 
-	private static class Chart {
-		List<Result> result;
-		Object error; // can be mapped if needed
+	/**
+	 * Decodes the first chart result of a response, or returns null if the response has none.
+	 */
+	static Chart parseChart(Reader in) throws IOException {
+		JsonReader reader = new JsonReader(in);
+		Chart chart = null;
+
+		reader.beginObject();
+		while (reader.hasNext()) {
+			if (!reader.nextName().equals("chart") || reader.peek() != JsonToken.BEGIN_OBJECT) {
+				reader.skipValue();
+				continue;
+			}
+
+			reader.beginObject();
+			while (reader.hasNext()) {
+				if (!reader.nextName().equals("result") || reader.peek() != JsonToken.BEGIN_ARRAY) {
+					reader.skipValue(); // error, or a null result
+					continue;
+				}
+
+				reader.beginArray();
+				if (reader.hasNext()) {
+					chart = readResult(reader);
+				}
+				while (reader.hasNext()) {
+					reader.skipValue();
+				}
+				reader.endArray();
+			}
+			reader.endObject();
+		}
+		reader.endObject();
+
+		return chart;
 	}
 
-	private static class Result {
-		Meta meta;
-		List<Long> timestamp;
-		Indicators indicators;
+	/**
+	 * Decodes a spark response into the chart of every symbol in it, keyed by the symbol as the reply names it.
+	 * Structure: spark -> result[] -> [symbol, response[0] -> a chart result object]
+	 */
+	static Map<String, Chart> parseSpark(Reader in) throws IOException {
+		JsonReader reader = new JsonReader(in);
+		Map<String, Chart> charts = new HashMap<>();
+
+		reader.beginObject();
+		while (reader.hasNext()) {
+			if (!reader.nextName().equals("spark") || reader.peek() != JsonToken.BEGIN_OBJECT) {
+				reader.skipValue();
+				continue;
+			}
+
+			reader.beginObject();
+			while (reader.hasNext()) {
+				if (!reader.nextName().equals("result") || reader.peek() != JsonToken.BEGIN_ARRAY) {
+					reader.skipValue(); // error, or a null result
+					continue;
+				}
+
+				reader.beginArray();
+				while (reader.hasNext()) {
+					readSparkResult(reader, charts);
+				}
+				reader.endArray();
+			}
+			reader.endObject();
+		}
+		reader.endObject();
+
+		return charts;
 	}
 
-	private static class Meta {
-		String currency;
-		String symbol;
-		String timezone;
+	private static void readSparkResult(JsonReader reader, Map<String, Chart> charts) throws IOException {
+		String symbol = null;
+		Chart chart = null;
+
+		reader.beginObject();
+		while (reader.hasNext()) {
+			String name = reader.nextName();
+			if (name.equals("symbol") && reader.peek() == JsonToken.STRING) {
+				symbol = reader.nextString();
+			} else if (name.equals("response") && reader.peek() == JsonToken.BEGIN_ARRAY) {
+				reader.beginArray();
+				if (reader.hasNext() && reader.peek() == JsonToken.BEGIN_OBJECT) {
+					chart = readResult(reader);
+				}
+				while (reader.hasNext()) {
+					reader.skipValue();
+				}
+				reader.endArray();
+			} else {
+				reader.skipValue();
+			}
+		}
+		reader.endObject();
+
+		if (symbol != null && chart != null) {
+			charts.put(symbol, chart);
+		}
 	}
 
-	private static class Indicators {
-		List<Quote> quote;
-		// List<AdjClose> adjclose; // Optional: map if you need adjusted close specifically
+	// reads one result object, keeping meta.exchangeTimezoneName, timestamp[] and indicators.quote[0], skipping the rest
+	static Chart readResult(JsonReader reader) throws IOException {
+		Chart chart = new Chart();
+
+		reader.beginObject();
+		while (reader.hasNext()) {
+			String name = reader.nextName();
+			if (reader.peek() == JsonToken.NULL) {
+				reader.nextNull();
+			} else if (name.equals("timestamp")) {
+				chart.timestamps = JsonStreams.readLongArray(reader, 0);
+			} else if (name.equals("indicators")) {
+				readIndicators(reader, chart);
+			} else if (name.equals("meta") && reader.peek() == JsonToken.BEGIN_OBJECT) {
+				reader.beginObject();
+				while (reader.hasNext()) {
+					if (reader.nextName().equals("exchangeTimezoneName") && reader.peek() == JsonToken.STRING) {
+						chart.timezone = reader.nextString();
+					} else {
+						reader.skipValue();
+					}
+				}
+				reader.endObject();
+			} else {
+				reader.skipValue();
+			}
+		}
+		reader.endObject();
+
+		return chart;
 	}
 
-	private static class Quote {
-		List<Double> open;
-		List<Double> high;
-		List<Double> low;
-		List<Double> close;
-		List<Double> volume;
+	private static void readIndicators(JsonReader reader, Chart chart) throws IOException {
+		reader.beginObject();
+		while (reader.hasNext()) {
+			if (!reader.nextName().equals("quote") || reader.peek() != JsonToken.BEGIN_ARRAY) {
+				reader.skipValue(); // adjclose is not used
+				continue;
+			}
+
+			reader.beginArray();
+			if (reader.hasNext() && reader.peek() == JsonToken.BEGIN_OBJECT) {
+				reader.beginObject();
+				while (reader.hasNext()) {
+					String name = reader.nextName();
+					if (reader.peek() != JsonToken.BEGIN_ARRAY) {
+						reader.skipValue();
+						continue;
+					}
+					switch (name) {
+						case "open" -> chart.open = JsonStreams.readDoubleArray(reader);
+						case "high" -> chart.high = JsonStreams.readDoubleArray(reader);
+						case "low" -> chart.low = JsonStreams.readDoubleArray(reader);
+						case "close" -> chart.close = JsonStreams.readDoubleArray(reader);
+						case "volume" -> chart.volume = JsonStreams.readDoubleArray(reader);
+						default -> reader.skipValue();
+					}
+				}
+				reader.endObject();
+			}
+			while (reader.hasNext()) {
+				reader.skipValue();
+			}
+			reader.endArray();
+		}
+		reader.endObject();
 	}
-}
\ No newline at end of file
+}
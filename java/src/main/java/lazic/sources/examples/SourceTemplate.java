@@ -1,29 +1,25 @@
 package lazic.sources.examples;
 
 import com.google.gson.Gson;
-import lazic.utils.ingest.DataPoint;
+import lazic.utils.ingest.DataPointSink;
 import lazic.utils.ingest.DataSourceBase;
 import lazic.utils.ingest.WebHtmlGetter;
 
-import java.time.LocalDateTime;
-import java.util.Set;
-
 public class SourceTemplate extends DataSourceBase {
 	private final String URL = "";
 
 	/**
-	 * Returns a set of DataPoint's. Ticker is null if the datapoint does not pertain to a particular ticker, such as macroeconomic data for example
-	 * There are multiple DataPoint's in a time-series feature, and there may be multiple features returned overall.
+	 * Pushes every decoded point into the sink. Ticker is null if the point does not pertain to a particular ticker, such as macroeconomic data for example
+	 * There are multiple points in a time-series feature, and there may be multiple features returned overall. NaN values are dropped by the sink.
 	 */
 	@Override
-	public Set<DataPoint> getDataPoints() {
+	public void ingest(DataPointSink sink) throws Exception {
 
-		DataPoint example = new DataPoint(LocalDateTime.now(), "Ticker", "Feature name", Double.valueOf(1));
+		sink.accept("Ticker", "Feature name", System.currentTimeMillis(), 1.0);
 
 		String[] tickers = lazic.sources.config.Tickers.TICKERS; //"ANZ.NZ", "AFCA.NZ", etc
 		Gson gson = new Gson();
 		String rawData = WebHtmlGetter.get(URL);
 		System.out.println(rawData);
-		return Set.of(example);
 	}
 }
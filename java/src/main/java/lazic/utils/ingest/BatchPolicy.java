@@ -0,0 +1,38 @@
+package lazic.utils.ingest;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * How many symbols a multi-symbol request may carry: at most maxSymbols, and the request url, symbols joined by
+ * commas, at most maxUrlLength characters long. A symbol too long to share a request still gets one of its own.
+ */
+public record BatchPolicy(int maxSymbols, int maxUrlLength) {
+
+	/**
+	 * Splits the symbols, in order, into as few batches as the limits allow. baseUrlLength is the length of the url
+	 * without any symbols in it.
+	 */
+	public List<List<String>> split(List<String> symbols, int baseUrlLength) {
+		List<List<String>> batches = new ArrayList<>();
+		List<String> batch = new ArrayList<>();
+		int length = baseUrlLength;
+
+		for (String symbol : symbols) {
+			int added = symbol.length() + (batch.isEmpty() ? 0 : 1);
+			if (!batch.isEmpty() && (batch.size() == maxSymbols || length + added > maxUrlLength)) {
+				batches.add(batch);
+				batch = new ArrayList<>();
+				length = baseUrlLength;
+				added = symbol.length();
+			}
+			batch.add(symbol);
+			length += added;
+		}
+
+		if (!batch.isEmpty()) {
+			batches.add(batch);
+		}
+		return batches;
+	}
+}
@@ -0,0 +1,219 @@
+package lazic.utils.ingest;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Binary columnar alternative to {@link CsvLongParser}, read on the Python side by src/utils/columnar_utils.py.
+ * All numbers are little-endian:
+ *
+ * magic            8 bytes "NORNCOL1"
+ * symbol count     int32, then per symbol: int32 byte length (-1 for null) + UTF-8 bytes
+ * block count      int32, then per block:
+ *   ticker id      int32 (index into the symbols)
+ *   feature id     int32 (index into the symbols)
+ *   point count    int32
+ *   payload length int32, then the zlib-compressed payload:
+ *                  point count int64 timestamps, delta-encoded (first value absolute)
+ *                  point count float64 values
+ *
+ * A series longer than BLOCK_POINTS is split over several consecutive blocks with the same ids.
+ */
+public class ColumnarLongParser {
+	static final byte[] MAGIC = "NORNCOL1".getBytes(StandardCharsets.US_ASCII);
+	static final int BLOCK_POINTS = 1 << 16;
+
+	/**
+	 * Saves all ingested points to the columnar format described above.
+	 */
+	public static boolean saveColumnar(String path) {
+		return saveColumnar(path, IngestManager.INSTANCE.data);
+	}
+
+	/**
+	 * Same as {@link #saveColumnar(String)} for any store, e.g. a slice picked by a {@link SeriesQuery}.
+	 */
+	public static boolean saveColumnar(String path, TimeSeriesStore data) {
+		if (data.isEmpty()) {
+			return false;
+		}
+
+		long start = System.nanoTime();
+		List<TimeSeries> series = data.series();
+
+		// dictionary-encode tickers and features into one symbol table
+		SymbolTable symbols = new SymbolTable();
+		int blockCount = 0;
+		for (TimeSeries s : series) {
+			symbols.intern(s.getTicker());
+			symbols.intern(s.getFeature());
+			blockCount += (s.size() + BLOCK_POINTS - 1) / BLOCK_POINTS;
+		}
+
+		ByteBuffer raw = ByteBuffer.allocate(BLOCK_POINTS * 16).order(ByteOrder.LITTLE_ENDIAN);
+		ByteBuffer out = ByteBuffer.allocate(1 << 20).order(ByteOrder.LITTLE_ENDIAN);
+		byte[] compressed = new byte[BLOCK_POINTS * 16 + 1024];
+		Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+
+		try (FileChannel channel = FileChannel.open(Path.of(path),
+						StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+
+			out.put(MAGIC);
+			out.putInt(symbols.size());
+			for (int i = 0; i < symbols.size(); i++) {
+				String symbol = symbols.symbol(i);
+				if (symbol == null) {
+					out = ensure(channel, out, 4);
+					out.putInt(-1);
+				} else {
+					byte[] bytes = symbol.getBytes(StandardCharsets.UTF_8);
+					out = ensure(channel, out, 4 + bytes.length);
+					out.putInt(bytes.length);
+					out.put(bytes);
+				}
+			}
+
+			out = ensure(channel, out, 4);
+			out.putInt(blockCount);
+
+			for (TimeSeries s : series) {
+				int tickerId = symbols.idOf(s.getTicker());
+				int featureId = symbols.idOf(s.getFeature());
+
+				for (int from = 0; from < s.size(); from += BLOCK_POINTS) {
+					int to = Math.min(s.size(), from + BLOCK_POINTS);
+
+					raw.clear();
+					long previous = 0;
+					for (int i = from; i < to; i++) {
+						long ts = s.timestampAt(i);
+						raw.putLong(i == from ? ts : ts - previous);
+						previous = ts;
+					}
+					for (int i = from; i < to; i++) {
+						raw.putDouble(s.valueAt(i));
+					}
+
+					deflater.reset();
+					deflater.setInput(raw.array(), 0, raw.position());
+					deflater.finish();
+					int length = 0;
+					while (!deflater.finished()) {
+						if (length == compressed.length) {
+							compressed = Arrays.copyOf(compressed, compressed.length * 2);
+						}
+						length += deflater.deflate(compressed, length, compressed.length - length);
+					}
+
+					out = ensure(channel, out, 16 + length);
+					out.putInt(tickerId);
+					out.putInt(featureId);
+					out.putInt(to - from);
+					out.putInt(length);
+					out.put(compressed, 0, length);
+				}
+			}
+
+			flush(channel, out);
+			IngestMetrics.INSTANCE.exported("columnar", data.size(), channel.size(), System.nanoTime() - start);
+			return true;
+
+		} catch (IOException e) {
+			e.printStackTrace();
+			return false;
+		} finally {
+			deflater.end();
+		}
+	}
+
+	/**
+	 * Loads a file written by {@link #saveColumnar(String)} into the given store.
+	 */
+	public static void loadColumnar(String path, TimeSeriesStore store) throws IOException {
+		ByteBuffer in = ByteBuffer.wrap(Files.readAllBytes(Path.of(path))).order(ByteOrder.LITTLE_ENDIAN);
+		byte[] magic = new byte[MAGIC.length];
+		in.get(magic);
+		if (!Arrays.equals(magic, MAGIC)) {
+			throw new IOException("Not a columnar export: " + path);
+		}
+
+		String[] symbols = new String[in.getInt()];
+		for (int i = 0; i < symbols.length; i++) {
+			int length = in.getInt();
+			if (length >= 0) {
+				symbols[i] = new String(in.array(), in.position(), length, StandardCharsets.UTF_8);
+				in.position(in.position() + length);
+			}
+		}
+
+		ByteBuffer raw = ByteBuffer.allocate(BLOCK_POINTS * 16).order(ByteOrder.LITTLE_ENDIAN);
+		Inflater inflater = new Inflater();
+		try {
+			int blockCount = in.getInt();
+			for (int b = 0; b < blockCount; b++) {
+				String ticker = symbols[in.getInt()];
+				String feature = symbols[in.getInt()];
+				int points = in.getInt();
+				int length = in.getInt();
+
+				inflater.reset();
+				inflater.setInput(in.array(), in.position(), length);
+				in.position(in.position() + length);
+				int inflated = 0;
+				while (inflated < points * 16 && !inflater.finished()) {
+					int n = inflater.inflate(raw.array(), inflated, points * 16 - inflated);
+					if (n == 0 && inflater.needsInput()) {
+						break;
+					}
+					inflated += n;
+				}
+				if (inflated != points * 16) {
+					throw new IOException("Truncated block in " + path);
+				}
+
+				long ts = 0;
+				for (int i = 0; i < points; i++) {
+					long delta = raw.getLong(i * 8);
+					ts = i == 0 ? delta : ts + delta;
+					store.append(ticker, feature, ts, raw.getDouble((points + i) * 8));
+				}
+			}
+		} catch (DataFormatException | RuntimeException e) { // BufferUnderflowException for a truncated file
+			throw new IOException("Corrupt columnar export " + path + ": " + e.getMessage(), e);
+		} finally {
+			inflater.end();
+		}
+	}
+
+	// makes room for the next write, flushing to the channel (or growing the buffer for an oversized record)
+	static ByteBuffer ensure(FileChannel channel, ByteBuffer out, int bytes) throws IOException {
+		if (out.remaining() >= bytes) {
+			return out;
+		}
+
+		flush(channel, out);
+		if (out.capacity() < bytes) {
+			return ByteBuffer.allocate(bytes).order(ByteOrder.LITTLE_ENDIAN);
+		}
+		return out;
+	}
+
+	static void flush(FileChannel channel, ByteBuffer out) throws IOException {
+		out.flip();
+		while (out.hasRemaining()) {
+			channel.write(out);
+		}
+		out.clear();
+	}
+}
@@ -1,59 +1,309 @@
 package lazic.utils.ingest;
 
-import java.io.BufferedWriter;
-import java.io.FileWriter;
+import java.io.BufferedReader;
 import java.io.IOException;
-import java.time.ZoneId;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
 
 public class CsvLongParser {
+	static final int BUFFER_SIZE = 1 << 20;
+
+	// above this many points, rows are formatted in parallel chunks and written in order
+	static final long PARALLEL_THRESHOLD = 1 << 20;
+	static final int CHUNK_POINTS = 1 << 18;
+
+	private static final byte[] NEWLINE = System.lineSeparator().getBytes(StandardCharsets.US_ASCII);
+	private static final byte[] HEADER = ("timestamp,ticker,feature,value" + System.lineSeparator())
+					.getBytes(StandardCharsets.US_ASCII);
 
 	/**
-	 * Saves all DataPoint entries to long-format CSV:
+	 * Saves all ingested points to long-format CSV, one row per point in the store's series order:
 	 *
 	 * timestamp_ms,ticker,feature,value
+	 *
+	 * A path ending in .gz is written gzip-compressed.
 	 */
 	public static boolean saveCsv(String path) {
-		var data = IngestManager.INSTANCE.data;
+		return saveCsv(path, IngestManager.INSTANCE.data);
+	}
 
+	/**
+	 * Same as {@link #saveCsv(String)} for any store, e.g. a slice picked by a {@link SeriesQuery}.
+	 */
+	public static boolean saveCsv(String path, TimeSeriesStore data) {
 		if (data.isEmpty()) {
 			return false;
 		}
 
-		try (BufferedWriter bw = new BufferedWriter(new FileWriter(path))) {
-			bw.write("timestamp,ticker,feature,value");
-			bw.newLine();
+		try {
+			long start = System.nanoTime();
+			write(Path.of(path), data, data.size() >= PARALLEL_THRESHOLD);
+			IngestMetrics.INSTANCE.exported("csv", data.size(), Files.size(Path.of(path)), System.nanoTime() - start);
+			return true;
 
-			for (DataPoint dp : data) {
-				long ts = (dp.getTimestamp() != null)
-								? dp.getTimestamp()
-								.atZone(ZoneId.of("UTC"))
-								.toInstant()
-								.toEpochMilli()
-								: -1;
+		} catch (IOException | UncheckedIOException e) {
+			e.printStackTrace();
+			return false;
+		}
+	}
 
-				String ticker = dp.getTicker() != null ? dp.getTicker() : "";
-				String feature = dp.getFeatureName() != null ? dp.getFeatureName() : "";
-				String value = dp.getValue() != null ? dp.getValue().toString() : "";
+	/**
+	 * Writes the store through one large buffer into a FileChannel (or a gzip stream over it).
+	 * Ticker and feature are escaped once per series; per row only the timestamp and value are formatted,
+	 * straight into the reusable byte buffer.
+	 */
+	static void write(Path path, TimeSeriesStore data, boolean parallel) throws IOException {
+		try (FileChannel channel = FileChannel.open(path,
+						StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+				 OutputStream gzip = path.toString().endsWith(".gz")
+								 ? new GZIPOutputStream(Channels.newOutputStream(channel), BUFFER_SIZE)
+								 : null) {
 
-				// clean of dangerous characters
-				ticker = ticker.replace(",","-");
-				ticker = ticker.replace("\n","-");
+			Output out = gzip != null
+							? gzip::write
+							: (bytes, off, len) -> {
+								ByteBuffer buffer = ByteBuffer.wrap(bytes, off, len);
+								while (buffer.hasRemaining()) {
+									channel.write(buffer);
+								}
+							};
 
-				feature = feature.replace(",","-");
-				feature = feature.replace("\n","-");
+			out.write(HEADER, 0, HEADER.length);
 
-				value = value.replace(",","-");
-				value = value.replace("\n","-");
+			List<TimeSeries> series = data.series();
+			if (parallel) {
+				writeParallel(series, out);
+			} else {
+				RowEncoder encoder = new RowEncoder(BUFFER_SIZE, out);
+				for (TimeSeries s : series) {
+					encoder.encode(s, 0, s.size());
+				}
+				encoder.flush();
+			}
+		}
+	}
 
-				bw.write(ts + "," + ticker + "," + feature + "," + value);
-				bw.newLine();
+	// formats chunks of ~CHUNK_POINTS rows on the common pool, one wave of chunks per core at a time to bound memory,
+	// and writes each wave in order
+	private static void writeParallel(List<TimeSeries> series, Output out) throws IOException {
+		List<int[]> chunks = new ArrayList<>(); // {series index, from, to}
+		for (int i = 0; i < series.size(); i++) {
+			int size = series.get(i).size();
+			for (int from = 0; from < size; from += CHUNK_POINTS) {
+				chunks.add(new int[] {i, from, Math.min(size, from + CHUNK_POINTS)});
 			}
+		}
 
-			return true;
+		int wave = Math.max(1, Runtime.getRuntime().availableProcessors());
+		for (int start = 0; start < chunks.size(); start += wave) {
+			List<int[]> batch = chunks.subList(start, Math.min(chunks.size(), start + wave));
 
-		} catch (IOException e) {
-			e.printStackTrace();
-			return false;
+			List<RowEncoder> encoded = batch.parallelStream()
+							.map(chunk -> {
+								RowEncoder encoder = new RowEncoder(BUFFER_SIZE, null); // grows instead of flushing
+								encoder.encode(series.get(chunk[0]), chunk[1], chunk[2]);
+								return encoder;
+							})
+							.toList();
+
+			for (RowEncoder encoder : encoded) {
+				out.write(encoder.buf, 0, encoder.pos);
+			}
+		}
+	}
+
+	@FunctionalInterface
+	interface Output {
+		void write(byte[] bytes, int off, int len) throws IOException;
+	}
+
+	/**
+	 * Formats rows into a reusable byte buffer. With an output, the buffer is flushed when full;
+	 * without one, it grows to hold everything encoded.
+	 */
+	static final class RowEncoder {
+		private static final long NEGATIVE_ZERO_BITS = Double.doubleToRawLongBits(-0.0);
+		private static final long[] POWERS_OF_TEN = {1, 10, 100, 1_000, 10_000, 100_000, 1_000_000};
+
+		private final Output out;
+		private final StringBuilder number = new StringBuilder(32);
+		private byte[] buf;
+		private int pos;
+
+		RowEncoder(int capacity, Output out) {
+			this.buf = new byte[capacity];
+			this.out = out;
+		}
+
+		void encode(TimeSeries s, int from, int to) {
+			byte[] ticker = escape(s.getTicker());
+			byte[] feature = escape(s.getFeature());
+			int maxRow = 20 + 1 + ticker.length + 1 + feature.length + 1 + 32 + NEWLINE.length;
+
+			for (int i = from; i < to; i++) {
+				ensure(maxRow);
+				writeLong(s.timestampAt(i));
+				buf[pos++] = ',';
+				System.arraycopy(ticker, 0, buf, pos, ticker.length);
+				pos += ticker.length;
+				buf[pos++] = ',';
+				System.arraycopy(feature, 0, buf, pos, feature.length);
+				pos += feature.length;
+				buf[pos++] = ',';
+				writeDouble(s.valueAt(i));
+				System.arraycopy(NEWLINE, 0, buf, pos, NEWLINE.length);
+				pos += NEWLINE.length;
+			}
+		}
+
+		void flush() {
+			if (out != null && pos > 0) {
+				try {
+					out.write(buf, 0, pos);
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+				pos = 0;
+			}
+		}
+
+		private void ensure(int bytes) {
+			if (buf.length - pos >= bytes) {
+				return;
+			}
+			if (out != null && bytes <= buf.length) {
+				flush();
+			} else {
+				buf = Arrays.copyOf(buf, Math.max(buf.length * 2, pos + bytes));
+			}
+		}
+
+		private void writeLong(long v) {
+			if (v == Long.MIN_VALUE) {
+				writeAscii(Long.toString(v));
+				return;
+			}
+			if (v < 0) {
+				buf[pos++] = '-';
+				v = -v;
+			}
+
+			int start = pos;
+			do {
+				buf[pos++] = (byte) ('0' + (v % 10));
+				v /= 10;
+			} while (v != 0);
+
+			// digits were written least significant first
+			for (int i = start, j = pos - 1; i < j; i++, j--) {
+				byte tmp = buf[i];
+				buf[i] = buf[j];
+				buf[j] = tmp;
+			}
+		}
+
+		// same text as Double.toString. Values in [1e-3, 1e7) with at most 6 decimals (prices, volumes, most
+		// fundamentals) are formatted directly: the smallest scale k for which m / 10^k round-trips to v gives the
+		// shortest decimal, which is exactly what Double.toString prints. Anything else goes through the reused StringBuilder.
+		private void writeDouble(double v) {
+			double abs = Math.abs(v);
+			if (abs >= 1e-3 && abs < 1e7) {
+				for (int k = 0; k < POWERS_OF_TEN.length; k++) {
+					long m = Math.round(abs * POWERS_OF_TEN[k]);
+					if (m / (double) POWERS_OF_TEN[k] == abs) {
+						writeScaled(v < 0, m, k);
+						return;
+					}
+				}
+			} else if (v == 0 && Double.doubleToRawLongBits(v) != NEGATIVE_ZERO_BITS) {
+				writeScaled(false, 0, 0);
+				return;
+			}
+
+			number.setLength(0);
+			number.append(v);
+			for (int i = 0; i < number.length(); i++) {
+				buf[pos++] = (byte) number.charAt(i); // always ASCII
+			}
+		}
+
+		// writes m / 10^k with at least one fractional digit, e.g. (1234, 2) -> 12.34 and (5, 0) -> 5.0
+		private void writeScaled(boolean negative, long m, int k) {
+			if (negative) {
+				buf[pos++] = '-';
+			}
+			writeLong(m / POWERS_OF_TEN[k]);
+			buf[pos++] = '.';
+
+			if (k == 0) {
+				buf[pos++] = '0';
+				return;
+			}
+
+			long fraction = m % POWERS_OF_TEN[k];
+			for (int i = k - 1; i >= 0; i--) {
+				buf[pos + i] = (byte) ('0' + (fraction % 10));
+				fraction /= 10;
+			}
+			pos += k;
+		}
+
+		private void writeAscii(String s) {
+			for (int i = 0; i < s.length(); i++) {
+				buf[pos++] = (byte) s.charAt(i);
+			}
+		}
+
+		// clean of dangerous characters in a single pass, null becomes empty
+		static byte[] escape(String field) {
+			if (field == null) {
+				return new byte[0];
+			}
+
+			char[] chars = field.toCharArray();
+			for (int i = 0; i < chars.length; i++) {
+				if (chars[i] == ',' || chars[i] == '\n') {
+					chars[i] = '-';
+				}
+			}
+			return new String(chars).getBytes(StandardCharsets.UTF_8);
+		}
+	}
+
+	/**
+	 * Loads a long-format CSV written by {@link #saveCsv(String)} into the given store.
+	 * An empty ticker column is read back as null (macro data).
+	 */
+	public static void loadCsv(String path, TimeSeriesStore store) throws IOException {
+		try (BufferedReader br = Files.newBufferedReader(Path.of(path), StandardCharsets.UTF_8)) {
+			String line = br.readLine(); // header
+
+			while ((line = br.readLine()) != null) {
+				int c1 = line.indexOf(',');
+				int c2 = line.indexOf(',', c1 + 1);
+				int c3 = line.indexOf(',', c2 + 1);
+				if (c1 < 0 || c2 < 0 || c3 < 0) {
+					continue;
+				}
+
+				long ts = Long.parseLong(line, 0, c1, 10);
+				String ticker = c2 > c1 + 1 ? line.substring(c1 + 1, c2) : null;
+				String feature = line.substring(c2 + 1, c3);
+				double value = Double.parseDouble(line.substring(c3 + 1));
+
+				store.append(ticker, feature, ts, value);
+			}
 		}
 	}
 }
@@ -1,6 +1,7 @@
 package lazic.utils.ingest;
 import java.io.Serializable;
 import java.time.LocalDateTime;
+import java.util.Objects;
 
 public class DataPoint implements Serializable {
 
@@ -33,6 +34,21 @@ public class DataPoint implements Serializable {
 	public Double getValue() { return value; }
 	public void setValue(double value) { this.value = value; }
 
+	@Override
+	public boolean equals(Object o) {
+		if (this == o) return true;
+		if (!(o instanceof DataPoint other)) return false;
+		return Objects.equals(timestamp, other.timestamp)
+						&& Objects.equals(ticker, other.ticker)
+						&& Objects.equals(featureName, other.featureName)
+						&& Objects.equals(value, other.value);
+	}
+
+	@Override
+	public int hashCode() {
+		return Objects.hash(timestamp, ticker, featureName, value);
+	}
+
 	@Override
 	public String toString() {
 		return String.format(
@@ -0,0 +1,41 @@
+package lazic.utils.ingest;
+
+import java.time.ZoneOffset;
+
+/**
+ * Receives observations as a source decodes them, instead of the source building a Set<DataPoint> first.
+ *
+ * A sink is not thread-safe. A source that decodes on several threads gives each of them its own
+ * {@link TimeSeriesStore} and hands the finished stores over with {@link #acceptAll}, one at a time
+ * (see {@link TickerFanOut}).
+ */
+@FunctionalInterface
+public interface DataPointSink {
+
+	/**
+	 * Accepts one observation. Ticker is null for macro data; a NaN value means there is no observation and is dropped.
+	 */
+	void accept(String ticker, String feature, long epochMillis, double value);
+
+	/**
+	 * Accepts a DataPoint, converting its timestamp as UTC. Points without a value are dropped,
+	 * points without a timestamp are stored at -1.
+	 */
+	default void accept(DataPoint dp) {
+		if (dp.getValue() == null) {
+			return;
+		}
+
+		long ts = dp.getTimestamp() != null
+						? dp.getTimestamp().toInstant(ZoneOffset.UTC).toEpochMilli()
+						: -1;
+		accept(dp.getTicker(), dp.getFeatureName(), ts, dp.getValue());
+	}
+
+	/**
+	 * Accepts every point of a store.
+	 */
+	default void acceptAll(TimeSeriesStore points) {
+		points.forEach((ts, ticker, feature, value) -> accept(ticker, feature, ts, value));
+	}
+}
@@ -1,8 +1,99 @@
 package lazic.utils.ingest;
 
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.HashSet;
 import java.util.Set;
 
+/**
+ * A source of DataPoint's. Implementations are listed in META-INF/services/lazic.utils.ingest.DataSourceBase and
+ * picked up by {@link IngestManager#loadSources()}, so they need a public no-argument constructor.
+ */
 public abstract class DataSourceBase {
-	public DataSourceBase() { IngestManager.INSTANCE.sources.add(this); }
-	public abstract Set<DataPoint> getDataPoints();
+
+	/**
+	 * Fetches this source's data and pushes every observation into the sink as it is decoded.
+	 * Throws if the fetch fails, so the scheduler can retry it.
+	 */
+	public abstract void ingest(DataPointSink sink) throws Exception;
+
+	/**
+	 * Materializing adapter over {@link #ingest(DataPointSink)}. Returns a set of DataPoint's. Ticker is null if the
+	 * datapoint does not pertain to a particular ticker, such as macroeconomic data for example.
+	 * A failed fetch is logged and whatever was decoded before it is returned.
+	 */
+	public Set<DataPoint> getDataPoints() {
+		Set<DataPoint> points = new HashSet<>();
+		try {
+			ingest((ticker, feature, epochMillis, value) -> {
+				if (!Double.isNaN(value)) {
+					LocalDateTime time = LocalDateTime.ofInstant(Instant.ofEpochMilli(epochMillis), ZoneOffset.UTC);
+					points.add(new DataPoint(time, ticker, feature, value));
+				}
+			});
+		} catch (Exception e) {
+			System.err.println("Error ingesting " + getClass().getSimpleName() + ": " + e.getMessage());
+		}
+		return points;
+	}
+
+	/**
+	 * How the scheduler runs this source. Override for slow or flaky sources.
+	 */
+	public SourcePolicy policy() {
+		return SourcePolicy.DEFAULT;
+	}
+
+	/**
+	 * A step that decodes a reply, see {@link #timedParse(Parse)}.
+	 */
+	@FunctionalInterface
+	protected interface Parse<T, E extends Exception> {
+		T run() throws E;
+	}
+
+	/**
+	 * A step that decodes a reply straight into a sink, see {@link #timedParse(ParseInto)}.
+	 */
+	@FunctionalInterface
+	protected interface ParseInto<E extends Exception> {
+		void run() throws E;
+	}
+
+	/**
+	 * Runs a decoding step and, once it succeeds, records the time it took as this source's parse time in
+	 * {@link IngestMetrics}. Returns what the step decoded.
+	 */
+	protected <T, E extends Exception> T timedParse(Parse<T, E> parse) throws E {
+		long start = System.nanoTime();
+		T result = parse.run();
+		IngestMetrics.INSTANCE.parsed(getClass().getSimpleName(), System.nanoTime() - start);
+		return result;
+	}
+
+	/**
+	 * Same as {@link #timedParse(Parse)} for a step that pushes what it decodes into a sink.
+	 */
+	protected <E extends Exception> void timedParse(ParseInto<E> parse) throws E {
+		timedParse(() -> {
+			parse.run();
+			return null;
+		});
+	}
+
+	/**
+	 * In incremental mode, the epoch-millis timestamp up to which every series this source stored for the ticker
+	 * (null for macro data) is already saved, so only newer points need fetching. -1 means fetch everything.
+	 */
+	protected long highWaterMark(String ticker) {
+		return IngestManager.INSTANCE.highWaterMark(this, ticker);
+	}
+
+	/**
+	 * The features to ingest. Sources that can request a subset should; anything else is dropped when stored anyway.
+	 */
+	protected FeatureManifest manifest() {
+		return IngestManager.INSTANCE.manifest();
+	}
 }
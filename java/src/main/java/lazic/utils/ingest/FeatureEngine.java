@@ -0,0 +1,284 @@
+package lazic.utils.ingest;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Technical features derived from the YfPrices and YfFinances series of every ticker, stored as series of their own
+ * next to the raw ones:
+ *
+ * Return N     close / close N rows back - 1, for N = 1, 5, 20
+ * SMA 20       rolling mean of the close, Std 20 its rolling sample standard deviation
+ * EMA 12/26    exponential moving averages of the close, seeded with the first close
+ * RSI 14       relative strength index, Wilder smoothing
+ * ATR 14       average true range from High, Low and the previous Close, Wilder smoothing
+ * Volume Z 20  (volume - rolling mean) / rolling standard deviation
+ * PE annual    close / the latest annualDilutedEPS, PE trailing likewise from trailingDilutedEPS
+ *
+ * Every indicator is one pass over primitive arrays with O(1) work per row; windows are slid by adding the new row
+ * and removing the oldest, never by summing the window again. Tickers are computed in parallel.
+ */
+public class FeatureEngine {
+	static final int[] RETURN_WINDOWS = {1, 5, 20};
+	static final int MA_WINDOW = 20;
+	static final int EMA_FAST = 12;
+	static final int EMA_SLOW = 26;
+	static final int RSI_WINDOW = 14;
+	static final int ATR_WINDOW = 14;
+	static final int VOLUME_WINDOW = 20;
+
+	/**
+	 * Computes the features and merges them into the store. Features stored by an earlier run (e.g. loaded in
+	 * incremental mode) are replaced from the first recomputed point on, so they are never doubled.
+	 */
+	public static void addTo(TimeSeriesStore data) {
+		addTo(data, FeatureManifest.ALL);
+	}
+
+	/**
+	 * Same as {@link #addTo(TimeSeriesStore)}, keeping only the derived features the manifest includes.
+	 */
+	public static void addTo(TimeSeriesStore data, FeatureManifest manifest) {
+		TimeSeriesStore derived = compute(data);
+		derived.retainFeatures(manifest::includes);
+		data.mergeNewer(derived);
+	}
+
+	/**
+	 * The stored features a derived feature is computed from, none for any other feature.
+	 */
+	static Set<String> inputsOf(String feature) {
+		if (feature.startsWith("ATR ")) {
+			return Set.of("Close", "High", "Low");
+		}
+		if (feature.startsWith("Volume Z ")) {
+			return Set.of("Volume");
+		}
+		if (feature.equals("PE annual")) {
+			return Set.of("Close", "annualDilutedEPS");
+		}
+		if (feature.equals("PE trailing")) {
+			return Set.of("Close", "trailingDilutedEPS");
+		}
+		if (feature.startsWith("Return ") || feature.startsWith("SMA ") || feature.startsWith("Std ")
+						|| feature.startsWith("EMA ") || feature.startsWith("RSI ")) {
+			return Set.of("Close");
+		}
+		return Set.of();
+	}
+
+	/**
+	 * Computes the features of every ticker that has a Close series, into a new store.
+	 */
+	public static TimeSeriesStore compute(TimeSeriesStore data) {
+		// 1. group on the calling thread; series() sorts everything, so the workers below only ever read
+		Map<String, Map<String, TimeSeries>> byTicker = new HashMap<>();
+		for (TimeSeries s : data.series()) {
+			if (s.getTicker() != null) {
+				byTicker.computeIfAbsent(s.getTicker(), t -> new HashMap<>()).put(s.getFeature(), s);
+			}
+		}
+
+		// 2. one local store per ticker, merged once they are all done
+		List<TimeSeriesStore> perTicker = byTicker.entrySet().parallelStream()
+						.filter(e -> e.getValue().containsKey("Close"))
+						.map(e -> computeTicker(e.getKey(), e.getValue()))
+						.toList();
+
+		TimeSeriesStore derived = new TimeSeriesStore();
+		perTicker.forEach(derived::appendAll);
+		return derived;
+	}
+
+	private static TimeSeriesStore computeTicker(String ticker, Map<String, TimeSeries> series) {
+		TimeSeriesStore out = new TimeSeriesStore();
+		TimeSeries closeSeries = series.get("Close");
+		int n = closeSeries.size();
+		long[] ts = new long[n];
+		double[] close = new double[n];
+		for (int i = 0; i < n; i++) {
+			ts[i] = closeSeries.timestampAt(i);
+			close[i] = closeSeries.valueAt(i);
+		}
+
+		for (int window : RETURN_WINDOWS) {
+			returns(ticker, "Return " + window, ts, close, window, out);
+		}
+		rolling(ticker, "SMA " + MA_WINDOW, "Std " + MA_WINDOW, ts, close, MA_WINDOW, out);
+		ema(ticker, "EMA " + EMA_FAST, ts, close, EMA_FAST, out);
+		ema(ticker, "EMA " + EMA_SLOW, ts, close, EMA_SLOW, out);
+		rsi(ticker, ts, close, out);
+
+		if (series.containsKey("High") && series.containsKey("Low")) {
+			atr(ticker, ts, close, series.get("High"), series.get("Low"), out);
+		}
+		if (series.containsKey("Volume")) {
+			volumeZ(ticker, series.get("Volume"), out);
+		}
+		if (series.containsKey("annualDilutedEPS")) {
+			perShare(ticker, "PE annual", ts, close, series.get("annualDilutedEPS"), out);
+		}
+		if (series.containsKey("trailingDilutedEPS")) {
+			perShare(ticker, "PE trailing", ts, close, series.get("trailingDilutedEPS"), out);
+		}
+		return out;
+	}
+
+	private static void returns(String ticker, String feature, long[] ts, double[] close, int window,
+															TimeSeriesStore out) {
+		for (int i = window; i < ts.length; i++) {
+			if (close[i - window] != 0) {
+				out.accept(ticker, feature, ts[i], close[i] / close[i - window] - 1);
+			}
+		}
+	}
+
+	private static void rolling(String ticker, String meanFeature, String stdFeature, long[] ts, double[] values,
+															int window, TimeSeriesStore out) {
+		RollingStats stats = new RollingStats(window);
+		for (int i = 0; i < ts.length; i++) {
+			stats.slide(values[i], i >= window ? values[i - window] : Double.NaN);
+			if (i >= window - 1) {
+				out.accept(ticker, meanFeature, ts[i], stats.mean());
+				out.accept(ticker, stdFeature, ts[i], stats.std());
+			}
+		}
+	}
+
+	private static void ema(String ticker, String feature, long[] ts, double[] values, int span, TimeSeriesStore out) {
+		double alpha = 2.0 / (span + 1);
+		double ema = values.length > 0 ? values[0] : 0;
+		for (int i = 0; i < ts.length; i++) {
+			ema += alpha * (values[i] - ema);
+			out.accept(ticker, feature, ts[i], ema);
+		}
+	}
+
+	// Wilder: a plain average of the first RSI_WINDOW changes, then (previous * (n - 1) + current) / n
+	private static void rsi(String ticker, long[] ts, double[] close, TimeSeriesStore out) {
+		double gain = 0, loss = 0;
+		for (int i = 1; i < ts.length; i++) {
+			double change = close[i] - close[i - 1];
+			double up = Math.max(change, 0);
+			double down = Math.max(-change, 0);
+
+			if (i <= RSI_WINDOW) {
+				gain += up / RSI_WINDOW;
+				loss += down / RSI_WINDOW;
+			} else {
+				gain = (gain * (RSI_WINDOW - 1) + up) / RSI_WINDOW;
+				loss = (loss * (RSI_WINDOW - 1) + down) / RSI_WINDOW;
+			}
+
+			if (i >= RSI_WINDOW) {
+				double rsi = loss == 0 ? 100 : 100 - 100 / (1 + gain / loss);
+				out.accept(ticker, "RSI " + RSI_WINDOW, ts[i], rsi);
+			}
+		}
+	}
+
+	private static void atr(String ticker, long[] ts, double[] close, TimeSeries high, TimeSeries low,
+													TimeSeriesStore out) {
+		// High and Low are matched to the closes by timestamp, a row missing either is skipped
+		int h = 0, l = 0, count = 0;
+		double atr = 0;
+		for (int i = 1; i < ts.length; i++) {
+			while (h < high.size() && high.timestampAt(h) < ts[i]) {
+				h++;
+			}
+			while (l < low.size() && low.timestampAt(l) < ts[i]) {
+				l++;
+			}
+			if (h == high.size() || l == low.size()
+							|| high.timestampAt(h) != ts[i] || low.timestampAt(l) != ts[i]) {
+				continue;
+			}
+
+			double hi = high.valueAt(h);
+			double lo = low.valueAt(l);
+			double trueRange = Math.max(hi - lo, Math.max(Math.abs(hi - close[i - 1]), Math.abs(lo - close[i - 1])));
+
+			count++;
+			atr = count <= ATR_WINDOW
+							? atr + trueRange / ATR_WINDOW
+							: (atr * (ATR_WINDOW - 1) + trueRange) / ATR_WINDOW;
+			if (count >= ATR_WINDOW) {
+				out.accept(ticker, "ATR " + ATR_WINDOW, ts[i], atr);
+			}
+		}
+	}
+
+	private static void volumeZ(String ticker, TimeSeries volume, TimeSeriesStore out) {
+		RollingStats stats = new RollingStats(VOLUME_WINDOW);
+		for (int i = 0; i < volume.size(); i++) {
+			stats.slide(volume.valueAt(i), i >= VOLUME_WINDOW ? volume.valueAt(i - VOLUME_WINDOW) : Double.NaN);
+			double std = stats.std();
+			if (i >= VOLUME_WINDOW - 1 && std > 0) {
+				double z = (volume.valueAt(i) - stats.mean()) / std;
+				out.accept(ticker, "Volume Z " + VOLUME_WINDOW, volume.timestampAt(i), z);
+			}
+		}
+	}
+
+	// close divided by the latest per-share figure reported at or before each close
+	private static void perShare(String ticker, String feature, long[] ts, double[] close, TimeSeries perShare,
+															 TimeSeriesStore out) {
+		int latest = -1;
+		for (int i = 0; i < ts.length; i++) {
+			while (latest + 1 < perShare.size() && perShare.timestampAt(latest + 1) <= ts[i]) {
+				latest++;
+			}
+			if (latest >= 0 && perShare.valueAt(latest) != 0) {
+				out.accept(ticker, feature, ts[i], close[i] / perShare.valueAt(latest));
+			}
+		}
+	}
+
+	/**
+	 * Mean and sample variance of a sliding window, updated in O(1) per step with Welford's recurrences for adding
+	 * and removing a value, which stay accurate where running sums of squares cancel. A window of one repeated value
+	 * is exactly flat, whatever rounding the removals left behind.
+	 */
+	static final class RollingStats {
+		private final int window;
+		private int count;
+		private double mean;
+		private double m2;
+		private double last = Double.NaN;
+		private int run; // how many of the latest values equal last
+
+		RollingStats(int window) {
+			this.window = window;
+		}
+
+		/**
+		 * Adds a value and, once the window is full, removes the one that falls out (NaN while it is filling).
+		 */
+		void slide(double in, double outgoing) {
+			if (count < window || Double.isNaN(outgoing)) {
+				count++;
+				double delta = in - mean;
+				mean += delta / count;
+				m2 += delta * (in - mean);
+			} else {
+				double oldMean = mean;
+				mean += (in - outgoing) / count;
+				m2 += (in - outgoing) * (in - mean + outgoing - oldMean);
+			}
+			m2 = Math.max(m2, 0); // rounding can leave a tiny negative on a flat window
+
+			run = in == last ? run + 1 : 1;
+			last = in;
+			if (run >= count) {
+				mean = in;
+				m2 = 0;
+			}
+		}
+
+		double mean() { return mean; }
+
+		double std() { return count > 1 ? Math.sqrt(m2 / (count - 1)) : Double.NaN; }
+	}
+}
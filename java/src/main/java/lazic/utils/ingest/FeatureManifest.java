@@ -0,0 +1,72 @@
+package lazic.utils.ingest;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The features the model actually uses, read from the manifest python-ml writes from its feature importances
+ * (src/utils/feature_manifest.py):
+ *
+ * {"features": ["Close", "annualDilutedEPS", "RSI 14", ...], "importances": {...}}
+ *
+ * Sources only request the features it includes, and the rest is dropped before it is stored. Close is always
+ * included since the labels are computed from it, and so are the inputs of every derived feature it lists.
+ */
+public final class FeatureManifest {
+	/**
+	 * Includes every feature, what a run without a manifest uses.
+	 */
+	public static final FeatureManifest ALL = new FeatureManifest(null);
+
+	private final Set<String> features; // null for all
+
+	private FeatureManifest(Set<String> features) {
+		this.features = features;
+	}
+
+	public static FeatureManifest load(Path path) throws IOException {
+		JsonObject root;
+		try (Reader in = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+			root = JsonParser.parseReader(in).getAsJsonObject();
+		} catch (RuntimeException e) {
+			throw new IOException("Unreadable feature manifest " + path + ": " + e.getMessage(), e);
+		}
+		if (!root.has("features") || !root.get("features").isJsonArray()) {
+			throw new IOException("Feature manifest " + path + " has no features array");
+		}
+
+		Set<String> features = new HashSet<>();
+		features.add(WidePivot.CLOSE);
+		for (JsonElement feature : root.getAsJsonArray("features")) {
+			features.add(feature.getAsString());
+			features.addAll(FeatureEngine.inputsOf(feature.getAsString()));
+		}
+		return new FeatureManifest(features);
+	}
+
+	public boolean includes(String feature) {
+		return features == null || features.contains(feature);
+	}
+
+	/**
+	 * The candidates this manifest includes, in their original order.
+	 */
+	public List<String> select(List<String> candidates) {
+		return features == null ? candidates : candidates.stream().filter(features::contains).toList();
+	}
+
+	@Override
+	public String toString() {
+		return features == null ? "all features" : features.size() + " features";
+	}
+}
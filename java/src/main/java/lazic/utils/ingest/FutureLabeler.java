@@ -0,0 +1,43 @@
+package lazic.utils.ingest;
+
+/**
+ * The training label of python-ml's create_future_labels, computed on primitive columns: a row is 1 when the close
+ * at the first row at least LOOKAHEAD_MILLIS later is THRESHOLD_PCT or more above the row's close, 0 when it is not,
+ * and {@link #NO_FUTURE} when the series ends before that.
+ *
+ * Both defaults mirror LABEL_LOOKAHEAD_MILLIS and THRESHOLD_PCT in python-ml/src/config/config.py; keep them in step
+ * or override them with -Dnorn.label.lookaheadMillis and -Dnorn.label.thresholdPct.
+ */
+public class FutureLabeler {
+	public static final byte NO_FUTURE = -1;
+
+	static final long LOOKAHEAD_MILLIS = Long.getLong("norn.label.lookaheadMillis", 365L * 24 * 60 * 60 * 1000);
+	static final double THRESHOLD_PCT = Double.parseDouble(System.getProperty("norn.label.thresholdPct", "0.02"));
+
+	public static byte[] label(long[] timestamps, double[] close, int rows) {
+		return label(timestamps, close, rows, LOOKAHEAD_MILLIS, THRESHOLD_PCT);
+	}
+
+	/**
+	 * Labels the first rows of a ticker's ascending timestamps and closes in one two-pointer sweep: the lookahead row
+	 * only ever moves forward, so this is O(rows) instead of a search per row.
+	 */
+	public static byte[] label(long[] timestamps, double[] close, int rows, long lookaheadMillis, double thresholdPct) {
+		byte[] labels = new byte[rows];
+		int future = 0;
+		for (int i = 0; i < rows; i++) {
+			long target = timestamps[i] + lookaheadMillis;
+			while (future < rows && timestamps[future] < target) {
+				future++;
+			}
+
+			if (future == rows) {
+				labels[i] = NO_FUTURE;
+			} else {
+				// the same expression as the pandas code, so the labels agree to the last bit
+				labels[i] = (close[future] - close[i]) / (close[i] + 0.0000000001) >= thresholdPct ? (byte) 1 : 0;
+			}
+		}
+		return labels;
+	}
+}
@@ -0,0 +1,219 @@
+package lazic.utils.ingest;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-host pacing for {@link WebHtmlGetter}: an adaptive token bucket in front of a circuit breaker.
+ *
+ * The bucket's rate is found rather than configured (AIMD): every successful reply raises it by 1 / rate, which is
+ * about one request per second more for every second of success, while a 429 or 503 halves it (at most once per
+ * second, so a burst of rejections from requests that were already in flight counts once) and a Retry-After header
+ * holds back every request to the host until then.
+ *
+ * After BREAKER_THRESHOLD failed requests in a row the breaker opens: new requests fail fast for BREAKER_COOLDOWN,
+ * while those already queued wait it out. Then a single probe is let through: a success closes the breaker again, a
+ * failure reopens it, and a probe that ends any other way (cancelled, or a rate-limit reply) hands the probe on to
+ * the next request. Rate-limit replies never count as failures, the host is up and only slows the bucket down.
+ */
+final class HostThrottle {
+	static final double INITIAL_RATE = Double.parseDouble(System.getProperty("norn.http.ratePerHost", "10"));
+	static final double MAX_RATE = Double.parseDouble(System.getProperty("norn.http.maxRatePerHost", "100"));
+	static final double MIN_RATE = 0.2;
+	static final int BURST = Integer.getInteger("norn.http.burst", 4);
+	static final int BREAKER_THRESHOLD = Integer.getInteger("norn.http.breakerThreshold", 10);
+	static final Duration BREAKER_COOLDOWN = Duration.ofSeconds(Long.getLong("norn.http.breakerCooldownSeconds", 30));
+
+	private static final long DECREASE_INTERVAL = 1_000_000_000L;
+
+	private final String host;
+	private final double maxRate;
+	private final int burst;
+	private final int threshold;
+	private final long cooldownNanos;
+
+	private double rate;
+	private long nextToken = Long.MIN_VALUE; // when the next token is due, tokens not taken earlier are the burst
+	private long pausedUntil = Long.MIN_VALUE;
+	private long lastDecrease = Long.MIN_VALUE;
+	private int consecutiveFailures;
+	private boolean open;
+	private boolean probing;
+	private long openUntil;
+	private final Queue<CompletableFuture<Boolean>> waiters = new ArrayDeque<>();
+	private boolean dispatching;
+
+	HostThrottle(String host) {
+		this(host, INITIAL_RATE, MAX_RATE, BURST, BREAKER_THRESHOLD, BREAKER_COOLDOWN);
+	}
+
+	HostThrottle(String host, double rate, double maxRate, int burst, int threshold, Duration cooldown) {
+		this.host = host;
+		this.rate = Math.max(MIN_RATE, Math.min(rate, maxRate));
+		this.maxRate = maxRate;
+		this.burst = Math.max(1, burst);
+		this.threshold = Math.max(1, threshold);
+		this.cooldownNanos = cooldown.toNanos();
+	}
+
+	/**
+	 * Takes the next token. The future completes once it is due, with true if the request is the breaker's probe, or
+	 * fails when the breaker is open and nothing is queued. Waiters are released in order at the rate of the moment
+	 * they are released, so a rate change applies to the whole queue; while the breaker is open they stay queued.
+	 * The probe must end with {@link #succeeded()}, {@link #failed(long)} or {@link #probeEnded()}.
+	 */
+	CompletableFuture<Boolean> acquire() {
+		synchronized (this) {
+			long now = System.nanoTime();
+			if (waiters.isEmpty()) {
+				if (!admits(now)) {
+					return CompletableFuture.failedFuture(breakerOpen());
+				}
+				if (take(now)) {
+					probing = open;
+					return CompletableFuture.completedFuture(probing);
+				}
+			}
+
+			CompletableFuture<Boolean> waiter = new CompletableFuture<>();
+			waiters.add(waiter);
+			schedule(now);
+			return waiter;
+		}
+	}
+
+	private void dispatch() {
+		List<Runnable> ready = new ArrayList<>();
+		synchronized (this) {
+			dispatching = false;
+			long now = System.nanoTime();
+			while (!waiters.isEmpty() && admits(now) && take(now)) {
+				probing = open;
+				boolean probe = probing;
+				CompletableFuture<Boolean> waiter = waiters.poll();
+				ready.add(() -> waiter.complete(probe));
+			}
+			if (!waiters.isEmpty()) {
+				schedule(now);
+			}
+		}
+		// complete outside the lock, the callers go on to send their requests
+		ready.forEach(Runnable::run);
+	}
+
+	// whether the breaker lets a request through; once the cooldown is over, the next one sent becomes the probe
+	private boolean admits(long now) {
+		return !open || (!probing && now - openUntil >= 0);
+	}
+
+	private boolean take(long now) {
+		long interval = (long) (1e9 / rate);
+		long due = Math.max(Math.max(nextToken, now - (burst - 1) * interval), pausedUntil);
+		if (due - now > 0) {
+			return false;
+		}
+		nextToken = due + interval;
+		return true;
+	}
+
+	// while a probe is out the queue waits for its outcome, which schedules it again
+	private void schedule(long now) {
+		if (dispatching || (open && probing)) {
+			return;
+		}
+		dispatching = true;
+		long interval = (long) (1e9 / rate);
+		long due = Math.max(Math.max(nextToken, now - (burst - 1) * interval), pausedUntil);
+		if (open && !probing) {
+			due = Math.max(due, openUntil);
+		}
+		CompletableFuture.delayedExecutor(Math.max(0, due - now), TimeUnit.NANOSECONDS).execute(this::dispatch);
+	}
+
+	private IOException breakerOpen() {
+		return new CircuitOpenException("Circuit open for " + host);
+	}
+
+	/**
+	 * A request that was refused by an open breaker without being sent. It is not retried.
+	 */
+	static final class CircuitOpenException extends IOException {
+		private static final long serialVersionUID = 1L;
+
+		CircuitOpenException(String message) {
+			super(message);
+		}
+	}
+
+	synchronized void succeeded() {
+		boolean wasOpen = open;
+		consecutiveFailures = 0;
+		open = false;
+		probing = false;
+		rate = Math.min(maxRate, rate + 1 / rate);
+		if (wasOpen) {
+			resume();
+		}
+	}
+
+	/**
+	 * The host asked us to slow down (429 or 503). retryAfterNanos is the Retry-After header, or 0 without one.
+	 * Only the pacing changes, the breaker does not count it as a failure.
+	 */
+	synchronized void throttled(long now, long retryAfterNanos) {
+		if (lastDecrease == Long.MIN_VALUE || now - lastDecrease >= DECREASE_INTERVAL) {
+			rate = Math.max(MIN_RATE, rate / 2);
+			lastDecrease = now;
+		}
+		if (retryAfterNanos > 0 && (pausedUntil == Long.MIN_VALUE || now + retryAfterNanos - pausedUntil > 0)) {
+			pausedUntil = now + retryAfterNanos;
+		}
+	}
+
+	/**
+	 * The request failed or the host replied with a server error. Returns true if this opened the breaker.
+	 */
+	synchronized boolean failed(long now) {
+		consecutiveFailures++;
+		if (probing || (!open && consecutiveFailures >= threshold)) {
+			open = true;
+			probing = false;
+			openUntil = now + cooldownNanos;
+			resume(); // the queue waits out the cooldown
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * The probe is over, however it ended. If neither {@link #succeeded()} nor {@link #failed(long)} settled the
+	 * breaker (the request was cancelled, failed with something other than an IOException, or was rate limited), the
+	 * breaker stays open and the next request becomes the probe.
+	 */
+	synchronized void probeEnded() {
+		if (probing) {
+			probing = false;
+			resume();
+		}
+	}
+
+	private void resume() {
+		if (!waiters.isEmpty()) {
+			schedule(System.nanoTime());
+		}
+	}
+
+	synchronized double rate() {
+		return rate;
+	}
+
+	synchronized boolean isOpen() {
+		return open;
+	}
+}
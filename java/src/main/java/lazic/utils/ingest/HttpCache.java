@@ -0,0 +1,154 @@
+package lazic.utils.ingest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.http.HttpHeaders;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * On-disk cache of response bodies, keyed by the SHA-256 of the request URL.
+ * Each entry is a gzip-compressed body plus a small properties file holding the URL, when it was fetched,
+ * and the ETag / Last-Modified validators used to revalidate it once it is older than its TTL.
+ */
+public class HttpCache {
+	private final Path dir;
+
+	public HttpCache(Path dir) throws IOException {
+		this.dir = Files.createDirectories(dir);
+	}
+
+	/**
+	 * A cached response. Immutable, a refetch or revalidation writes a new entry.
+	 */
+	public record Entry(String url, Path body, long fetchedAtMillis, String etag, String lastModified) {
+
+		public boolean isFresh(Duration ttl) {
+			return System.currentTimeMillis() - fetchedAtMillis < ttl.toMillis();
+		}
+
+		/**
+		 * Conditional request headers, so the server can answer 304 instead of resending an unchanged body.
+		 */
+		public Map<String, String> validators() {
+			Map<String, String> headers = new LinkedHashMap<>();
+			if (etag != null) {
+				headers.put("If-None-Match", etag);
+			}
+			if (lastModified != null) {
+				headers.put("If-Modified-Since", lastModified);
+			}
+			return headers;
+		}
+	}
+
+	/**
+	 * Returns the cached entry for the url, or null if there is none.
+	 */
+	public Entry lookup(String url) throws IOException {
+		String key = key(url);
+		Path meta = dir.resolve(key + ".meta");
+		Path body = dir.resolve(key + ".body.gz");
+		if (!Files.exists(meta) || !Files.exists(body)) {
+			return null;
+		}
+
+		Properties props = new Properties();
+		try (Reader in = Files.newBufferedReader(meta, StandardCharsets.UTF_8)) {
+			props.load(in);
+		}
+
+		// a hash collision would be astronomically unlikely, but never serve another url's body
+		if (!url.equals(props.getProperty("url"))) {
+			return null;
+		}
+
+		return new Entry(url, body,
+						Long.parseLong(props.getProperty("fetchedAt", "0")),
+						props.getProperty("etag"),
+						props.getProperty("lastModified"));
+	}
+
+	/**
+	 * Opens the decompressed body of an entry. The caller must close the stream.
+	 */
+	public InputStream open(Entry entry) throws IOException {
+		return new GZIPInputStream(Files.newInputStream(entry.body()), 1 << 16);
+	}
+
+	/**
+	 * Compresses a fresh response body into the cache, then returns the new entry.
+	 * The body is written to a temp file first, so a failed download never replaces a good entry.
+	 */
+	public Entry store(String url, HttpHeaders headers, InputStream responseBody) throws IOException {
+		String key = key(url);
+		Path body = dir.resolve(key + ".body.gz");
+		Path tmp = Files.createTempFile(dir, key, ".tmp");
+
+		try (InputStream in = responseBody;
+				 OutputStream out = new GZIPOutputStream(Files.newOutputStream(tmp), 1 << 16)) {
+			in.transferTo(out);
+		} catch (IOException e) {
+			Files.deleteIfExists(tmp);
+			throw e;
+		}
+		Files.move(tmp, body, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+		Entry entry = new Entry(url, body, System.currentTimeMillis(),
+						headers.firstValue("ETag").orElse(null),
+						headers.firstValue("Last-Modified").orElse(null));
+		writeMeta(entry);
+		return entry;
+	}
+
+	/**
+	 * Marks an entry as fetched now, after the server confirmed with a 304 that it is unchanged.
+	 */
+	public Entry touch(Entry entry) throws IOException {
+		Entry touched = new Entry(entry.url(), entry.body(), System.currentTimeMillis(), entry.etag(), entry.lastModified());
+		writeMeta(touched);
+		return touched;
+	}
+
+	private void writeMeta(Entry entry) throws IOException {
+		Properties props = new Properties();
+		props.setProperty("url", entry.url());
+		props.setProperty("fetchedAt", Long.toString(entry.fetchedAtMillis()));
+		if (entry.etag() != null) {
+			props.setProperty("etag", entry.etag());
+		}
+		if (entry.lastModified() != null) {
+			props.setProperty("lastModified", entry.lastModified());
+		}
+
+		String key = key(entry.url());
+		Path tmp = Files.createTempFile(dir, key, ".tmp");
+		try (Writer out = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+			props.store(out, null);
+		}
+		Files.move(tmp, dir.resolve(key + ".meta"), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	private static String key(String url) {
+		try {
+			MessageDigest sha = MessageDigest.getInstance("SHA-256");
+			return HexFormat.of().formatHex(sha.digest(url.getBytes(StandardCharsets.UTF_8)));
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e); // every JVM ships SHA-256
+		}
+	}
+}
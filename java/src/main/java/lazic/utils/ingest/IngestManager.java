@@ -1,34 +1,165 @@
 package lazic.utils.ingest;
 
-import java.util.Collections;
-import java.util.HashSet;
-import java.util.Set;
-import java.util.stream.Collectors;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.ServiceLoader;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadLocalRandom;
 
 // singleton
 public enum IngestManager {
 	INSTANCE;
-	public final Set<DataSourceBase> sources = new HashSet<>();
-	public final Set<DataPoint> data = new HashSet<DataPoint>();
+	public final List<DataSourceBase> sources = new CopyOnWriteArrayList<>();
+	public final TimeSeriesStore data = new TimeSeriesStore();
+	public final IngestState state = new IngestState();
+	private volatile boolean incremental = false;
+	private volatile TimeSeriesDb db;
+	private volatile FeatureManifest manifest = FeatureManifest.ALL;
 
-	public void fetchDataFromSources() {
+	/**
+	 * Switches to incremental mode: loads the previously exported dataset (the long CSV, or the columnar export for a
+	 * .ncol path) and the high-water marks saved with it, so sources only fetch what is newer than the last run, and
+	 * the new points are merged into the loaded ones. Data of features outside the manifest is dropped, their marks are
+	 * kept aside, see {@link IngestState}.
+	 * A state saved under an older {@link TradingDays#TIME_MODEL} leaves both behind, so everything is fetched again.
+	 */
+	public void loadPrevious(Path exportPath, Path statePath) throws IOException {
 		data.clear();
-		sources.parallelStream().forEach(source -> {
-			var dataPoints = source.getDataPoints();
-			dataPoints = dataPoints.stream()
-							.filter(dp->dp.getValue() != null)
-							.collect(Collectors.toSet());
+		if (loadState(statePath) && Files.exists(exportPath)) {
+			if (exportPath.toString().endsWith(".ncol")) {
+				ColumnarLongParser.loadColumnar(exportPath.toString(), data);
+			} else {
+				CsvLongParser.loadCsv(exportPath.toString(), data);
+			}
+			data.retainFeatures(manifest::includes);
+		}
+		incremental = true;
+	}
+
+	/**
+	 * Same as {@link #loadPrevious(Path, Path)}, but the previous data is read from the time-series database, which
+	 * must hold the current {@link TradingDays#TIME_MODEL} (see {@link TimeSeriesDb#clear()}).
+	 */
+	public void loadPrevious(TimeSeriesDb db, Path statePath) throws IOException {
+		data.clear();
+		if (loadState(statePath)) {
+			db.loadInto(data);
+			data.retainFeatures(manifest::includes);
+		}
+		incremental = true;
+	}
+
+	// false when the state is of an older timestamp convention and the previous data has to be fetched again
+	private boolean loadState(Path statePath) throws IOException {
+		state.load(statePath);
+		if (state.timeModel() != TradingDays.TIME_MODEL) {
+			System.out.println(statePath + " predates the current timestamp convention, fetching everything again");
+			return false;
+		}
+		state.project(manifest::includes);
+		return true;
+	}
+
+	/**
+	 * Every segment fetched from now on is also appended to the database, as soon as its source finishes.
+	 */
+	public void persistTo(TimeSeriesDb db) {
+		this.db = db;
+	}
+
+	/**
+	 * Restricts the ingest to the features the manifest includes: sources that can ask for less do, and every other
+	 * feature is dropped before it is stored. Set it before loading previous data, which is filtered as well.
+	 */
+	public void project(FeatureManifest manifest) {
+		this.manifest = manifest;
+	}
+
+	public FeatureManifest manifest() {
+		return manifest;
+	}
 
-			this.data.addAll(dataPoints);
+	/**
+	 * See {@link DataSourceBase#highWaterMark(String)}. Always -1 outside incremental mode.
+	 */
+	public long highWaterMark(DataSourceBase source, String ticker) {
+		return incremental ? state.highWaterMark(source.getClass().getSimpleName(), ticker) : -1;
+	}
+
+	/**
+	 * Registers every source listed in META-INF/services/lazic.utils.ingest.DataSourceBase that is not registered yet.
+	 */
+	public void loadSources() {
+		for (DataSourceBase source : ServiceLoader.load(DataSourceBase.class)) {
+			if (sources.stream().noneMatch(s -> s.getClass() == source.getClass())) {
+				register(source);
+			}
+		}
+	}
+
+	public void register(DataSourceBase source) {
+		sources.add(source);
+	}
+
+	/**
+	 * Runs every registered source through the {@link IngestScheduler}. Each source fills its own segment store, so no
+	 * two threads ever write to the same collection; each segment is merged on the calling thread as soon as its source
+	 * finishes. Sources write disjoint series, so the finishing order does not change the result.
+	 * In incremental mode the fetched points replace the overlapping tail of the previously loaded data instead.
+	 * A database set with {@link #persistTo(TimeSeriesDb)} gets every segment appended, which applies the same rule.
+	 * Features outside the {@link #project(FeatureManifest) manifest} are dropped from each segment first.
+	 */
+	public void fetchDataFromSources() {
+		if (!incremental) {
+			data.clear();
+		}
+
+		long start = System.nanoTime();
+		IngestScheduler.run(List.copyOf(sources), (source, segment) -> {
+			segment.retainFeatures(manifest::includes);
+			state.record(source.getClass().getSimpleName(), segment);
+
+			if (incremental) {
+				data.mergeNewer(segment);
+			} else {
+				data.appendAll(segment);
+			}
+
+			if (db != null) {
+				try {
+					db.append(segment);
+				} catch (IOException e) {
+					System.err.println("Could not persist " + source.getClass().getSimpleName() + ": " + e.getMessage());
+				}
+			}
 		});
+		IngestMetrics.INSTANCE.fetched(System.nanoTime() - start);
 	}
 
+	/**
+	 * Prints a uniformly random sample of the stored points (reservoir sampling, no copy of the data).
+	 */
 	public void printSubset(int count) {
-		var asList = new java.util.ArrayList<>(data);
-		Collections.shuffle(asList);
+		DataPoint[] sample = new DataPoint[count];
+		long[] seen = {0};
+
+		data.forEach((ts, ticker, feature, value) -> {
+			long n = seen[0]++;
+			long slot = n < count ? n : ThreadLocalRandom.current().nextLong(n + 1);
+			if (slot < count) {
+				LocalDateTime time = LocalDateTime.ofInstant(Instant.ofEpochMilli(ts), ZoneOffset.UTC);
+				sample[(int) slot] = new DataPoint(time, ticker, feature, value);
+			}
+		});
 
-		asList.subList(0, Math.min(data.size(), count))
-						.forEach(dp-> System.out.println(dp.toString()));
+		for (int i = 0; i < Math.min(count, seen[0]); i++) {
+			System.out.println(sample[i].toString());
+		}
 	}
 
 	/**
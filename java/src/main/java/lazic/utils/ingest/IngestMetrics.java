@@ -0,0 +1,376 @@
+package lazic.utils.ingest;
+
+import com.google.gson.GsonBuilder;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters for one ingest run, so a slow run can be pinned on the network, the parsers or the export:
+ * request latency histograms, bytes and status codes per host, parse time, points and failures per source (and points
+ * per ticker), and the rate of every export. Everything is lock-free and cheap enough to stay on in production.
+ *
+ * Written as a JSON report with {@link #writeReport(Path)}, and optionally published over JMX with
+ * {@link #registerMBean()} (-Dnorn.metrics.jmx=true in Main).
+ */
+// singleton
+public enum IngestMetrics implements IngestMetricsMBean {
+	INSTANCE;
+
+	private final Instant started = Instant.now();
+	private final Map<String, HostStats> hosts = new ConcurrentHashMap<>();
+	private final Map<String, SourceStats> sources = new ConcurrentHashMap<>();
+	private final Map<String, ExportStats> exports = new ConcurrentHashMap<>();
+	private final LongAdder fetchNanos = new LongAdder();
+
+	/**
+	 * One request to a host, from being sent to its response (headers for a streamed body), or its failure.
+	 */
+	public void request(String host, long nanos, int status, Throwable error) {
+		HostStats stats = host(host);
+		stats.latency.record(nanos);
+		if (error != null) {
+			stats.errors.increment();
+		} else {
+			stats.statuses.computeIfAbsent(status, s -> new LongAdder()).increment();
+		}
+	}
+
+	public void retried(String host) {
+		host(host).retries.increment();
+	}
+
+	public void circuitOpened(String host) {
+		host(host).circuitOpened.increment();
+	}
+
+	/**
+	 * The request rate the host's throttle has currently settled on.
+	 */
+	public void throttleRate(String host, double requestsPerSecond) {
+		host(host).rate = requestsPerSecond;
+	}
+
+	public void cacheHit(String host) {
+		host(host).cacheHits.increment();
+	}
+
+	/**
+	 * Wraps a body handler so every byte of the body is counted against the host as it arrives.
+	 */
+	public <T> HttpResponse.BodyHandler<T> countingBody(String host, HttpResponse.BodyHandler<T> handler) {
+		LongAdder bytes = host(host).bytes;
+		return info -> new CountingSubscriber<>(handler.apply(info), bytes);
+	}
+
+	/**
+	 * Time a source spent decoding a reply. For streamed replies this includes reading the body off the wire.
+	 */
+	public void parsed(String source, long nanos) {
+		source(source).parseNanos.add(nanos);
+	}
+
+	/**
+	 * A source finished: its wall time over all attempts, and the points it produced, in total and per ticker.
+	 */
+	public void sourceFinished(String source, long nanos, TimeSeriesStore segment) {
+		SourceStats stats = source(source);
+		stats.nanos.add(nanos);
+		stats.points.add(segment.size());
+		for (TimeSeries s : segment.series()) {
+			String ticker = s.getTicker() != null ? s.getTicker() : "(macro)";
+			stats.pointsPerTicker.computeIfAbsent(ticker, t -> new LongAdder()).add(s.size());
+		}
+	}
+
+	public void attemptFailed(String source, String failure) {
+		SourceStats stats = source(source);
+		stats.failedAttempts.increment();
+		stats.lastError = failure;
+	}
+
+	public void sourceFailed(String source, long nanos) {
+		SourceStats stats = source(source);
+		stats.nanos.add(nanos);
+		stats.failed = true;
+	}
+
+	public void fetched(long nanos) {
+		fetchNanos.add(nanos);
+	}
+
+	/**
+	 * One export: how many rows and bytes, and how long it took.
+	 */
+	public void exported(String format, long rows, long bytes, long nanos) {
+		ExportStats stats = exports.computeIfAbsent(format, f -> new ExportStats());
+		stats.rows.add(rows);
+		stats.bytes.add(bytes);
+		stats.nanos.add(nanos);
+	}
+
+	/**
+	 * Writes the report as JSON, through a temp file so a reader never sees half of it.
+	 */
+	public void writeReport(Path path) throws IOException {
+		Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+		try (Writer out = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+			new GsonBuilder().setPrettyPrinting().serializeSpecialFloatingPointValues().create().toJson(report(), out);
+		}
+		Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Publishes the totals and the full report as the MBean lazic.norn:type=IngestMetrics.
+	 */
+	public void registerMBean() {
+		try {
+			ManagementFactory.getPlatformMBeanServer().registerMBean(
+							new StandardMBean(this, IngestMetricsMBean.class), new ObjectName("lazic.norn:type=IngestMetrics"));
+		} catch (JMException e) {
+			System.err.println("Could not register the metrics MBean: " + e.getMessage());
+		}
+	}
+
+	@Override
+	public long getRequests() {
+		return hosts.values().stream().mapToLong(h -> h.latency.count.sum()).sum();
+	}
+
+	@Override
+	public long getRequestErrors() {
+		return hosts.values().stream().mapToLong(h -> h.errors.sum()).sum();
+	}
+
+	@Override
+	public long getBytesDownloaded() {
+		return hosts.values().stream().mapToLong(h -> h.bytes.sum()).sum();
+	}
+
+	@Override
+	public long getPointsProduced() {
+		return sources.values().stream().mapToLong(s -> s.points.sum()).sum();
+	}
+
+	@Override
+	public long getFailedSources() {
+		return sources.values().stream().filter(s -> s.failed).count();
+	}
+
+	@Override
+	public String getReportJson() {
+		return new GsonBuilder().serializeSpecialFloatingPointValues().create().toJson(report());
+	}
+
+	Map<String, Object> report() {
+		Map<String, Object> report = new LinkedHashMap<>();
+		report.put("started", started.toString());
+		report.put("fetchMillis", millis(fetchNanos.sum()));
+
+		Map<String, Object> hostReport = new TreeMap<>();
+		hosts.forEach((name, h) -> {
+			Map<String, Object> entry = new LinkedHashMap<>();
+			entry.put("requests", h.latency.count.sum());
+			entry.put("errors", h.errors.sum());
+			entry.put("retries", h.retries.sum());
+			entry.put("circuitOpened", h.circuitOpened.sum());
+			entry.put("ratePerSecond", h.rate);
+			entry.put("cacheHits", h.cacheHits.sum());
+			entry.put("bytes", h.bytes.sum());
+			Map<String, Long> statuses = new TreeMap<>();
+			h.statuses.forEach((status, count) -> statuses.put(String.valueOf(status), count.sum()));
+			entry.put("statuses", statuses);
+			entry.put("latencyMillis", h.latency.summary());
+			hostReport.put(name, entry);
+		});
+		report.put("hosts", hostReport);
+
+		Map<String, Object> sourceReport = new TreeMap<>();
+		sources.forEach((name, s) -> {
+			Map<String, Object> entry = new LinkedHashMap<>();
+			entry.put("failed", s.failed);
+			entry.put("millis", millis(s.nanos.sum()));
+			entry.put("parseMillis", millis(s.parseNanos.sum()));
+			entry.put("points", s.points.sum());
+			entry.put("failedAttempts", s.failedAttempts.sum());
+			entry.put("lastError", s.lastError);
+			Map<String, Long> perTicker = new TreeMap<>();
+			s.pointsPerTicker.forEach((ticker, count) -> perTicker.put(ticker, count.sum()));
+			entry.put("pointsPerTicker", perTicker);
+			sourceReport.put(name, entry);
+		});
+		report.put("sources", sourceReport);
+
+		Map<String, Object> exportReport = new TreeMap<>();
+		exports.forEach((format, e) -> {
+			double seconds = e.nanos.sum() / 1e9;
+			Map<String, Object> entry = new LinkedHashMap<>();
+			entry.put("rows", e.rows.sum());
+			entry.put("bytes", e.bytes.sum());
+			entry.put("millis", millis(e.nanos.sum()));
+			entry.put("rowsPerSecond", seconds > 0 ? Math.round(e.rows.sum() / seconds) : 0);
+			entry.put("megabytesPerSecond", seconds > 0 ? e.bytes.sum() / 1e6 / seconds : 0);
+			exportReport.put(format, entry);
+		});
+		report.put("exports", exportReport);
+		return report;
+	}
+
+	private HostStats host(String host) {
+		return hosts.computeIfAbsent(String.valueOf(host), h -> new HostStats());
+	}
+
+	private SourceStats source(String source) {
+		return sources.computeIfAbsent(source, s -> new SourceStats());
+	}
+
+	private static long millis(long nanos) {
+		return TimeUnit.NANOSECONDS.toMillis(nanos);
+	}
+
+	private static final class HostStats {
+		final Histogram latency = new Histogram();
+		final LongAdder errors = new LongAdder();
+		final LongAdder retries = new LongAdder();
+		final LongAdder circuitOpened = new LongAdder();
+		final LongAdder cacheHits = new LongAdder();
+		final LongAdder bytes = new LongAdder();
+		final Map<Integer, LongAdder> statuses = new ConcurrentHashMap<>();
+		volatile double rate = Double.NaN;
+	}
+
+	private static final class SourceStats {
+		final LongAdder nanos = new LongAdder();
+		final LongAdder parseNanos = new LongAdder();
+		final LongAdder points = new LongAdder();
+		final LongAdder failedAttempts = new LongAdder();
+		final Map<String, LongAdder> pointsPerTicker = new ConcurrentHashMap<>();
+		volatile boolean failed;
+		volatile String lastError;
+	}
+
+	private static final class ExportStats {
+		final LongAdder rows = new LongAdder();
+		final LongAdder bytes = new LongAdder();
+		final LongAdder nanos = new LongAdder();
+	}
+
+	/**
+	 * Latency histogram with power-of-two millisecond buckets (bucket i holds [2^(i-1), 2^i) ms, bucket 0 under 1 ms),
+	 * so recording is one increment. Percentiles are reported as the upper bound of their bucket.
+	 */
+	static final class Histogram {
+		static final int BUCKETS = 20; // the last one also holds everything from about 4.4 minutes up
+
+		final LongAdder[] buckets = new LongAdder[BUCKETS];
+		final LongAdder count = new LongAdder();
+		final LongAdder sumNanos = new LongAdder();
+		final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+
+		Histogram() {
+			for (int i = 0; i < BUCKETS; i++) {
+				buckets[i] = new LongAdder();
+			}
+		}
+
+		void record(long nanos) {
+			long ms = TimeUnit.NANOSECONDS.toMillis(Math.max(0, nanos));
+			int bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(ms));
+			buckets[bucket].increment();
+			count.increment();
+			sumNanos.add(nanos);
+			maxNanos.accumulate(nanos);
+		}
+
+		Map<String, Object> summary() {
+			long[] counts = new long[BUCKETS];
+			long total = 0;
+			for (int i = 0; i < BUCKETS; i++) {
+				counts[i] = buckets[i].sum();
+				total += counts[i];
+			}
+
+			Map<String, Object> summary = new LinkedHashMap<>();
+			summary.put("mean", total > 0 ? sumNanos.sum() / 1e6 / total : 0);
+			for (double q : List.of(0.5, 0.9, 0.99)) {
+				summary.put("p" + Math.round(q * 100), upperBound(counts, total, q));
+			}
+			summary.put("max", maxNanos.get() / 1e6);
+
+			Map<String, Long> histogram = new LinkedHashMap<>();
+			for (int i = 0; i < BUCKETS; i++) {
+				if (counts[i] > 0) {
+					histogram.put("<" + (1L << i), counts[i]);
+				}
+			}
+			summary.put("buckets", histogram);
+			return summary;
+		}
+
+		private static long upperBound(long[] counts, long total, double quantile) {
+			long rank = (long) Math.ceil(quantile * total);
+			long seen = 0;
+			for (int i = 0; i < counts.length; i++) {
+				seen += counts[i];
+				if (seen >= rank && seen > 0) {
+					return 1L << i;
+				}
+			}
+			return 0;
+		}
+	}
+
+	// passes the body through untouched, counting the bytes on the way
+	private record CountingSubscriber<T>(HttpResponse.BodySubscriber<T> delegate, LongAdder bytes)
+					implements HttpResponse.BodySubscriber<T> {
+
+		@Override
+		public CompletionStage<T> getBody() {
+			return delegate.getBody();
+		}
+
+		@Override
+		public void onSubscribe(Flow.Subscription subscription) {
+			delegate.onSubscribe(subscription);
+		}
+
+		@Override
+		public void onNext(List<ByteBuffer> items) {
+			for (ByteBuffer item : items) {
+				bytes.add(item.remaining());
+			}
+			delegate.onNext(items);
+		}
+
+		@Override
+		public void onError(Throwable throwable) {
+			delegate.onError(throwable);
+		}
+
+		@Override
+		public void onComplete() {
+			delegate.onComplete();
+		}
+	}
+}
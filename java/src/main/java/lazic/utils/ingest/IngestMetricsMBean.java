@@ -0,0 +1,18 @@
+package lazic.utils.ingest;
+
+/**
+ * What {@link IngestMetrics} publishes over JMX: the run totals, and the full report as JSON.
+ */
+public interface IngestMetricsMBean {
+	long getRequests();
+
+	long getRequestErrors();
+
+	long getBytesDownloaded();
+
+	long getPointsProduced();
+
+	long getFailedSources();
+
+	String getReportJson();
+}
@@ -0,0 +1,162 @@
+package lazic.utils.ingest;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Runs sources following each source's {@link SourcePolicy}, each on a platform thread of its own apart from the
+ * common pool, so a slow source never holds up the start of another one. Sources are started in priority order, and
+ * how much of its work a source runs at once is its own concurrency budget (see {@link TickerFanOut}). Every attempt
+ * is watched by a virtual thread that enforces the timeout (interrupting the attempt) and schedules the retries.
+ * A retry is queued on its source's thread behind the attempt before it, so it only starts once that attempt has
+ * actually stopped, and two attempts of one source never run at once.
+ *
+ * Results are handed over as each source finishes, not once all of them have.
+ */
+public class IngestScheduler {
+
+	@FunctionalInterface
+	public interface SegmentHandler {
+		void accept(DataSourceBase source, TimeSeriesStore segment);
+	}
+
+	private record Outcome(DataSourceBase source, TimeSeriesStore segment) { }
+
+	/**
+	 * Runs every source and calls the handler on the calling thread with each source's points, in the order the
+	 * sources finish. A source whose last attempt fails or times out is logged and left out.
+	 */
+	public static void run(List<DataSourceBase> sources, SegmentHandler handler) {
+		List<DataSourceBase> ordered = new ArrayList<>(sources);
+		ordered.sort(Comparator.comparingInt((DataSourceBase s) -> s.policy().priority()).reversed());
+
+		BlockingQueue<Outcome> outcomes = new LinkedBlockingQueue<>();
+		List<ExecutorService> workers = new ArrayList<>();
+		ExecutorService watchers = Executors.newVirtualThreadPerTaskExecutor();
+
+		try {
+			for (DataSourceBase source : ordered) {
+				ExecutorService worker = Executors.newSingleThreadExecutor(daemonThread(source.getClass().getSimpleName()));
+				workers.add(worker);
+				Attempt attempt = new Attempt(source);
+				worker.execute(attempt);
+				watchers.submit(() -> outcomes.add(watch(attempt, worker)));
+			}
+
+			for (int i = 0; i < ordered.size(); i++) {
+				Outcome outcome = outcomes.take();
+				if (outcome.segment() != null) {
+					handler.accept(outcome.source(), outcome.segment());
+				}
+			}
+
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			workers.forEach(ExecutorService::shutdownNow);
+			watchers.shutdownNow();
+		}
+	}
+
+	// waits for an attempt within the timeout, retrying as the policy allows; never throws
+	private static Outcome watch(Attempt attempt, ExecutorService worker) {
+		DataSourceBase source = attempt.source;
+		SourcePolicy policy = source.policy();
+		String name = source.getClass().getSimpleName();
+		Duration backoff = policy.backoff();
+		long queued = System.nanoTime(); // the first attempt was queued right before
+
+		for (int n = 1; ; n++) {
+			String failure;
+			try {
+				// the timeout runs from the start, not from when it was queued; a retry starts once the attempt before
+				// it has stopped, and if that one ignores its interrupt for another whole timeout the source is given up
+				if (!attempt.started.await(policy.timeout().toMillis(), TimeUnit.MILLISECONDS)) {
+					attempt.cancel(false);
+					System.err.println("Source " + name + " given up: " + (n == 1
+									? "its first attempt did not start within " + policy.timeout()
+									: "attempt " + (n - 1) + " did not stop after it timed out"));
+					IngestMetrics.INSTANCE.sourceFailed(name, System.nanoTime() - queued);
+					return new Outcome(source, null);
+				}
+				long start = System.nanoTime();
+				TimeSeriesStore segment = attempt.get(policy.timeout().toMillis(), TimeUnit.MILLISECONDS);
+				System.out.println(name + ": " + segment.size() + " points in "
+								+ TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms");
+				IngestMetrics.INSTANCE.sourceFinished(name, System.nanoTime() - queued, segment);
+				return new Outcome(source, segment);
+
+			} catch (TimeoutException e) {
+				attempt.cancel(true);
+				failure = "timed out after " + policy.timeout();
+			} catch (ExecutionException e) {
+				failure = String.valueOf(e.getCause());
+			} catch (InterruptedException | CancellationException e) {
+				attempt.cancel(true); // the whole run is being torn down
+				return new Outcome(source, null);
+			}
+
+			IngestMetrics.INSTANCE.attemptFailed(name, failure);
+			if (n >= policy.attempts()) {
+				System.err.println("Source " + name + " failed after " + n + " attempt(s): " + failure);
+				IngestMetrics.INSTANCE.sourceFailed(name, System.nanoTime() - queued);
+				return new Outcome(source, null);
+			}
+			System.err.println("Source " + name + " attempt " + n + " failed (" + failure + "), retrying in " + backoff);
+
+			try {
+				Thread.sleep(backoff);
+				attempt = new Attempt(source);
+				worker.execute(attempt);
+			} catch (InterruptedException | RejectedExecutionException e) {
+				return new Outcome(source, null);
+			}
+			backoff = backoff.multipliedBy(2);
+		}
+	}
+
+	// one run of a source into a fresh segment, so a failed attempt never leaves partial points behind
+	private static final class Attempt extends FutureTask<TimeSeriesStore> {
+		private final DataSourceBase source;
+		private final CountDownLatch started = new CountDownLatch(1);
+
+		Attempt(DataSourceBase source) {
+			super(() -> {
+				TimeSeriesStore segment = new TimeSeriesStore();
+				source.ingest(segment);
+				segment.dropDuplicates();
+				return segment;
+			});
+			this.source = source;
+		}
+
+		@Override
+		public void run() {
+			started.countDown();
+			super.run();
+		}
+	}
+
+	// a daemon thread, so an attempt stuck past its timeout can never keep the JVM alive
+	private static ThreadFactory daemonThread(String source) {
+		return r -> {
+			Thread thread = new Thread(r, "ingest-" + source);
+			thread.setDaemon(true);
+			return thread;
+		};
+	}
+}
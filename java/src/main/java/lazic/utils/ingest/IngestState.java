@@ -0,0 +1,168 @@
+package lazic.utils.ingest;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+
+/**
+ * High-water marks of the last saved dataset: the latest timestamp stored for every (source, ticker, feature).
+ * Persisted next to the exported data, so an incremental run knows from where each source has to fetch.
+ *
+ * The marks of features a feature manifest leaves out are kept aside as dormant, their data is not stored. Once a
+ * manifest includes such a feature again, the tickers it was stored for are fetched from scratch, so its history is
+ * backfilled instead of only fetched from the other features' marks on.
+ */
+public class IngestState {
+	private static final String SEPARATOR = "|";
+	private static final String TIME_MODEL_KEY = "timeModel";
+	private static final String DORMANT_PREFIX = "dormant.";
+
+	/**
+	 * How far a mark may trail the latest one of its ticker before the feature counts as no longer reported (e.g. a
+	 * fundamentals type Yahoo stopped publishing) and stops holding the ticker back.
+	 * Can be overridden with -Dnorn.ingest.staleAfterDays=N
+	 */
+	static final long STALE_MILLIS = Long.getLong("norn.ingest.staleAfterDays", 550) * TradingDays.DAY_MILLIS;
+
+	private final Map<String, Long> marks = new ConcurrentHashMap<>();
+	private final Map<String, Long> dormant = new ConcurrentHashMap<>();
+	// dormant marks of features included again, until their ticker is fetched anew
+	private final Map<String, Long> revived = new ConcurrentHashMap<>();
+	private volatile int timeModel = TradingDays.TIME_MODEL;
+
+	/**
+	 * Loads the marks saved by a previous run. A missing file leaves the state empty. Marks saved under another
+	 * {@link TradingDays#TIME_MODEL} (a file without one predates it) are ignored, see {@link #timeModel()}.
+	 */
+	public void load(Path path) throws IOException {
+		marks.clear();
+		dormant.clear();
+		revived.clear();
+		timeModel = TradingDays.TIME_MODEL;
+		if (!Files.exists(path)) {
+			return;
+		}
+
+		Properties props = new Properties();
+		try (Reader in = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+			props.load(in);
+		}
+		timeModel = Integer.parseInt((String) props.getOrDefault(TIME_MODEL_KEY, "1"));
+		if (timeModel != TradingDays.TIME_MODEL) {
+			return;
+		}
+		props.remove(TIME_MODEL_KEY);
+		props.forEach((k, v) -> {
+			String key = (String) k;
+			if (key.startsWith(DORMANT_PREFIX)) {
+				dormant.put(key.substring(DORMANT_PREFIX.length()), Long.parseLong((String) v));
+			} else {
+				marks.put(key, Long.parseLong((String) v));
+			}
+		});
+	}
+
+	/**
+	 * The timestamp convention of the loaded file, {@link TradingDays#TIME_MODEL} unless it was saved under an older one.
+	 */
+	public int timeModel() {
+		return timeModel;
+	}
+
+	/**
+	 * Writes the marks to a temp file and moves it into place, so a crash never leaves a half-written state behind.
+	 */
+	public void save(Path path) throws IOException {
+		Properties props = new Properties();
+		marks.forEach((k, v) -> props.setProperty(k, Long.toString(v)));
+		dormant.forEach((k, v) -> props.setProperty(DORMANT_PREFIX + k, Long.toString(v)));
+		revived.forEach((k, v) -> props.setProperty(DORMANT_PREFIX + k, Long.toString(v)));
+		props.setProperty(TIME_MODEL_KEY, Integer.toString(TradingDays.TIME_MODEL));
+
+		Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+		try (Writer out = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+			props.store(out, "latest timestamp (epoch millis) per source|ticker|feature, and the timestamp convention");
+		}
+		Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Puts the marks of every feature the predicate rejects aside, e.g. those a feature manifest no longer includes,
+	 * and revives the dormant ones it accepts again.
+	 */
+	public void project(Predicate<String> keep) {
+		moveFeatures(marks, dormant, keep.negate());
+		moveFeatures(revived, dormant, keep.negate());
+		moveFeatures(dormant, revived, keep);
+	}
+
+	private static void moveFeatures(Map<String, Long> from, Map<String, Long> to, Predicate<String> move) {
+		from.entrySet().removeIf(e -> {
+			String key = e.getKey();
+			if (!move.test(key.substring(key.lastIndexOf(SEPARATOR) + 1))) {
+				return false;
+			}
+			to.put(key, e.getValue());
+			return true;
+		});
+	}
+
+	/**
+	 * Raises the marks of a source to the latest timestamp of every series it just produced.
+	 */
+	public void record(String source, TimeSeriesStore produced) {
+		for (TimeSeries s : produced.series()) {
+			if (s.size() > 0) {
+				marks.merge(key(source, s.getTicker(), s.getFeature()), s.timestampAt(s.size() - 1), Math::max);
+				revived.keySet().removeIf(k -> k.startsWith(key(source, s.getTicker(), "")));
+			}
+		}
+	}
+
+	/**
+	 * The oldest of the latest timestamps over all features a source stored for the ticker (null for macro data),
+	 * i.e. nothing before it is missing from any of those series. Marks more than {@link #STALE_MILLIS} behind the
+	 * latest one are left out, so a discontinued feature does not pin the ticker. -1 when nothing is known, or a
+	 * feature of the ticker was {@link #project(Predicate) revived} and has to be backfilled.
+	 */
+	public long highWaterMark(String source, String ticker) {
+		String prefix = key(source, ticker, "");
+		for (String key : revived.keySet()) {
+			if (key.startsWith(prefix)) {
+				return -1;
+			}
+		}
+
+		// 1. The latest mark of the ticker
+		long latest = Long.MIN_VALUE;
+		for (Map.Entry<String, Long> e : marks.entrySet()) {
+			if (e.getKey().startsWith(prefix)) {
+				latest = Math.max(latest, e.getValue());
+			}
+		}
+		if (latest == Long.MIN_VALUE) {
+			return -1;
+		}
+
+		// 2. The oldest one that is still being reported
+		long oldest = latest;
+		for (Map.Entry<String, Long> e : marks.entrySet()) {
+			if (e.getKey().startsWith(prefix) && e.getValue() >= latest - STALE_MILLIS) {
+				oldest = Math.min(oldest, e.getValue());
+			}
+		}
+		return oldest;
+	}
+
+	private static String key(String source, String ticker, String feature) {
+		return source + SEPARATOR + (ticker != null ? ticker : "") + SEPARATOR + feature;
+	}
+}
@@ -0,0 +1,67 @@
+package lazic.utils.ingest;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Small helpers for pulling primitive arrays out of a Gson {@link JsonReader} without boxing.
+ */
+public class JsonStreams {
+
+	/**
+	 * Reads a JSON array of numbers into a long[]. Nulls become the given fallback.
+	 */
+	public static long[] readLongArray(JsonReader reader, long nullValue) throws IOException {
+		long[] out = new long[256];
+		int n = 0;
+
+		reader.beginArray();
+		while (reader.hasNext()) {
+			if (n == out.length) {
+				out = Arrays.copyOf(out, n * 2);
+			}
+			if (reader.peek() == JsonToken.NULL) {
+				reader.nextNull();
+				out[n++] = nullValue;
+			} else {
+				out[n++] = reader.nextLong();
+			}
+		}
+		reader.endArray();
+
+		return Arrays.copyOf(out, n);
+	}
+
+	/**
+	 * Reads a JSON array of numbers into a double[]. Nulls become NaN.
+	 */
+	public static double[] readDoubleArray(JsonReader reader) throws IOException {
+		double[] out = new double[256];
+		int n = 0;
+
+		reader.beginArray();
+		while (reader.hasNext()) {
+			if (n == out.length) {
+				out = Arrays.copyOf(out, n * 2);
+			}
+			out[n++] = nextDoubleOrNaN(reader);
+		}
+		reader.endArray();
+
+		return Arrays.copyOf(out, n);
+	}
+
+	/**
+	 * Reads the next value as a double, NaN if it is null.
+	 */
+	public static double nextDoubleOrNaN(JsonReader reader) throws IOException {
+		if (reader.peek() == JsonToken.NULL) {
+			reader.nextNull();
+			return Double.NaN;
+		}
+		return reader.nextDouble();
+	}
+}
@@ -0,0 +1,158 @@
+package lazic.utils.ingest;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Streaming reader for SDMX-ML 2.1 generic data replies (format=genericdata), built on StAX.
+ * The reply is read straight off the stream and every observation is handed to a callback as soon as its closing tag
+ * is seen, so memory stays constant however wide the query is.
+ *
+ * Both layouts are understood: flat observations (dimensionAtObservation=AllDimensions), where each Obs carries its
+ * whole key in an ObsKey, and series, where the key and attributes of the enclosing Series apply to each of its
+ * observations and the Obs only names its TIME_PERIOD in an ObsDimension.
+ */
+public class SdmxGenericReader {
+	private static final XMLInputFactory FACTORY = XMLInputFactory.newFactory();
+
+	static {
+		// the replies never need a DTD, and resolving external entities from remote input is an XXE hole
+		FACTORY.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+		FACTORY.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+		FACTORY.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+	}
+
+	@FunctionalInterface
+	public interface ObsHandler {
+		void accept(Obs obs);
+	}
+
+	/**
+	 * One observation. The same instance is reused for every callback, so copy out whatever needs to be kept.
+	 */
+	public static final class Obs {
+		private final Map<String, String> key = new HashMap<>();
+		private final Map<String, String> attributes = new HashMap<>();
+		private final Map<String, String> seriesKey = new HashMap<>();
+		private final Map<String, String> seriesAttributes = new HashMap<>();
+		private String value;
+
+		/**
+		 * The value of a key dimension (e.g. TIME_PERIOD, MEASURE), or null if the observation has none.
+		 */
+		public String key(String id) {
+			String v = key.get(id);
+			return v != null ? v : seriesKey.get(id);
+		}
+
+		/**
+		 * The value of an attribute (e.g. UNIT_MULT, OBS_STATUS), or null if the observation has none.
+		 */
+		public String attribute(String id) {
+			String v = attributes.get(id);
+			return v != null ? v : seriesAttributes.get(id);
+		}
+
+		/**
+		 * The raw ObsValue, or null if the observation has none.
+		 */
+		public String value() {
+			return value;
+		}
+
+		/**
+		 * The ObsValue as a double, NaN if it is missing or not a number.
+		 */
+		public double doubleValue() {
+			if (value == null || value.isEmpty()) {
+				return Double.NaN;
+			}
+			try {
+				return Double.parseDouble(value);
+			} catch (NumberFormatException e) {
+				return Double.NaN;
+			}
+		}
+	}
+
+	// where a generic:Value element currently lands
+	private enum Section { NONE, SERIES_KEY, SERIES_ATTRIBUTES, OBS_KEY, OBS_ATTRIBUTES }
+
+	/**
+	 * Reads the whole reply, calling the handler once per observation in document order. The stream is not closed.
+	 */
+	public static void read(InputStream in, ObsHandler handler) throws XMLStreamException {
+		XMLStreamReader xml = FACTORY.createXMLStreamReader(in);
+		try {
+			Obs obs = new Obs();
+			Section section = Section.NONE;
+			boolean inSeries = false;
+			boolean inObs = false;
+
+			while (xml.hasNext()) {
+				int event = xml.next();
+
+				if (event == XMLStreamConstants.START_ELEMENT) {
+					switch (xml.getLocalName()) {
+						case "Series" -> {
+							inSeries = true;
+							obs.seriesKey.clear();
+							obs.seriesAttributes.clear();
+						}
+						case "SeriesKey" -> section = Section.SERIES_KEY;
+						case "Obs" -> {
+							inObs = true;
+							obs.key.clear();
+							obs.attributes.clear();
+							obs.value = null;
+						}
+						case "ObsKey" -> section = Section.OBS_KEY;
+						case "Attributes" -> section = inObs ? Section.OBS_ATTRIBUTES
+										: inSeries ? Section.SERIES_ATTRIBUTES : Section.NONE;
+						case "ObsDimension" -> {
+							String id = xml.getAttributeValue(null, "id");
+							obs.key.put(id != null ? id : "TIME_PERIOD", xml.getAttributeValue(null, "value"));
+						}
+						case "ObsValue" -> obs.value = xml.getAttributeValue(null, "value");
+						case "Value" -> {
+							Map<String, String> target = switch (section) {
+								case SERIES_KEY -> obs.seriesKey;
+								case SERIES_ATTRIBUTES -> obs.seriesAttributes;
+								case OBS_KEY -> obs.key;
+								case OBS_ATTRIBUTES -> obs.attributes;
+								case NONE -> null;
+							};
+							String id = xml.getAttributeValue(null, "id");
+							if (target != null && id != null) {
+								target.put(id, xml.getAttributeValue(null, "value"));
+							}
+						}
+						default -> { }
+					}
+
+				} else if (event == XMLStreamConstants.END_ELEMENT) {
+					switch (xml.getLocalName()) {
+						case "SeriesKey", "ObsKey", "Attributes" -> section = Section.NONE;
+						case "Obs" -> {
+							inObs = false;
+							handler.accept(obs);
+						}
+						case "Series" -> {
+							inSeries = false;
+							obs.seriesKey.clear();
+							obs.seriesAttributes.clear();
+						}
+						default -> { }
+					}
+				}
+			}
+		} finally {
+			xml.close();
+		}
+	}
+}
@@ -0,0 +1,434 @@
+package lazic.utils.ingest;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Streaming decoder for SDMX-JSON data messages (format=jsondata), both the 1.0 layout (dataSets / structure at the
+ * root) and the 2.0 layout (data.dataSets / data.structures[0]), with observations either flat or grouped in series.
+ *
+ * The dimensions a caller needs are named by id, so their key positions are looked up once per message instead of
+ * being hardcoded, and the time dimension is turned into a long[] of period starts up front. Keys such as
+ * "0:0:2:0:0:0:0:0:0:12" are parsed into a reused int[] without splitting. Observations that arrive before the
+ * structure (the usual order in 2.0) are buffered as primitive indices and values, and replayed once it is known.
+ *
+ * A decoder is immutable and can be shared; every {@link #decode} call keeps its own state.
+ */
+public class SdmxJsonDecoder {
+
+	/**
+	 * One value of a dimension as listed in the structure, e.g. ("LTINT", "Long-term interest rates").
+	 */
+	public record DimensionValue(String id, String name) { }
+
+	@FunctionalInterface
+	public interface ObservationHandler {
+		void accept(long periodStartMillis, DimensionValue feature, double value);
+	}
+
+	private final String featureDimension;
+	private final String timeDimension;
+
+	/**
+	 * Decodes one feature per value of the given dimension (e.g. "MEASURE"), timed by TIME_PERIOD.
+	 */
+	public SdmxJsonDecoder(String featureDimension) {
+		this(featureDimension, "TIME_PERIOD");
+	}
+
+	public SdmxJsonDecoder(String featureDimension, String timeDimension) {
+		this.featureDimension = featureDimension;
+		this.timeDimension = timeDimension;
+	}
+
+	/**
+	 * Decodes a whole message, calling the handler once per observation with a value, in message order for
+	 * observations after the structure and buffered order for those before it. Null values are skipped.
+	 * Throws if the message has observations but no structure, or the structure lacks one of the dimensions.
+	 */
+	public void decode(Reader in, ObservationHandler handler) throws IOException {
+		Decoding decoding = new Decoding(handler);
+		JsonReader reader = new JsonReader(in);
+
+		decoding.readMessage(reader);
+		decoding.finish();
+	}
+
+	// a dimension as read from the structure, before it is resolved against the caller's ids
+	private record Dimension(String id, List<DimensionValue> values, List<String> starts) { }
+
+	private final class Decoding {
+		private final ObservationHandler handler;
+
+		// resolved structure: key positions (-1 for a dataSet-level dimension, which always has index 0)
+		private boolean resolved;
+		private int featurePosition;
+		private int timePosition;
+		private DimensionValue[] features;
+		private long[] periodStarts;
+
+		// current key, series indices first then observation indices
+		private int[] key = new int[16];
+		private int seriesLength;
+
+		// observations read before the structure, keyLength indices each
+		private int keyLength = -1;
+		private int[] pendingKeys = new int[0];
+		private double[] pendingValues = new double[0];
+		private int pending;
+
+		Decoding(ObservationHandler handler) {
+			this.handler = handler;
+		}
+
+		void readMessage(JsonReader reader) throws IOException {
+			reader.beginObject();
+			while (reader.hasNext()) {
+				String name = reader.nextName();
+				if (reader.peek() == JsonToken.NULL) {
+					reader.nextNull();
+					continue;
+				}
+				switch (name) {
+					case "data" -> readMessage(reader); // 2.0 nests the same members one level down
+					case "dataSets" -> readDataSets(reader);
+					case "structure" -> readStructure(reader);
+					case "structures" -> {
+						reader.beginArray();
+						if (reader.hasNext()) {
+							readStructure(reader);
+						}
+						while (reader.hasNext()) {
+							reader.skipValue();
+						}
+						reader.endArray();
+					}
+					default -> reader.skipValue();
+				}
+			}
+			reader.endObject();
+		}
+
+		void finish() throws IOException {
+			if (pending > 0 && !resolved) {
+				throw new IOException("SDMX-JSON message has observations but no structure");
+			}
+		}
+
+		// ---------------------------------------------------------------- data sets
+
+		private void readDataSets(JsonReader reader) throws IOException {
+			reader.beginArray();
+			while (reader.hasNext()) {
+				reader.beginObject();
+				while (reader.hasNext()) {
+					String name = reader.nextName();
+					if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+						reader.skipValue();
+					} else if (name.equals("series")) {
+						readSeries(reader);
+					} else if (name.equals("observations")) {
+						seriesLength = 0;
+						readObservations(reader);
+					} else {
+						reader.skipValue();
+					}
+				}
+				reader.endObject();
+			}
+			reader.endArray();
+		}
+
+		private void readSeries(JsonReader reader) throws IOException {
+			reader.beginObject();
+			while (reader.hasNext()) {
+				seriesLength = parseKey(reader.nextName(), 0);
+
+				reader.beginObject();
+				while (reader.hasNext()) {
+					if (reader.nextName().equals("observations") && reader.peek() == JsonToken.BEGIN_OBJECT) {
+						readObservations(reader);
+					} else {
+						reader.skipValue(); // attributes, annotations
+					}
+				}
+				reader.endObject();
+			}
+			reader.endObject();
+		}
+
+		private void readObservations(JsonReader reader) throws IOException {
+			reader.beginObject();
+			while (reader.hasNext()) {
+				int length = seriesLength + parseKey(reader.nextName(), seriesLength);
+				double value = readValue(reader);
+
+				if (Double.isNaN(value)) {
+					continue;
+				}
+				if (resolved) {
+					emit(key, 0, length, value);
+				} else {
+					buffer(length, value);
+				}
+			}
+			reader.endObject();
+		}
+
+		// the first element of an observation array is the value, the rest are attribute indices
+		private double readValue(JsonReader reader) throws IOException {
+			if (reader.peek() != JsonToken.BEGIN_ARRAY) {
+				reader.skipValue();
+				return Double.NaN;
+			}
+
+			double value = Double.NaN;
+			reader.beginArray();
+			if (reader.hasNext()) {
+				JsonToken token = reader.peek();
+				if (token == JsonToken.NUMBER) {
+					value = reader.nextDouble();
+				} else if (token == JsonToken.STRING) {
+					value = parseDouble(reader.nextString());
+				} else {
+					reader.skipValue();
+				}
+			}
+			while (reader.hasNext()) {
+				reader.skipValue();
+			}
+			reader.endArray();
+			return value;
+		}
+
+		// parses the indices of a colon separated key into key[offset...], returns how many there were
+		private int parseKey(String s, int offset) throws IOException {
+			if (s.isEmpty()) {
+				return 0;
+			}
+
+			int count = 0;
+			int index = 0;
+			for (int i = 0; i <= s.length(); i++) {
+				char c = i < s.length() ? s.charAt(i) : ':';
+				if (c == ':') {
+					if (offset + count == key.length) {
+						key = Arrays.copyOf(key, key.length * 2);
+					}
+					key[offset + count++] = index;
+					index = 0;
+				} else if (c >= '0' && c <= '9') {
+					index = index * 10 + (c - '0');
+				} else {
+					throw new IOException("Malformed SDMX-JSON key: " + s);
+				}
+			}
+			return count;
+		}
+
+		private void buffer(int length, double value) {
+			if (keyLength < 0) {
+				keyLength = length;
+			} else if (length != keyLength) {
+				return; // every key of a message has the same dimensions
+			}
+
+			if (pending == pendingValues.length) {
+				int capacity = Math.max(256, pending * 2);
+				pendingValues = Arrays.copyOf(pendingValues, capacity);
+				pendingKeys = Arrays.copyOf(pendingKeys, capacity * length);
+			}
+			System.arraycopy(key, 0, pendingKeys, pending * length, length);
+			pendingValues[pending++] = value;
+		}
+
+		private void emit(int[] keys, int offset, int length, double value) {
+			if (featurePosition >= length || timePosition >= length) {
+				return;
+			}
+
+			int featureIndex = featurePosition < 0 ? 0 : keys[offset + featurePosition];
+			int timeIndex = timePosition < 0 ? 0 : keys[offset + timePosition];
+			if (featureIndex >= features.length || timeIndex >= periodStarts.length) {
+				return;
+			}
+
+			long start = periodStarts[timeIndex];
+			if (start != Long.MIN_VALUE) {
+				handler.accept(start, features[featureIndex], value);
+			}
+		}
+
+		// ---------------------------------------------------------------- structure
+
+		private void readStructure(JsonReader reader) throws IOException {
+			List<Dimension> dataSetDimensions = List.of();
+			List<Dimension> seriesDimensions = List.of();
+			List<Dimension> observationDimensions = List.of();
+
+			reader.beginObject();
+			while (reader.hasNext()) {
+				if (!reader.nextName().equals("dimensions") || reader.peek() != JsonToken.BEGIN_OBJECT) {
+					reader.skipValue();
+					continue;
+				}
+
+				reader.beginObject();
+				while (reader.hasNext()) {
+					String level = reader.nextName();
+					if (reader.peek() != JsonToken.BEGIN_ARRAY) {
+						reader.skipValue();
+						continue;
+					}
+					switch (level) {
+						case "dataSet" -> dataSetDimensions = readDimensions(reader);
+						case "series" -> seriesDimensions = readDimensions(reader);
+						case "observation" -> observationDimensions = readDimensions(reader);
+						default -> reader.skipValue();
+					}
+				}
+				reader.endObject();
+			}
+			reader.endObject();
+
+			resolve(dataSetDimensions, seriesDimensions, observationDimensions);
+		}
+
+		private List<Dimension> readDimensions(JsonReader reader) throws IOException {
+			List<Dimension> dimensions = new ArrayList<>();
+
+			reader.beginArray();
+			while (reader.hasNext()) {
+				String id = null;
+				List<DimensionValue> values = new ArrayList<>();
+				List<String> starts = new ArrayList<>();
+
+				reader.beginObject();
+				while (reader.hasNext()) {
+					String name = reader.nextName();
+					if (name.equals("id") && reader.peek() == JsonToken.STRING) {
+						id = reader.nextString();
+					} else if (name.equals("values") && reader.peek() == JsonToken.BEGIN_ARRAY) {
+						readDimensionValues(reader, values, starts);
+					} else {
+						reader.skipValue(); // name, keyPosition, roles, links...
+					}
+				}
+				reader.endObject();
+
+				dimensions.add(new Dimension(id, values, starts));
+			}
+			reader.endArray();
+
+			return dimensions;
+		}
+
+		private void readDimensionValues(JsonReader reader, List<DimensionValue> values, List<String> starts)
+						throws IOException {
+			reader.beginArray();
+			while (reader.hasNext()) {
+				String id = null;
+				String name = null;
+				String start = null;
+
+				reader.beginObject();
+				while (reader.hasNext()) {
+					String field = reader.nextName();
+					if (reader.peek() != JsonToken.STRING) {
+						reader.skipValue();
+						continue;
+					}
+					switch (field) {
+						case "id" -> id = reader.nextString();
+						case "name" -> name = reader.nextString();
+						case "start" -> start = reader.nextString();
+						default -> reader.skipValue();
+					}
+				}
+				reader.endObject();
+
+				values.add(new DimensionValue(id, name != null ? name : id));
+				starts.add(start);
+			}
+			reader.endArray();
+		}
+
+		private void resolve(List<Dimension> dataSet, List<Dimension> series, List<Dimension> observation)
+						throws IOException {
+			Dimension feature = null;
+			Dimension time = null;
+			featurePosition = -1;
+			timePosition = -1;
+
+			List<Dimension> keyed = new ArrayList<>(series);
+			keyed.addAll(observation);
+			for (int i = 0; i < keyed.size(); i++) {
+				Dimension d = keyed.get(i);
+				if (featureDimension.equals(d.id())) {
+					feature = d;
+					featurePosition = i;
+				} else if (timeDimension.equals(d.id())) {
+					time = d;
+					timePosition = i;
+				}
+			}
+			for (Dimension d : dataSet) {
+				if (feature == null && featureDimension.equals(d.id())) {
+					feature = d;
+				} else if (time == null && timeDimension.equals(d.id())) {
+					time = d;
+				}
+			}
+
+			if (feature == null || time == null) {
+				throw new IOException("SDMX-JSON structure has no " + (feature == null ? featureDimension : timeDimension)
+								+ " dimension");
+			}
+
+			features = feature.values().toArray(new DimensionValue[0]);
+			periodStarts = new long[time.values().size()];
+			for (int i = 0; i < periodStarts.length; i++) {
+				periodStarts[i] = periodStart(time.values().get(i).id(), time.starts().get(i));
+			}
+			resolved = true;
+
+			// replay what was read before the structure
+			for (int i = 0; i < pending; i++) {
+				emit(pendingKeys, i * keyLength, keyLength, pendingValues[i]);
+			}
+			pending = 0;
+			pendingKeys = new int[0];
+			pendingValues = new double[0];
+		}
+	}
+
+	// the explicit start (e.g. "2025-02-01T00:00:00") when given, else the start of the period id, as UTC millis
+	private static long periodStart(String id, String start) {
+		if (start != null) {
+			try {
+				return LocalDateTime.parse(start, DateTimeFormatter.ISO_DATE_TIME).toInstant(ZoneOffset.UTC).toEpochMilli();
+			} catch (DateTimeParseException e) {
+				// fall back to the id
+			}
+		}
+		return id != null ? SdmxPeriods.startMillis(id) : Long.MIN_VALUE;
+	}
+
+	private static double parseDouble(String s) {
+		try {
+			return Double.parseDouble(s);
+		} catch (NumberFormatException e) {
+			return Double.NaN;
+		}
+	}
+}
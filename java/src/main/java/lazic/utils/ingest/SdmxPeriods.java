@@ -0,0 +1,105 @@
+package lazic.utils.ingest;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+
+/**
+ * Converts between epoch-millis timestamps and SDMX period ids, e.g. for the startPeriod query parameter.
+ * Periods are UTC calendar periods: a period's timestamp is the UTC midnight it starts at.
+ */
+public class SdmxPeriods {
+	// the UTC epoch millis every month from FIRST_YEAR to LAST_YEAR starts at, so converting a period id is digit
+	// parsing and an array lookup; the +1 entry is the start of the month after the last
+	private static final int FIRST_YEAR = 1800;
+	private static final int LAST_YEAR = 2200;
+	private static final long[] MONTH_STARTS = new long[(LAST_YEAR - FIRST_YEAR + 1) * 12 + 1];
+
+	static {
+		for (int i = 0; i < MONTH_STARTS.length; i++) {
+			MONTH_STARTS[i] = LocalDate.of(FIRST_YEAR + i / 12, i % 12 + 1, 1).toEpochDay() * TradingDays.DAY_MILLIS;
+		}
+	}
+
+	/**
+	 * Monthly period containing the timestamp, e.g. "2023-05".
+	 */
+	public static String month(long epochMillis) {
+		LocalDate date = toDate(epochMillis);
+		return String.format("%04d-%02d", date.getYear(), date.getMonthValue());
+	}
+
+	/**
+	 * Quarterly period containing the timestamp, e.g. "2023-Q2".
+	 */
+	public static String quarter(long epochMillis) {
+		LocalDate date = toDate(epochMillis);
+		return String.format("%04d-Q%d", date.getYear(), (date.getMonthValue() - 1) / 3 + 1);
+	}
+
+	/**
+	 * UTC epoch millis of the first day of a period id: "2023", "2023-05", "2023-05-17", "2023-Q2" or "2023-S1".
+	 * Returns Long.MIN_VALUE for anything else.
+	 */
+	public static long startMillis(String period) {
+		int length = period.length();
+		if (length < 4 || (length > 4 && period.charAt(4) != '-')) {
+			return Long.MIN_VALUE;
+		}
+		int year = digits(period, 0, 4);
+		if (year < 0) {
+			return Long.MIN_VALUE;
+		}
+
+		int month; // 1-based
+		int day = 1;
+		if (length == 4) {
+			month = 1;
+		} else if (length == 7 && period.charAt(5) == 'Q') {
+			int quarter = digits(period, 6, 7);
+			month = quarter >= 1 && quarter <= 4 ? (quarter - 1) * 3 + 1 : -1;
+		} else if (length == 7 && period.charAt(5) == 'S') {
+			int half = digits(period, 6, 7);
+			month = half >= 1 && half <= 2 ? (half - 1) * 6 + 1 : -1;
+		} else if (length == 7) {
+			month = digits(period, 5, 7);
+		} else if (length == 10 && period.charAt(7) == '-') {
+			month = digits(period, 5, 7);
+			day = digits(period, 8, 10);
+		} else {
+			return Long.MIN_VALUE;
+		}
+		if (month < 1 || month > 12 || day < 1) {
+			return Long.MIN_VALUE;
+		}
+
+		if (year < FIRST_YEAR || year > LAST_YEAR) {
+			try {
+				return LocalDate.of(year, month, day).toEpochDay() * TradingDays.DAY_MILLIS;
+			} catch (RuntimeException e) { // DateTimeException for a day past the end of the month
+				return Long.MIN_VALUE;
+			}
+		}
+
+		int index = (year - FIRST_YEAR) * 12 + month - 1;
+		long start = MONTH_STARTS[index] + (day - 1) * TradingDays.DAY_MILLIS;
+		return start < MONTH_STARTS[index + 1] ? start : Long.MIN_VALUE;
+	}
+
+	// the non-negative decimal number in [from, to), -1 if any of it is not a digit
+	private static int digits(String s, int from, int to) {
+		int value = 0;
+		for (int i = from; i < to; i++) {
+			char c = s.charAt(i);
+			if (c < '0' || c > '9') {
+				return -1;
+			}
+			value = value * 10 + (c - '0');
+		}
+		return value;
+	}
+
+	private static LocalDate toDate(long epochMillis) {
+		return LocalDate.ofInstant(Instant.ofEpochMilli(epochMillis), ZoneOffset.UTC);
+	}
+}
@@ -0,0 +1,95 @@
+package lazic.utils.ingest;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * "Features X for tickers T between t0 and t1" over a {@link TimeSeriesStore} or a {@link TimeSeriesDb}.
+ * The series are picked by name and each one is cut to the time range by binary search on its sorted timestamps,
+ * so only the rows in the answer are ever visited.
+ *
+ * SeriesQuery.features("Close", "Volume").tickers("AIR.NZ", "FPH.NZ").between(t0, t1).select(data)
+ *
+ * Without features or tickers every series matches; a null ticker selects the macro series. The range is [from, to).
+ */
+public final class SeriesQuery {
+	private final Set<String> features;
+	private final Set<String> tickers;
+	private final long from;
+	private final long to;
+
+	private SeriesQuery(Set<String> features, Set<String> tickers, long from, long to) {
+		this.features = features;
+		this.tickers = tickers;
+		this.from = from;
+		this.to = to;
+	}
+
+	public static SeriesQuery all() {
+		return new SeriesQuery(null, null, Long.MIN_VALUE, Long.MAX_VALUE);
+	}
+
+	public static SeriesQuery features(String... features) {
+		return all().withFeatures(features);
+	}
+
+	public SeriesQuery withFeatures(String... features) {
+		return new SeriesQuery(new HashSet<>(Arrays.asList(features)), tickers, from, to);
+	}
+
+	public SeriesQuery tickers(String... tickers) {
+		return new SeriesQuery(features, new HashSet<>(Arrays.asList(tickers)), from, to);
+	}
+
+	public SeriesQuery between(long from, long to) {
+		return new SeriesQuery(features, tickers, from, to);
+	}
+
+	public long from() { return from; }
+	public long to() { return to; }
+
+	boolean matches(String ticker, String feature) {
+		return (features == null || features.contains(feature)) && (tickers == null || tickers.contains(ticker));
+	}
+
+	/**
+	 * Visits the matching points in {@link TimeSeriesStore#forEach} order.
+	 */
+	public void forEach(TimeSeriesStore data, TimeSeriesStore.PointConsumer consumer) {
+		for (TimeSeries s : data.series()) {
+			if (!matches(s.getTicker(), s.getFeature())) {
+				continue;
+			}
+
+			int hi = s.lowerBound(to);
+			for (int i = s.lowerBound(from); i < hi; i++) {
+				consumer.accept(s.timestampAt(i), s.getTicker(), s.getFeature(), s.valueAt(i));
+			}
+		}
+	}
+
+	/**
+	 * Same as {@link #forEach(TimeSeriesStore, TimeSeriesStore.PointConsumer)}, reading the mapped segments.
+	 */
+	public void forEach(TimeSeriesDb db, TimeSeriesStore.PointConsumer consumer) throws IOException {
+		db.forEach(this, consumer);
+	}
+
+	/**
+	 * Copies the answer into a new store, ready for {@link CsvLongParser#saveCsv(String, TimeSeriesStore)}
+	 * or {@link ColumnarLongParser#saveColumnar(String, TimeSeriesStore)}.
+	 */
+	public TimeSeriesStore select(TimeSeriesStore data) {
+		TimeSeriesStore slice = new TimeSeriesStore();
+		forEach(data, (ts, ticker, feature, value) -> slice.append(ticker, feature, ts, value));
+		return slice;
+	}
+
+	public TimeSeriesStore select(TimeSeriesDb db) throws IOException {
+		TimeSeriesStore slice = new TimeSeriesStore();
+		forEach(db, (ts, ticker, feature, value) -> slice.append(ticker, feature, ts, value));
+		return slice;
+	}
+}
@@ -0,0 +1,17 @@
+package lazic.utils.ingest;
+
+import java.time.Duration;
+
+/**
+ * How the {@link IngestScheduler} runs a source. Sources with a higher priority are started first; each attempt may
+ * run for at most the timeout; a failed or timed-out attempt is retried until the attempts are used up, waiting the
+ * backoff before the first retry and twice as long before every further one. The concurrency is the source's budget
+ * of tickers fetched at once (see {@link TickerFanOut}), apart from every other source's.
+ */
+public record SourcePolicy(int priority, Duration timeout, int attempts, Duration backoff, int concurrency) {
+
+	/**
+	 * A quick single-request source: normal priority, two minutes per attempt, three attempts.
+	 */
+	public static final SourcePolicy DEFAULT = new SourcePolicy(0, Duration.ofMinutes(2), 3, Duration.ofSeconds(5), 1);
+}
@@ -0,0 +1,39 @@
+package lazic.utils.ingest;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Interns strings (tickers, feature names) to dense int ids, so the same name is stored once no matter how many
+ * observations refer to it. null is a valid symbol, used for macro data that has no ticker.
+ */
+public class SymbolTable {
+	private final Map<String, Integer> ids = new HashMap<>();
+	private final List<String> symbols = new ArrayList<>();
+
+	/**
+	 * Returns the id of the symbol, assigning the next free id if it has not been seen before.
+	 */
+	public int intern(String symbol) {
+		Integer id = ids.get(symbol);
+		if (id == null) {
+			id = symbols.size();
+			ids.put(symbol, id);
+			symbols.add(symbol);
+		}
+		return id;
+	}
+
+	/**
+	 * Returns the id of the symbol, or -1 if it has not been interned.
+	 */
+	public int idOf(String symbol) {
+		return ids.getOrDefault(symbol, -1);
+	}
+
+	public String symbol(int id) { return symbols.get(id); }
+
+	public int size() { return symbols.size(); }
+}
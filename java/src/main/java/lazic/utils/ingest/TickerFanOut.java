@@ -0,0 +1,76 @@
+package lazic.utils.ingest;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Runs a fetch-and-parse task per ticker, each on its own virtual thread, with at most the source's concurrency
+ * budget ({@link SourcePolicy#concurrency()}) of them running at once. How many requests actually hit a host at once
+ * is further bounded by {@link WebHtmlGetter#MAX_REQUESTS_PER_HOST}, across sources, and how fast they are sent is
+ * found by the host's {@link HostThrottle}.
+ * Every task decodes into a store of its own, handed to the sink once the ticker is done, so the sink never sees
+ * two threads and a failing ticker leaves no partial points behind. It is logged and skipped, it never takes the
+ * other tickers down with it, unless so many fail that the whole run is more likely broken (say the host's breaker is
+ * open): then the attempt fails, so the scheduler retries it as the source's policy allows.
+ */
+public class TickerFanOut {
+	/**
+	 * Above this share of failed tickers, in percent, the whole fan-out fails.
+	 * Can be overridden with -Dnorn.ingest.maxFailedPercent=N
+	 */
+	static final int MAX_FAILED_PERCENT = Integer.getInteger("norn.ingest.maxFailedPercent", 50);
+
+	@FunctionalInterface
+	public interface TickerTask {
+		void fetch(String ticker, DataPointSink sink) throws Exception;
+	}
+
+	/**
+	 * Runs the task for every ticker, concurrency of them at a time, and returns how many of them failed once all of
+	 * them are done. Throws InterruptedException if the calling attempt is cancelled while it waits, the tasks running
+	 * are interrupted too, and an IOException if more than {@link #MAX_FAILED_PERCENT} of the tickers failed.
+	 */
+	public static int fetchAll(String[] tickers, int concurrency, TickerTask task, DataPointSink sink)
+					throws InterruptedException, IOException {
+		Semaphore budget = new Semaphore(Math.max(1, concurrency));
+		AtomicInteger failed = new AtomicInteger();
+		AtomicReference<Exception> lastFailure = new AtomicReference<>();
+
+		// close() waits for every submitted task to finish
+		try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+			try {
+				for (String ticker : tickers) {
+					budget.acquire();
+					executor.submit(() -> {
+						try {
+							TimeSeriesStore points = new TimeSeriesStore();
+							task.fetch(ticker, points);
+							synchronized (sink) {
+								sink.acceptAll(points);
+							}
+						} catch (Exception e) {
+							System.err.println("Error processing ticker " + ticker + ": " + e.getMessage());
+							failed.incrementAndGet();
+							lastFailure.set(e);
+						} finally {
+							budget.release();
+						}
+					});
+				}
+			} catch (InterruptedException e) {
+				executor.shutdownNow();
+				throw e;
+			}
+		}
+
+		if (failed.get() > 0 && failed.get() * 100L > (long) tickers.length * MAX_FAILED_PERCENT) {
+			throw new IOException(failed.get() + " of " + tickers.length + " tickers failed, the last with: "
+							+ lastFailure.get().getMessage(), lastFailure.get());
+		}
+		return failed.get();
+	}
+}
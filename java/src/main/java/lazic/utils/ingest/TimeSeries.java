@@ -0,0 +1,191 @@
+package lazic.utils.ingest;
+
+import java.util.Arrays;
+
+/**
+ * A single (ticker, feature) series, held as primitive epoch-millis timestamps and double values.
+ * Points are appended into fixed-size chunks, so growing a long series never copies more than one chunk.
+ * Points may be appended out of order; the series is stably sorted by timestamp the first time it is read.
+ */
+public final class TimeSeries {
+	static final int CHUNK_SHIFT = 12;
+	static final int CHUNK_SIZE = 1 << CHUNK_SHIFT; // 4096 points per chunk
+	static final int CHUNK_MASK = CHUNK_SIZE - 1;
+	static final int INITIAL_CAPACITY = 8;
+
+	private final String ticker;   // null for macro data
+	private final String feature;
+
+	private long[][] timestampChunks = new long[1][];
+	private double[][] valueChunks = new double[1][];
+	private int size;
+	private boolean sorted = true;
+
+	TimeSeries(String ticker, String feature) {
+		this.ticker = ticker;
+		this.feature = feature;
+	}
+
+	public String getTicker() { return ticker; }
+	public String getFeature() { return feature; }
+	public int size() { return size; }
+
+	void append(long epochMillis, double value) {
+		int chunk = size >>> CHUNK_SHIFT;
+		int offset = size & CHUNK_MASK;
+
+		if (chunk == 0) {
+			// the first chunk starts small and doubles up to CHUNK_SIZE, most fundamentals series only hold a handful of points
+			if (timestampChunks[0] == null || offset == timestampChunks[0].length) {
+				int capacity = timestampChunks[0] == null ? INITIAL_CAPACITY : offset * 2;
+				timestampChunks[0] = timestampChunks[0] == null ? new long[capacity] : Arrays.copyOf(timestampChunks[0], capacity);
+				valueChunks[0] = valueChunks[0] == null ? new double[capacity] : Arrays.copyOf(valueChunks[0], capacity);
+			}
+		} else if (offset == 0) {
+			if (chunk == timestampChunks.length) {
+				timestampChunks = Arrays.copyOf(timestampChunks, chunk * 2);
+				valueChunks = Arrays.copyOf(valueChunks, chunk * 2);
+			}
+			timestampChunks[chunk] = new long[CHUNK_SIZE];
+			valueChunks[chunk] = new double[CHUNK_SIZE];
+		}
+
+		if (sorted && size > 0 && epochMillis < timestampAt(size - 1)) {
+			sorted = false;
+		}
+
+		timestampChunks[chunk][offset] = epochMillis;
+		valueChunks[chunk][offset] = value;
+		size++;
+	}
+
+	void appendAll(TimeSeries other) {
+		for (int i = 0; i < other.size; i++) {
+			append(other.timestampAt(i), other.valueAt(i));
+		}
+	}
+
+	/**
+	 * Drops every point from index newSize on. Only meaningful once the series is sorted.
+	 */
+	void truncate(int newSize) {
+		size = Math.min(size, Math.max(0, newSize));
+	}
+
+	/**
+	 * Sorts, then removes every point that repeats the timestamp and value of an earlier one, keeping the first.
+	 * Returns how many points were removed.
+	 */
+	int dropDuplicates() {
+		sort();
+
+		int out = 0;
+		int runStart = 0; // first kept point with the current timestamp
+		for (int i = 0; i < size; i++) {
+			long ts = timestampAt(i);
+			double value = valueAt(i);
+			if (out == 0 || timestampAt(out - 1) != ts) {
+				runStart = out;
+			}
+
+			boolean repeat = false;
+			for (int j = runStart; j < out && !repeat; j++) {
+				repeat = Double.doubleToLongBits(valueAt(j)) == Double.doubleToLongBits(value);
+			}
+			if (!repeat) {
+				timestampChunks[out >>> CHUNK_SHIFT][out & CHUNK_MASK] = ts;
+				valueChunks[out >>> CHUNK_SHIFT][out & CHUNK_MASK] = value;
+				out++;
+			}
+		}
+
+		int removed = size - out;
+		size = out;
+		return removed;
+	}
+
+	/**
+	 * Index of the first point with a timestamp at or after the given one (size() if there is none).
+	 * The series must be sorted.
+	 */
+	public int lowerBound(long epochMillis) {
+		int lo = 0, hi = size;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (timestampAt(mid) < epochMillis) {
+				lo = mid + 1;
+			} else {
+				hi = mid;
+			}
+		}
+		return lo;
+	}
+
+	/**
+	 * Timestamp of the i-th point, in append order until the series has been sorted.
+	 */
+	public long timestampAt(int i) { return timestampChunks[i >>> CHUNK_SHIFT][i & CHUNK_MASK]; }
+
+	public double valueAt(int i) { return valueChunks[i >>> CHUNK_SHIFT][i & CHUNK_MASK]; }
+
+	/**
+	 * Stably sorts the points by timestamp, if they were not appended in order already.
+	 */
+	void sort() {
+		if (sorted) {
+			return;
+		}
+
+		long[] ts = new long[size];
+		double[] values = new double[size];
+		for (int i = 0; i < size; i++) {
+			ts[i] = timestampAt(i);
+			values[i] = valueAt(i);
+		}
+
+		mergeSort(ts, values, new long[size], new double[size], 0, size);
+
+		for (int i = 0; i < size; i++) {
+			timestampChunks[i >>> CHUNK_SHIFT][i & CHUNK_MASK] = ts[i];
+			valueChunks[i >>> CHUNK_SHIFT][i & CHUNK_MASK] = values[i];
+		}
+		sorted = true;
+	}
+
+	// stable merge sort of two parallel arrays keyed on the timestamps, [from, to)
+	private static void mergeSort(long[] ts, double[] values, long[] tsTmp, double[] valuesTmp, int from, int to) {
+		if (to - from < 2) {
+			return;
+		}
+
+		int mid = (from + to) >>> 1;
+		mergeSort(ts, values, tsTmp, valuesTmp, from, mid);
+		mergeSort(ts, values, tsTmp, valuesTmp, mid, to);
+
+		if (ts[mid - 1] <= ts[mid]) {
+			return; // halves already in order
+		}
+
+		System.arraycopy(ts, from, tsTmp, from, to - from);
+		System.arraycopy(values, from, valuesTmp, from, to - from);
+
+		int left = from, right = mid, out = from;
+		while (left < mid && right < to) {
+			if (tsTmp[right] < tsTmp[left]) {
+				ts[out] = tsTmp[right];
+				values[out++] = valuesTmp[right++];
+			} else {
+				ts[out] = tsTmp[left];
+				values[out++] = valuesTmp[left++];
+			}
+		}
+		while (left < mid) {
+			ts[out] = tsTmp[left];
+			values[out++] = valuesTmp[left++];
+		}
+		while (right < to) {
+			ts[out] = tsTmp[right];
+			values[out++] = valuesTmp[right++];
+		}
+	}
+}
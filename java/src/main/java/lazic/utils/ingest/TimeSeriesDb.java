@@ -0,0 +1,509 @@
+package lazic.utils.ingest;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Embedded append-only store for ingested series, kept in a directory across runs and read back through mmap.
+ * Every append writes one immutable segment file holding a block for each (ticker, feature) series it carries; the
+ * index file lists the blocks of every series with their file, offset and time range, and is the only file ever
+ * replaced. Read by src/utils/tsdb_utils.py as well.
+ *
+ * A newer block of a series supersedes the older ones from its first timestamp on, the same rule as
+ * {@link TimeSeriesStore#mergeNewer(TimeSeriesStore)}, so appending a re-fetched tail is an update, not a duplicate.
+ *
+ * Crash safety: an append's segment file is written and forced to disk once, before the new index is written to a temp
+ * file and atomically moved over the old one. A crash before that move leaves the previous index in place, and the
+ * segment files nothing refers to are deleted on the next open.
+ *
+ * All numbers are little-endian:
+ *
+ * index.bin        magic "NORNIDX3", int64 next segment file id, int32 {@link TradingDays#TIME_MODEL} of the stored
+ *                  timestamps, int32 series count, then per series:
+ *                  ticker and feature (int32 byte length, -1 for null, + UTF-8 bytes), int32 block count,
+ *                  per block: int64 file id, int64 byte offset, int32 point count, int64 first timestamp,
+ *                  int64 last timestamp
+ * seg-{id}.ts      magic "NORNSEG2", int32 block count, int32 unused, then the blocks back to back, each the point
+ *                  count int64 timestamps (ascending) followed by the point count float64 values
+ *
+ * A "NORNIDX2" index is the same without the time model. A "NORNIDX1" index, from when every series had a segment
+ * file of its own, lacks the block offsets too: each of its segments is a block at offset 16 of a "NORNSEG1" file,
+ * which has the same layout. Both are still read, as of time model 1, and the next write converts them.
+ */
+public class TimeSeriesDb implements Closeable {
+	static final byte[] INDEX_MAGIC = "NORNIDX3".getBytes(StandardCharsets.US_ASCII);
+	static final byte[] INDEX_MAGIC_V2 = "NORNIDX2".getBytes(StandardCharsets.US_ASCII);
+	static final byte[] INDEX_MAGIC_V1 = "NORNIDX1".getBytes(StandardCharsets.US_ASCII);
+	static final byte[] SEGMENT_MAGIC = "NORNSEG2".getBytes(StandardCharsets.US_ASCII);
+	static final int SEGMENT_HEADER = 16; // keeps the columns 8-byte aligned for mmap readers
+	static final String INDEX_FILE = "index.bin";
+
+	// a series is compacted into one block once an append leaves it with more than this many
+	static final int COMPACT_SEGMENTS = Integer.getInteger("norn.tsdb.compactSegments", 8);
+
+	private static final Comparator<SeriesKey> SERIES_ORDER = Comparator
+					.comparing(SeriesKey::ticker, Comparator.nullsFirst(Comparator.<String>naturalOrder()))
+					.thenComparing(SeriesKey::feature, Comparator.nullsFirst(Comparator.<String>naturalOrder()));
+
+	private record SeriesKey(String ticker, String feature) { }
+
+	// one series' block in a segment file
+	private record Segment(long file, long offset, int count, long first, long last) { }
+
+	private interface PointVisitor { void accept(long epochMillis, double value) throws IOException; }
+
+	// the points of one series to write as a block, visited in timestamp order
+	private interface Block { void forEach(PointVisitor visitor) throws IOException; }
+
+	private final Path dir;
+	private final Map<SeriesKey, List<Segment>> index = new HashMap<>();
+	private final Map<Segment, MappedByteBuffer> mapped = new HashMap<>();
+	private long nextSegmentId;
+	private int timeModel;
+
+	private TimeSeriesDb(Path dir) {
+		this.dir = dir;
+	}
+
+	/**
+	 * Opens the store in the directory, creating it if needed, and removes whatever an interrupted write left behind.
+	 */
+	public static TimeSeriesDb open(Path dir) throws IOException {
+		Files.createDirectories(dir);
+		TimeSeriesDb db = new TimeSeriesDb(dir);
+		db.readIndex();
+		db.deleteUnreferenced();
+		return db;
+	}
+
+	/**
+	 * Appends every series of the store as a block of one new segment file and commits them all with one index write.
+	 * Series left with too many blocks are compacted afterwards, together.
+	 */
+	public synchronized void append(TimeSeriesStore delta) throws IOException {
+		List<SeriesKey> keys = new ArrayList<>();
+		List<Block> blocks = new ArrayList<>();
+		for (TimeSeries s : delta.series()) {
+			if (s.size() > 0) {
+				keys.add(new SeriesKey(s.getTicker(), s.getFeature()));
+				blocks.add(visitor -> {
+					for (int i = 0; i < s.size(); i++) {
+						visitor.accept(s.timestampAt(i), s.valueAt(i));
+					}
+				});
+			}
+		}
+		if (keys.isEmpty()) {
+			return;
+		}
+
+		try {
+			List<Segment> written = writeSegments(blocks);
+			for (int i = 0; i < keys.size(); i++) {
+				index.computeIfAbsent(keys.get(i), k -> new ArrayList<>()).add(written.get(i));
+			}
+			writeIndex();
+
+		} catch (IOException e) {
+			readIndex(); // back to what is committed on disk, the new segment file is an orphan now
+			throw e;
+		}
+
+		List<SeriesKey> crowded = new ArrayList<>();
+		for (SeriesKey key : keys) {
+			if (index.get(key).size() > COMPACT_SEGMENTS) {
+				crowded.add(key);
+			}
+		}
+		compact(crowded);
+	}
+
+	/**
+	 * Rewrites every series that has more than one block into a single block of its visible points.
+	 */
+	public synchronized void compact() throws IOException {
+		List<SeriesKey> keys = new ArrayList<>();
+		for (Map.Entry<SeriesKey, List<Segment>> e : index.entrySet()) {
+			if (e.getValue().size() > 1) {
+				keys.add(e.getKey());
+			}
+		}
+		compact(keys);
+	}
+
+	/**
+	 * Visits the points of one series with from <= timestamp < to, by timestamp. Nothing is copied onto the heap.
+	 */
+	public synchronized void forEach(String ticker, String feature, long from, long to,
+																	 TimeSeriesStore.PointConsumer consumer) throws IOException {
+		SeriesKey key = new SeriesKey(ticker, feature);
+		List<Segment> segments = index.get(key);
+		if (segments != null) {
+			scan(segments, from, to, (ts, value) -> consumer.accept(ts, ticker, feature, value));
+		}
+	}
+
+	/**
+	 * Visits the points of every series with from <= timestamp < to, ordered by ticker (macro data first), feature
+	 * and timestamp, the order of {@link TimeSeriesStore#forEach}.
+	 */
+	public void forEach(long from, long to, TimeSeriesStore.PointConsumer consumer) throws IOException {
+		forEach(SeriesQuery.all().between(from, to), consumer);
+	}
+
+	// the series are picked from the index alone, only the matching blocks are ever mapped
+	synchronized void forEach(SeriesQuery query, TimeSeriesStore.PointConsumer consumer) throws IOException {
+		List<SeriesKey> keys = new ArrayList<>();
+		for (SeriesKey key : index.keySet()) {
+			if (query.matches(key.ticker(), key.feature())) {
+				keys.add(key);
+			}
+		}
+		keys.sort(SERIES_ORDER);
+		for (SeriesKey key : keys) {
+			scan(index.get(key), query.from(), query.to(),
+							(ts, value) -> consumer.accept(ts, key.ticker(), key.feature(), value));
+		}
+	}
+
+	/**
+	 * Copies every visible point into the store.
+	 */
+	public void loadInto(TimeSeriesStore store) throws IOException {
+		forEach(Long.MIN_VALUE, Long.MAX_VALUE,
+						(ts, ticker, feature, value) -> store.append(ticker, feature, ts, value));
+	}
+
+	public synchronized boolean isEmpty() {
+		return index.isEmpty();
+	}
+
+	/**
+	 * The timestamp convention of the stored series. One older than {@link TradingDays#TIME_MODEL} means they have to
+	 * be {@link #clear() cleared} and fetched again before anything is appended or merged with them.
+	 */
+	public synchronized int timeModel() {
+		return timeModel;
+	}
+
+	/**
+	 * Drops every series and deletes their segment files. The empty store is of the current time model.
+	 */
+	public synchronized void clear() throws IOException {
+		index.clear();
+		mapped.clear();
+		timeModel = TradingDays.TIME_MODEL;
+		writeIndex();
+		deleteUnreferenced();
+	}
+
+	/**
+	 * Drops the mappings. The store can still be used afterwards, blocks are mapped again on the next read.
+	 */
+	@Override
+	public synchronized void close() {
+		mapped.clear();
+	}
+
+	// walks a series' blocks oldest first, each one limited to before the earliest start of any newer block
+	private void scan(List<Segment> segments, long from, long to, PointVisitor visitor) throws IOException {
+		long[] cutoffs = new long[segments.size()];
+		long cutoff = Long.MAX_VALUE;
+		for (int i = segments.size() - 1; i >= 0; i--) {
+			cutoffs[i] = cutoff;
+			cutoff = Math.min(cutoff, segments.get(i).first());
+		}
+
+		for (int i = 0; i < segments.size(); i++) {
+			Segment segment = segments.get(i);
+			long end = Math.min(to, cutoffs[i]);
+			if (segment.last() < from || segment.first() >= end) {
+				continue;
+			}
+
+			ByteBuffer buffer = map(segment);
+			int values = 8 * segment.count();
+			int hi = lowerBound(buffer, segment.count(), end);
+			for (int j = lowerBound(buffer, segment.count(), from); j < hi; j++) {
+				visitor.accept(buffer.getLong(8 * j), buffer.getDouble(values + 8 * j));
+			}
+		}
+	}
+
+	// first index with a timestamp at or after ts, by binary search straight over the mapped column
+	private static int lowerBound(ByteBuffer buffer, int count, long ts) {
+		int lo = 0, hi = count;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (buffer.getLong(8 * mid) < ts) {
+				lo = mid + 1;
+			} else {
+				hi = mid;
+			}
+		}
+		return lo;
+	}
+
+	// rewrites each series into a single block, all of them into one new segment file; the files no block refers to
+	// any more are deleted once the index is committed
+	private void compact(List<SeriesKey> keys) throws IOException {
+		if (keys.isEmpty()) {
+			return;
+		}
+
+		// series are streamed from their old blocks straight into the new file, nothing is collected on the heap
+		Map<SeriesKey, List<Segment>> old = new HashMap<>();
+		List<Block> blocks = new ArrayList<>();
+		for (SeriesKey key : keys) {
+			List<Segment> segments = index.get(key);
+			old.put(key, segments);
+			blocks.add(visitor -> scan(segments, Long.MIN_VALUE, Long.MAX_VALUE, visitor));
+		}
+
+		try {
+			List<Segment> compacted = writeSegments(blocks);
+			for (int i = 0; i < keys.size(); i++) {
+				index.put(keys.get(i), new ArrayList<>(List.of(compacted.get(i))));
+			}
+			writeIndex();
+		} catch (IOException e) {
+			readIndex();
+			throw e;
+		}
+
+		Set<Long> live = liveFiles();
+		Set<Long> dead = new HashSet<>();
+		for (List<Segment> segments : old.values()) {
+			for (Segment segment : segments) {
+				mapped.remove(segment);
+				if (!live.contains(segment.file())) {
+					dead.add(segment.file());
+				}
+			}
+		}
+		for (long file : dead) {
+			deleteQuietly(segmentPath(file));
+		}
+	}
+
+	// writes every block into one new segment file and forces it once; returns each block's segment, in order.
+	// Each block is visited twice, for its timestamps and then for its values, and must not be empty
+	private List<Segment> writeSegments(List<Block> blocks) throws IOException {
+		long file = nextSegmentId++;
+		List<Segment> segments = new ArrayList<>(blocks.size());
+		ByteBuffer[] out = {ByteBuffer.allocateDirect(1 << 16).order(ByteOrder.LITTLE_ENDIAN)};
+
+		try (FileChannel channel = FileChannel.open(segmentPath(file),
+						StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			out[0].put(SEGMENT_MAGIC);
+			out[0].putInt(blocks.size());
+			out[0].putInt(0);
+
+			long offset = SEGMENT_HEADER;
+			for (Block block : blocks) {
+				int[] count = {0};
+				long[] range = {0, 0};
+				block.forEach((ts, value) -> {
+					out[0] = flushIfFull(channel, out[0], 8);
+					out[0].putLong(ts);
+					range[0] = count[0]++ == 0 ? ts : range[0];
+					range[1] = ts;
+				});
+				block.forEach((ts, value) -> {
+					out[0] = flushIfFull(channel, out[0], 8);
+					out[0].putDouble(value);
+				});
+
+				segments.add(new Segment(file, offset, count[0], range[0], range[1]));
+				offset += 16L * count[0];
+			}
+			flush(channel, out[0]);
+			channel.force(true);
+		}
+
+		return segments;
+	}
+
+	private MappedByteBuffer map(Segment segment) throws IOException {
+		MappedByteBuffer buffer = mapped.get(segment);
+		if (buffer == null) {
+			try (FileChannel channel = FileChannel.open(segmentPath(segment.file()), StandardOpenOption.READ)) {
+				buffer = channel.map(FileChannel.MapMode.READ_ONLY, segment.offset(), 16L * segment.count());
+			}
+			buffer.order(ByteOrder.LITTLE_ENDIAN);
+			mapped.put(segment, buffer);
+		}
+		return buffer;
+	}
+
+	private void readIndex() throws IOException {
+		index.clear();
+		mapped.clear();
+		nextSegmentId = 0;
+		timeModel = TradingDays.TIME_MODEL;
+
+		Path path = dir.resolve(INDEX_FILE);
+		if (!Files.exists(path)) {
+			return;
+		}
+
+		ByteBuffer in = ByteBuffer.wrap(Files.readAllBytes(path)).order(ByteOrder.LITTLE_ENDIAN);
+		byte[] magic = new byte[INDEX_MAGIC.length];
+		in.get(magic);
+		boolean v1 = Arrays.equals(magic, INDEX_MAGIC_V1);
+		boolean v2 = Arrays.equals(magic, INDEX_MAGIC_V2);
+		if (!v1 && !v2 && !Arrays.equals(magic, INDEX_MAGIC)) {
+			throw new IOException("Not a norn time-series index: " + path);
+		}
+
+		nextSegmentId = in.getLong();
+		timeModel = v1 || v2 ? 1 : in.getInt();
+		int seriesCount = in.getInt();
+		for (int i = 0; i < seriesCount; i++) {
+			SeriesKey key = new SeriesKey(getString(in), getString(in));
+			int segmentCount = in.getInt();
+			List<Segment> segments = new ArrayList<>(segmentCount);
+			for (int j = 0; j < segmentCount; j++) {
+				long file = in.getLong();
+				long offset = v1 ? SEGMENT_HEADER : in.getLong();
+				segments.add(new Segment(file, offset, in.getInt(), in.getLong(), in.getLong()));
+			}
+			index.put(key, segments);
+		}
+	}
+
+	// the commit point: written beside the live index and moved over it in one step
+	private void writeIndex() throws IOException {
+		Path path = dir.resolve(INDEX_FILE);
+		Path tmp = dir.resolve(INDEX_FILE + ".tmp");
+
+		ByteBuffer out = ByteBuffer.allocate(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+		try (FileChannel channel = FileChannel.open(tmp,
+						StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			out.put(INDEX_MAGIC);
+			out.putLong(nextSegmentId);
+			out.putInt(timeModel);
+			out.putInt(index.size());
+			for (Map.Entry<SeriesKey, List<Segment>> e : index.entrySet()) {
+				out = putString(channel, out, e.getKey().ticker());
+				out = putString(channel, out, e.getKey().feature());
+				out = flushIfFull(channel, out, 4);
+				out.putInt(e.getValue().size());
+				for (Segment segment : e.getValue()) {
+					out = flushIfFull(channel, out, 36);
+					out.putLong(segment.file());
+					out.putLong(segment.offset());
+					out.putInt(segment.count());
+					out.putLong(segment.first());
+					out.putLong(segment.last());
+				}
+			}
+			flush(channel, out);
+			channel.force(true);
+		}
+
+		Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	private Set<Long> liveFiles() {
+		Set<Long> live = new HashSet<>();
+		for (List<Segment> segments : index.values()) {
+			for (Segment segment : segments) {
+				live.add(segment.file());
+			}
+		}
+		return live;
+	}
+
+	// segment files the index does not refer to were written by an append or compaction that never committed, or
+	// are left over from one whose old files could not be deleted yet
+	private void deleteUnreferenced() throws IOException {
+		Set<String> live = new HashSet<>();
+		for (long file : liveFiles()) {
+			live.add(segmentPath(file).getFileName().toString());
+		}
+
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "{seg-*.ts,*.tmp}")) {
+			for (Path file : files) {
+				if (!live.contains(file.getFileName().toString())) {
+					deleteQuietly(file);
+				}
+			}
+		}
+	}
+
+	private Path segmentPath(long id) {
+		return dir.resolve("seg-" + id + ".ts");
+	}
+
+	// a file that cannot be deleted yet (still mapped on some platforms) is picked up by the next open
+	private static void deleteQuietly(Path file) {
+		try {
+			Files.deleteIfExists(file);
+		} catch (IOException e) {
+			System.err.println("Could not delete " + file + ": " + e.getMessage());
+		}
+	}
+
+	private static String getString(ByteBuffer in) {
+		int length = in.getInt();
+		if (length < 0) {
+			return null;
+		}
+		byte[] bytes = new byte[length];
+		in.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private static ByteBuffer putString(FileChannel channel, ByteBuffer out, String s) throws IOException {
+		if (s == null) {
+			out = flushIfFull(channel, out, 4);
+			out.putInt(-1);
+			return out;
+		}
+		byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+		out = flushIfFull(channel, out, 4 + bytes.length);
+		out.putInt(bytes.length);
+		out.put(bytes);
+		return out;
+	}
+
+	// makes room for the next write, flushing to the channel (or growing the buffer for an oversized record)
+	private static ByteBuffer flushIfFull(FileChannel channel, ByteBuffer out, int bytes) throws IOException {
+		if (out.remaining() >= bytes) {
+			return out;
+		}
+
+		flush(channel, out);
+		if (out.capacity() < bytes) {
+			return ByteBuffer.allocate(bytes).order(ByteOrder.LITTLE_ENDIAN);
+		}
+		return out;
+	}
+
+	private static void flush(FileChannel channel, ByteBuffer out) throws IOException {
+		out.flip();
+		while (out.hasRemaining()) {
+			channel.write(out);
+		}
+		out.clear();
+	}
+}
@@ -0,0 +1,168 @@
+package lazic.utils.ingest;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * Columnar store for ingested observations. Tickers and feature names are interned once, and every
+ * (ticker, feature) pair gets its own {@link TimeSeries} of primitive timestamps and values, so a point costs
+ * 16 bytes instead of a DataPoint with its LocalDateTime, strings and boxed Double.
+ *
+ * Doubles as a {@link DataPointSink}, so sources can decode straight into it.
+ * Not thread-safe: give each producer its own store and merge them with {@link #appendAll(TimeSeriesStore)}.
+ */
+public class TimeSeriesStore implements DataPointSink {
+
+	@FunctionalInterface
+	public interface PointConsumer {
+		void accept(long epochMillis, String ticker, String feature, double value);
+	}
+
+	private static final Comparator<TimeSeries> SERIES_ORDER = Comparator
+					.comparing(TimeSeries::getTicker, Comparator.nullsFirst(Comparator.<String>naturalOrder()))
+					.thenComparing(TimeSeries::getFeature, Comparator.nullsFirst(Comparator.<String>naturalOrder()));
+
+	private final SymbolTable tickers = new SymbolTable();
+	private final SymbolTable features = new SymbolTable();
+	private final Map<Long, TimeSeries> series = new HashMap<>();
+	private long size;
+
+	/**
+	 * Appends one observation to the (ticker, feature) series, creating the series if needed.
+	 */
+	public void append(String ticker, String feature, long epochMillis, double value) {
+		seriesFor(ticker, feature).append(epochMillis, value);
+		size++;
+	}
+
+	/**
+	 * Sink entry point: appends the observation unless its value is NaN.
+	 */
+	@Override
+	public void accept(String ticker, String feature, long epochMillis, double value) {
+		if (!Double.isNaN(value)) {
+			append(ticker, feature, epochMillis, value);
+		}
+	}
+
+	@Override
+	public void acceptAll(TimeSeriesStore points) {
+		appendAll(points);
+	}
+
+	/**
+	 * Appends every point of another store to this one.
+	 */
+	public void appendAll(TimeSeriesStore other) {
+		for (TimeSeries s : other.series.values()) {
+			seriesFor(s.getTicker(), s.getFeature()).appendAll(s);
+			size += s.size();
+		}
+	}
+
+	/**
+	 * Removes exact repeats (same ticker, feature, timestamp and value) from every series, keeping the first.
+	 * This is the dedup a Set<DataPoint> used to give, as one pass over sorted columns instead of a hash per point.
+	 */
+	public void dropDuplicates() {
+		for (TimeSeries s : series.values()) {
+			size -= s.dropDuplicates();
+		}
+	}
+
+	/**
+	 * Merges a fresh fetch into this store. For every series in the fresh store, the points this store holds from
+	 * the fresh series' first timestamp on are replaced by the fresh points, older points are kept.
+	 */
+	public void mergeNewer(TimeSeriesStore fresh) {
+		for (TimeSeries s : fresh.series()) {
+			if (s.size() == 0) {
+				continue;
+			}
+
+			TimeSeries existing = seriesFor(s.getTicker(), s.getFeature());
+			existing.sort();
+
+			int keep = existing.lowerBound(s.timestampAt(0));
+			size -= existing.size() - keep;
+			existing.truncate(keep);
+
+			existing.appendAll(s);
+			size += s.size();
+		}
+	}
+
+	/**
+	 * Removes every series whose feature does not pass the filter.
+	 */
+	public void retainFeatures(Predicate<String> keep) {
+		series.values().removeIf(s -> {
+			if (keep.test(s.getFeature())) {
+				return false;
+			}
+			size -= s.size();
+			return true;
+		});
+	}
+
+	/**
+	 * Returns the series for (ticker, feature), or null if nothing was stored for it.
+	 */
+	public TimeSeries get(String ticker, String feature) {
+		int tickerId = tickers.idOf(ticker);
+		int featureId = features.idOf(feature);
+		if (tickerId < 0 || featureId < 0) {
+			return null;
+		}
+
+		TimeSeries s = series.get(key(tickerId, featureId));
+		if (s != null) {
+			s.sort();
+		}
+		return s;
+	}
+
+	/**
+	 * All series ordered by ticker (macro data first) then feature, each sorted by timestamp.
+	 */
+	public List<TimeSeries> series() {
+		List<TimeSeries> ordered = new ArrayList<>(series.values());
+		ordered.sort(SERIES_ORDER);
+		ordered.forEach(TimeSeries::sort);
+		return ordered;
+	}
+
+	/**
+	 * Visits every point, in {@link #series()} order and by timestamp within a series.
+	 */
+	public void forEach(PointConsumer consumer) {
+		for (TimeSeries s : series()) {
+			for (int i = 0; i < s.size(); i++) {
+				consumer.accept(s.timestampAt(i), s.getTicker(), s.getFeature(), s.valueAt(i));
+			}
+		}
+	}
+
+	public long size() { return size; }
+
+	public boolean isEmpty() { return size == 0; }
+
+	public void clear() {
+		series.clear();
+		size = 0;
+	}
+
+	private TimeSeries seriesFor(String ticker, String feature) {
+		int tickerId = tickers.intern(ticker);
+		int featureId = features.intern(feature);
+		return series.computeIfAbsent(key(tickerId, featureId), k -> new TimeSeries(ticker, feature));
+	}
+
+	private static long key(int tickerId, int featureId) {
+		return ((long) tickerId << 32) | (featureId & 0xFFFFFFFFL);
+	}
+}
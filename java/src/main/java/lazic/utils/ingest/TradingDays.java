@@ -0,0 +1,115 @@
+package lazic.utils.ingest;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.zone.ZoneOffsetTransition;
+import java.time.zone.ZoneRules;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Trading dates of bar timestamps. A daily bar is stored like every other daily observation: as the UTC midnight of
+ * its calendar date, in epoch millis, where the date is taken in the exchange's own zone (Pacific/Auckland for the
+ * NZX). The result is the same on every host, whatever its default zone.
+ *
+ * Each zone's UTC offsets are looked up in a table of its transitions, built once per zone, so converting a bar
+ * allocates nothing.
+ */
+public final class TradingDays {
+	public static final ZoneId NZX = ZoneId.of("Pacific/Auckland");
+	public static final long DAY_MILLIS = 24L * 60 * 60 * 1000;
+
+	/**
+	 * Version of the timestamp convention, saved with the ingest state and the time-series database so data stamped
+	 * under an older one is fetched again instead of merged. 1: bars at their instant in the host's default zone and
+	 * periods as naive local starts; 2: the UTC midnight of the trading date or period start, as described above.
+	 */
+	public static final int TIME_MODEL = 2;
+
+	// transitions tabled from 1900 to 2100, outside that the closest known offset holds
+	private static final long TABLE_FROM = -2208988800L; // 1900-01-01T00:00:00Z
+	private static final long TABLE_TO = 4102444800L; // 2100-01-01T00:00:00Z
+
+	private static final Map<String, Zone> ZONES = new ConcurrentHashMap<>();
+
+	private TradingDays() { }
+
+	/**
+	 * The zone with the given id (e.g. the exchangeTimezoneName of a Yahoo chart), the NZX zone if it is null or unknown.
+	 */
+	public static Zone zone(String id) {
+		if (id == null) {
+			return zone(NZX.getId());
+		}
+		return ZONES.computeIfAbsent(id, TradingDays::build);
+	}
+
+	private static Zone build(String id) {
+		ZoneId zone;
+		try {
+			zone = ZoneId.of(id);
+		} catch (RuntimeException e) { // DateTimeException for an unknown or malformed id
+			System.err.println("Unknown time zone " + id + ", using " + NZX.getId());
+			zone = NZX;
+		}
+
+		ZoneRules rules = zone.getRules();
+		long[] transitions = new long[16];
+		int[] offsets = new int[16];
+		int n = 0;
+
+		ZoneOffsetTransition next = rules.nextTransition(Instant.ofEpochSecond(TABLE_FROM));
+		while (next != null && next.toEpochSecond() < TABLE_TO) {
+			if (n == transitions.length) {
+				transitions = Arrays.copyOf(transitions, n * 2);
+				offsets = Arrays.copyOf(offsets, n * 2);
+			}
+			transitions[n] = next.toEpochSecond();
+			offsets[n++] = next.getOffsetAfter().getTotalSeconds();
+			next = rules.nextTransition(next.getInstant());
+		}
+
+		ZoneOffset initial = rules.getOffset(Instant.ofEpochSecond(TABLE_FROM));
+		return new Zone(zone, initial.getTotalSeconds(), Arrays.copyOf(transitions, n), Arrays.copyOf(offsets, n));
+	}
+
+	/**
+	 * A zone's offsets: initialOffset until the first transition, then offsets[i] from transitions[i] on.
+	 */
+	public static final class Zone {
+		private final ZoneId id;
+		private final int initialOffset;
+		private final long[] transitions;
+		private final int[] offsets;
+
+		private Zone(ZoneId id, int initialOffset, long[] transitions, int[] offsets) {
+			this.id = id;
+			this.initialOffset = initialOffset;
+			this.transitions = transitions;
+			this.offsets = offsets;
+		}
+
+		public ZoneId id() {
+			return id;
+		}
+
+		/**
+		 * UTC offset in seconds at the epoch second.
+		 */
+		public int offsetSeconds(long epochSecond) {
+			int i = Arrays.binarySearch(transitions, epochSecond);
+			i = i >= 0 ? i : -i - 2; // the last transition at or before the instant
+			return i < 0 ? initialOffset : offsets[i];
+		}
+
+		/**
+		 * The UTC-midnight epoch millis of the local date the epoch second falls on.
+		 */
+		public long dayMillis(long epochSecond) {
+			long local = epochSecond + offsetSeconds(epochSecond);
+			return Math.floorDiv(local, 24 * 60 * 60) * DAY_MILLIS;
+		}
+	}
+}
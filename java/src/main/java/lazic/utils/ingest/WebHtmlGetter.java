@@ -1,43 +1,501 @@
 package lazic.utils.ingest;
 
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.net.URI;
+import java.net.URISyntaxException;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Helper class used for creating web requests and getting their results in string form.
+ * All requests go through one shared client, so connections (and HTTP/2 sessions where the host supports them)
+ * are reused across calls, and the number of requests in flight against any single host is capped.
+ * Requests to a host are also paced by its {@link HostThrottle}, and failed requests, 429s and 5xx replies are retried
+ * with jittered exponential backoff.
+ * Optionally, replies are kept in an on-disk {@link HttpCache}.
  *
  * @author Owan Lazic
  */
 public class WebHtmlGetter
 {
+	/**
+	 * Maximum number of requests allowed in flight against a single host at once.
+	 * Can be overridden with -Dnorn.http.maxPerHost=N
+	 */
+	public static final int MAX_REQUESTS_PER_HOST = Integer.getInteger("norn.http.maxPerHost", 8);
+
+	/**
+	 * How often a failed request is retried, and the backoff before the first retry. The backoff doubles with every
+	 * further retry up to MAX_BACKOFF, and a random part of it is actually waited (full jitter) so that requests
+	 * failing together do not all come back together.
+	 * Can be overridden with -Dnorn.http.retries=N and -Dnorn.http.backoffMillis=N
+	 */
+	public static final int MAX_RETRIES = Integer.getInteger("norn.http.retries", 4);
+	public static final Duration BASE_BACKOFF = Duration.ofMillis(Long.getLong("norn.http.backoffMillis", 500));
+	public static final Duration MAX_BACKOFF = Duration.ofSeconds(30);
+
+	private static final HttpClient CLIENT = HttpClient.newBuilder()
+					.version(HttpClient.Version.HTTP_2) // falls back to HTTP/1.1 when the host does not negotiate h2
+					.followRedirects(HttpClient.Redirect.NORMAL)
+					.connectTimeout(Duration.ofSeconds(30))
+					.build();
+
+	private static final Map<String, HostPermits> PERMITS = new ConcurrentHashMap<>();
+	private static final Map<String, HostThrottle> THROTTLES = new ConcurrentHashMap<>();
+
+	// cache reads and writes block on the disk and the response body, so they run here rather than on the client's threads
+	private static final Executor CACHE_IO = Executors.newVirtualThreadPerTaskExecutor();
+
+	private static volatile HttpCache cache = null;
+	private static volatile boolean offline = Boolean.getBoolean("norn.http.offline");
+
+	/**
+	 * Caches response bodies under the given directory. Requests made with a TTL are answered from the cache while
+	 * the entry is younger than the TTL, and revalidated with ETag / Last-Modified once it is older.
+	 */
+	public static void enableCache(Path dir) throws IOException
+	{
+		cache = new HttpCache(dir);
+	}
+
+	/**
+	 * In offline mode every request is answered from the cache regardless of age, and fails if the url was never cached.
+	 * Also enabled by -Dnorn.http.offline=true
+	 */
+	public static void setOffline(boolean value)
+	{
+		offline = value;
+	}
+
 	/**
 	 * Makes a request to an url using plausible request headers, as to not be blocked.
 	 * Returns the Html content of the request reply.
 	 */
 	public static String get(String url)
 	{
+		return get(url, Duration.ZERO);
+	}
+
+	/**
+	 * Same as {@link #get(String)}, but a cached reply younger than the ttl is returned without contacting the host.
+	 */
+	public static String get(String url, Duration ttl)
+	{
+		return join(getAsync(url, ttl));
+	}
+
+	/**
+	 * Makes the same request as {@link #get(String)}, but returns the reply body as a stream so it can be parsed
+	 * as it arrives instead of being buffered into a String first. The caller must close the stream.
+	 */
+	public static InputStream getStream(String url)
+	{
+		return getStream(url, Duration.ZERO);
+	}
+
+	public static InputStream getStream(String url, Duration ttl)
+	{
+		return join(getStreamAsync(url, ttl));
+	}
+
+	/**
+	 * Async variant of {@link #get(String)}. The returned future completes with the Html content of the request reply,
+	 * once a per-host slot is free and the response has been received.
+	 */
+	public static CompletableFuture<String> getAsync(String url)
+	{
+		return getAsync(url, Duration.ZERO);
+	}
+
+	public static CompletableFuture<String> getAsync(String url, Duration ttl)
+	{
+		if (cache == null && !offline)
+		{
+			return sendAsync(url, Map.of(), HttpResponse.BodyHandlers.ofString())
+							.thenApply(HttpResponse::body);
+		}
+
+		return getStreamAsync(url, ttl).thenApply(in -> {
+			try (in)
+			{
+				return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+			} catch (IOException e)
+			{
+				throw new UncheckedIOException(e);
+			}
+		});
+	}
+
+	public static CompletableFuture<InputStream> getStreamAsync(String url)
+	{
+		return getStreamAsync(url, Duration.ZERO);
+	}
+
+	/**
+	 * Async variant of {@link #getStream(String, Duration)}. The host slot is held until the returned stream is closed,
+	 * so a body still being read counts against the per-host limit.
+	 * With the cache enabled, a fresh body is first streamed into the cache, on a virtual thread of its own, and then read
+	 * back from there.
+	 */
+	public static CompletableFuture<InputStream> getStreamAsync(String url, Duration ttl)
+	{
+		HttpCache cache = WebHtmlGetter.cache;
+		if (cache == null)
+		{
+			if (offline)
+			{
+				return CompletableFuture.failedFuture(new IOException("Offline with no cache configured: " + url));
+			}
+			return sendAsync(url, Map.of(), HttpResponse.BodyHandlers.ofInputStream())
+							.thenApply(HttpResponse::body);
+		}
+
+		HttpCache.Entry entry;
+		try
+		{
+			entry = cache.lookup(url);
+			if (entry != null && (offline || entry.isFresh(ttl)))
+			{
+				IngestMetrics.INSTANCE.cacheHit(URI.create(url).getHost());
+				return CompletableFuture.completedFuture(cache.open(entry));
+			}
+		} catch (IOException e)
+		{
+			return CompletableFuture.failedFuture(e);
+		}
+
+		if (offline)
+		{
+			return CompletableFuture.failedFuture(new IOException("Offline and not cached: " + url));
+		}
+
+		Map<String, String> validators = entry != null ? entry.validators() : Map.of();
+		return sendAsync(url, validators, HttpResponse.BodyHandlers.ofInputStream())
+						.thenApplyAsync(response -> {
+							try
+							{
+								if (response.statusCode() == 304 && entry != null)
+								{
+									response.body().close();
+									return cache.open(cache.touch(entry));
+								}
+								if (response.statusCode() == 200)
+								{
+									return cache.open(cache.store(url, response.headers(), response.body()));
+								}
+								return response.body(); // errors are passed through, never cached
+							} catch (IOException e)
+							{
+								throw new UncheckedIOException(e);
+							}
+						}, CACHE_IO);
+	}
+
+	/**
+	 * Sends a GET request through the shared client, paced by the host's throttle and retried while it fails.
+	 * A reply that is still an error after the last retry is passed through like any other.
+	 */
+	static <T> CompletableFuture<HttpResponse<T>> sendAsync(String url, Map<String, String> headers, HttpResponse.BodyHandler<T> bodyHandler)
+	{
+		HttpRequest request;
+		try
+		{
+			request = buildRequest(url, headers);
+		} catch (URISyntaxException | IllegalArgumentException e)
+		{
+			return CompletableFuture.failedFuture(e);
+		}
+
+		String host = String.valueOf(request.uri().getHost());
+		return attempt(request, host, bodyHandler, 0);
+	}
+
+	private static <T> CompletableFuture<HttpResponse<T>> attempt(HttpRequest request, String host, HttpResponse.BodyHandler<T> bodyHandler, int attempt)
+	{
+		HostThrottle throttle = THROTTLES.computeIfAbsent(host, HostThrottle::new);
+
+		// the body of a reply that is going to be retried is discarded rather than handed to the caller's handler
+		boolean last = attempt >= MAX_RETRIES;
+		HttpResponse.BodyHandler<T> handler = last ? bodyHandler : info -> isRetryable(info.statusCode())
+						? HttpResponse.BodySubscribers.replacing(null)
+						: bodyHandler.apply(info);
+
+		boolean[] probe = {false};
+		return throttle.acquire()
+						.thenCompose(isProbe -> {
+							probe[0] = isProbe;
+							return send(request, host, handler);
+						})
+						.handle((response, error) -> {
+							try
+							{
+								return settle(request, host, bodyHandler, attempt, throttle, response, error);
+							} finally
+							{
+								// whatever happened to the probe, it must not hold the breaker shut
+								if (probe[0])
+								{
+									throttle.probeEnded();
+								}
+							}
+						})
+						.thenCompose(next -> next);
+	}
+
+	// reports the outcome of one attempt to the throttle, and returns the reply or the next attempt
+	private static <T> CompletableFuture<HttpResponse<T>> settle(HttpRequest request, String host, HttpResponse.BodyHandler<T> bodyHandler, int attempt, HostThrottle throttle, HttpResponse<T> response, Throwable error)
+	{
+		boolean last = attempt >= MAX_RETRIES;
+		long now = System.nanoTime();
+		Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+
+		if (cause != null)
+		{
+			boolean transientFailure = cause instanceof IOException && !(cause instanceof HostThrottle.CircuitOpenException);
+			if (transientFailure && throttle.failed(now))
+			{
+				IngestMetrics.INSTANCE.circuitOpened(host);
+			}
+			if (!transientFailure || last || cause instanceof CancellationException)
+			{
+				return CompletableFuture.failedFuture(cause);
+			}
+		}
+		else if (isRetryable(response.statusCode()))
+		{
+			int status = response.statusCode();
+			if (status == 429 || status == 503)
+			{
+				throttle.throttled(now, retryAfterNanos(response)); // rate limited, the host itself is fine
+			}
+			else if (throttle.failed(now))
+			{
+				IngestMetrics.INSTANCE.circuitOpened(host);
+			}
+			if (last)
+			{
+				return CompletableFuture.completedFuture(response);
+			}
+		}
+		else
+		{
+			throttle.succeeded();
+			IngestMetrics.INSTANCE.throttleRate(host, throttle.rate());
+			return CompletableFuture.completedFuture(response);
+		}
+
+		IngestMetrics.INSTANCE.retried(host);
+		IngestMetrics.INSTANCE.throttleRate(host, throttle.rate());
+		long backoff = ThreadLocalRandom.current().nextLong(backoffNanos(attempt) + 1);
+		return CompletableFuture.runAsync(() -> { }, CompletableFuture.delayedExecutor(backoff, TimeUnit.NANOSECONDS))
+						.thenCompose(ignored -> attempt(request, host, bodyHandler, attempt + 1));
+	}
+
+	/**
+	 * One request through the shared client, holding one of the host's request slots until the response completes.
+	 * A streamed body keeps holding the slot until the caller closes the stream, since the connection is busy until then.
+	 */
+	private static <T> CompletableFuture<HttpResponse<T>> send(HttpRequest request, String host, HttpResponse.BodyHandler<T> bodyHandler)
+	{
+		HostPermits permits = PERMITS.computeIfAbsent(host, h -> new HostPermits(MAX_REQUESTS_PER_HOST));
+
+		// latency is measured from the moment a slot is held, so waiting on the per-host limit is not counted
+		return permits.acquire()
+						.thenCompose(ignored -> {
+							AtomicBoolean held = new AtomicBoolean(true);
+							Runnable release = () -> {
+								if (held.getAndSet(false))
+								{
+									permits.release();
+								}
+							};
+							HttpResponse.BodyHandler<T> holding = info -> HttpResponse.BodySubscribers.mapping(
+											bodyHandler.apply(info), body -> holdUntilClosed(body, release));
+
+							long start = System.nanoTime();
+							return CLIENT.sendAsync(request, IngestMetrics.INSTANCE.countingBody(host, holding))
+											.whenComplete((response, error) -> {
+												IngestMetrics.INSTANCE.request(host,
+																System.nanoTime() - start, response != null ? response.statusCode() : -1, error);
+												if (error != null || !(response.body() instanceof PermitStream))
+												{
+													release.run();
+												}
+											});
+						});
+	}
+
+	// a streamed body releases the slot once it is closed, any other body once it is complete
+	@SuppressWarnings("unchecked")
+	private static <T> T holdUntilClosed(T body, Runnable release)
+	{
+		return body instanceof InputStream in ? (T) new PermitStream(in, release) : body;
+	}
+
+	// rate limited, or a server error that may well be gone on the next try
+	static boolean isRetryable(int status)
+	{
+		return status == 429 || status == 500 || status == 502 || status == 503 || status == 504;
+	}
+
+	static long backoffNanos(int attempt)
+	{
+		long max = MAX_BACKOFF.toNanos();
+		return attempt >= 30 ? max : Math.min(max, BASE_BACKOFF.toNanos() << attempt);
+	}
+
+	/**
+	 * The Retry-After header, either delay-seconds or an HTTP date, in nanoseconds from now. 0 if absent or unreadable.
+	 */
+	static long retryAfterNanos(HttpResponse<?> response)
+	{
+		String value = response.headers().firstValue("Retry-After").orElse(null);
+		if (value == null)
+		{
+			return 0;
+		}
+
 		try
 		{
-			HttpClient client = HttpClient.newHttpClient();
+			return TimeUnit.SECONDS.toNanos(Math.max(0, Long.parseLong(value.trim())));
+		} catch (NumberFormatException e)
+		{
+			try
+			{
+				ZonedDateTime at = ZonedDateTime.parse(value.trim(), DateTimeFormatter.RFC_1123_DATE_TIME);
+				return Math.max(0, Duration.between(ZonedDateTime.now(at.getZone()), at).toNanos());
+			} catch (DateTimeParseException | ArithmeticException ignored)
+			{
+				return 0;
+			}
+		}
+	}
+
+	// create GET request with spoofed headers
+	private static HttpRequest buildRequest(String url, Map<String, String> headers) throws URISyntaxException
+	{
+		HttpRequest.Builder builder = HttpRequest.newBuilder()
+						.uri(new URI(url))
+						.header("User-Agent", "Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/114.0.0.0 Safari/537.36")
+						.header("Accept", "application/json, text/plain, */*")
+						.header("Accept-Language", "en-US,en;q=0.9")
+						.GET();
 
-			// create GET request with spoofed headers
-			HttpRequest request = HttpRequest.newBuilder()
-							.uri(new URI(url))
-							.header("User-Agent", "Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/114.0.0.0 Safari/537.36")
-							.header("Accept", "application/json, text/plain, */*")
-							.header("Accept-Language", "en-US,en;q=0.9")
-							.GET()
-							.build();
+		headers.forEach(builder::header);
+		return builder.build();
+	}
 
-			HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
-			return response.body();
+	private static <T> T join(CompletableFuture<T> future)
+	{
+		try
+		{
+			return future.get();
 
-		} catch (Exception e)
+		} catch (ExecutionException e)
 		{
-			System.err.println("Error while fetching HTML: " + e.getMessage());
+			Throwable cause = e.getCause() != null ? e.getCause() : e;
+			System.err.println("Error while fetching HTML: " + cause.getMessage());
+			throw new RuntimeException(cause);
+
+		} catch (InterruptedException e)
+		{
+			// the calling source was cancelled (timed out), stop waiting instead of holding its thread
+			future.cancel(true);
+			Thread.currentThread().interrupt();
 			throw new RuntimeException(e);
 		}
 	}
-}
\ No newline at end of file
+
+	/**
+	 * A response body stream that gives its host slot back when it is closed.
+	 */
+	private static final class PermitStream extends FilterInputStream
+	{
+		private final Runnable release;
+
+		PermitStream(InputStream in, Runnable release)
+		{
+			super(in);
+			this.release = release;
+		}
+
+		@Override
+		public void close() throws IOException
+		{
+			try
+			{
+				super.close();
+			} finally
+			{
+				release.run();
+			}
+		}
+	}
+
+	/**
+	 * Non-blocking counting semaphore. Callers past the limit get a future that completes once a slot is released,
+	 * so waiting for a slot never parks a thread.
+	 */
+	private static final class HostPermits
+	{
+		private final Queue<CompletableFuture<Void>> waiters = new ArrayDeque<>();
+		private int available;
+
+		HostPermits(int permits)
+		{
+			this.available = Math.max(1, permits);
+		}
+
+		synchronized CompletableFuture<Void> acquire()
+		{
+			if (available > 0)
+			{
+				available--;
+				return CompletableFuture.completedFuture(null);
+			}
+
+			CompletableFuture<Void> waiter = new CompletableFuture<>();
+			waiters.add(waiter);
+			return waiter;
+		}
+
+		void release()
+		{
+			CompletableFuture<Void> next;
+			synchronized (this)
+			{
+				next = waiters.poll();
+				if (next == null)
+				{
+					available++;
+					return;
+				}
+			}
+			// hand the slot straight to the next waiter, outside the lock
+			next.complete(null);
+		}
+	}
+}
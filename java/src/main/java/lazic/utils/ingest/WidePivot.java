@@ -0,0 +1,279 @@
+package lazic.utils.ingest;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Long-to-wide pivot of the ingested data, the same table python-ml/src/preprocessing/long_to_wide_csv.py builds with
+ * pandas, computed straight from the sorted series and read back by load_wide in src/utils/columnar_utils.py:
+ *
+ * - one row per (ticker, timestamp) at which the ticker has any feature, repeated timestamps averaged; NaN values
+ *   are skipped like pivot_table skips them, a series of nothing but NaN has no column at all
+ * - ticker features forward-filled per ticker, 0 before a feature's first observation, with a _present flag each
+ * - macro features (ticker == null) forward-filled over the macro timestamps, then as-of joined onto every row
+ *   (latest macro row at or before the row's timestamp), NaN before the first macro row, with their _present flags
+ *
+ * Every ticker is one pass over each of its series plus a pointer into the macro rows, and is written as its own
+ * block, so only a few tickers' rows are held in memory at a time. All numbers are little-endian:
+ *
+ * magic            8 bytes "NORNWID1"
+ * ticker features  int32 count, then per feature: int32 byte length + UTF-8 bytes, sorted
+ * macro features   the same
+ * labelled         int8, 1 if every block ends with a label column (the tickers have a Close feature)
+ * block count      int32, then per ticker:
+ *   ticker         int32 byte length + UTF-8 bytes
+ *   row count      int32
+ *                  row count int64 timestamps, ascending
+ *                  per ticker feature, row count float64 values
+ *                  per ticker feature, row count int8 present flags
+ *                  per macro feature, row count float64 values
+ *                  per macro feature, row count int8 present flags (-1 where there is no macro row yet)
+ *                  if labelled, row count int8 labels from {@link FutureLabeler} (-1 where there is no future price)
+ */
+public class WidePivot {
+	static final byte[] MAGIC = "NORNWID1".getBytes(StandardCharsets.US_ASCII);
+	static final String CLOSE = "Close"; // the price column that is labelled, CLOSE_COL on the Python side
+
+	/**
+	 * Saves the wide table of all ingested points to the format described above.
+	 */
+	public static boolean saveWide(String path) {
+		return saveWide(path, IngestManager.INSTANCE.data);
+	}
+
+	public static boolean saveWide(String path, TimeSeriesStore data) {
+		if (data.isEmpty()) {
+			return false;
+		}
+
+		long began = System.nanoTime();
+
+		// 1. group the series: macro by feature, tickers by name then feature, all sorted like pandas' column labels
+		Map<String, TimeSeries> macroSeries = new TreeMap<>();
+		Map<String, Map<String, TimeSeries>> tickerSeries = new TreeMap<>();
+		for (TimeSeries s : data.series()) {
+			if (!hasValue(s)) {
+				continue;
+			}
+			if (s.getTicker() == null) {
+				macroSeries.put(s.getFeature(), s);
+			} else {
+				tickerSeries.computeIfAbsent(s.getTicker(), t -> new TreeMap<>()).put(s.getFeature(), s);
+			}
+		}
+
+		List<String> features = tickerSeries.values().stream()
+						.flatMap(m -> m.keySet().stream()).distinct().sorted().toList();
+		List<String> macroFeatures = List.copyOf(macroSeries.keySet());
+
+		// 2. the macro rows are small, build them once
+		Rows macro = pivot(macroFeatures.stream().map(macroSeries::get).toArray(TimeSeries[]::new));
+
+		// 3. the Close column, if the tickers have one, is labelled as well
+		int closeColumn = features.indexOf(CLOSE);
+		List<String> tickers = List.copyOf(tickerSeries.keySet());
+
+		ByteBuffer out = ByteBuffer.allocate(1 << 20).order(ByteOrder.LITTLE_ENDIAN);
+		try (FileChannel channel = FileChannel.open(Path.of(path),
+						StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+
+			out.put(MAGIC);
+			out = putStrings(channel, out, features);
+			out = putStrings(channel, out, macroFeatures);
+			out = ColumnarLongParser.ensure(channel, out, 5);
+			out.put(closeColumn >= 0 ? (byte) 1 : 0);
+			out.putInt(tickers.size());
+
+			// 4. tickers are pivoted and labelled on the common fork-join pool, one wave per core at a time to bound
+			// memory, and each wave is written in ticker order
+			int wave = Math.max(1, Runtime.getRuntime().availableProcessors());
+			long rowCount = 0;
+			for (int start = 0; start < tickers.size(); start += wave) {
+				List<Block> blocks = tickers.subList(start, Math.min(tickers.size(), start + wave)).parallelStream()
+								.map(ticker -> {
+									Map<String, TimeSeries> own = tickerSeries.get(ticker);
+									Rows rows = pivot(features.stream().map(own::get).toArray(TimeSeries[]::new));
+									byte[] labels = closeColumn >= 0
+													? FutureLabeler.label(rows.timestamps, rows.values[closeColumn], rows.count)
+													: null;
+									return new Block(ticker, rows, labels);
+								})
+								.toList();
+
+				for (Block block : blocks) {
+					out = writeBlock(channel, out, block, macro);
+					rowCount += block.rows().count;
+				}
+			}
+
+			ColumnarLongParser.flush(channel, out);
+			IngestMetrics.INSTANCE.exported("wide", rowCount, channel.size(), System.nanoTime() - began);
+			return true;
+
+		} catch (IOException e) {
+			e.printStackTrace();
+			return false;
+		}
+	}
+
+	private static ByteBuffer writeBlock(FileChannel channel, ByteBuffer out, Block block, Rows macro)
+					throws IOException {
+		Rows rows = block.rows();
+		out = putString(channel, out, block.ticker());
+		out = ColumnarLongParser.ensure(channel, out, 4);
+		out.putInt(rows.count);
+
+		for (int r = 0; r < rows.count; r++) {
+			out = ColumnarLongParser.ensure(channel, out, 8);
+			out.putLong(rows.timestamps[r]);
+		}
+		out = putColumns(channel, out, rows.values, rows.count);
+		out = putFlags(channel, out, rows.present, rows.count);
+
+		// as-of join: both sides are sorted, so the macro pointer only ever moves forward
+		int[] macroRow = new int[rows.count];
+		int m = -1;
+		for (int r = 0; r < rows.count; r++) {
+			while (m + 1 < macro.count && macro.timestamps[m + 1] <= rows.timestamps[r]) {
+				m++;
+			}
+			macroRow[r] = m;
+		}
+		for (double[] column : macro.values) {
+			for (int r = 0; r < rows.count; r++) {
+				out = ColumnarLongParser.ensure(channel, out, 8);
+				out.putDouble(macroRow[r] < 0 ? Double.NaN : column[macroRow[r]]);
+			}
+		}
+		for (byte[] column : macro.present) {
+			for (int r = 0; r < rows.count; r++) {
+				out = ColumnarLongParser.ensure(channel, out, 1);
+				out.put(macroRow[r] < 0 ? -1 : column[macroRow[r]]);
+			}
+		}
+
+		if (block.labels() != null) {
+			out = ColumnarLongParser.ensure(channel, out, rows.count);
+			out.put(block.labels(), 0, rows.count);
+		}
+		return out;
+	}
+
+	private record Block(String ticker, Rows rows, byte[] labels) { }
+
+	// a block of wide rows: timestamps, then one column of values and of flags per feature
+	private record Rows(int count, long[] timestamps, double[][] values, byte[][] present) { }
+
+	private static boolean hasValue(TimeSeries s) {
+		for (int i = 0; i < s.size(); i++) {
+			if (!Double.isNaN(s.valueAt(i))) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Pivots sorted series (null for a feature that is absent) into one row per distinct timestamp with a value:
+	 * repeated timestamps are averaged and NaN values skipped, gaps forward-filled, and anything before the first
+	 * observation is 0.
+	 */
+	static Rows pivot(TimeSeries[] columns) {
+		// 1. the row timestamps, the distinct union over all the series
+		int capacity = 0;
+		for (TimeSeries s : columns) {
+			capacity += s != null ? s.size() : 0;
+		}
+		long[] all = new long[capacity];
+		int n = 0;
+		for (TimeSeries s : columns) {
+			for (int i = 0; s != null && i < s.size(); i++) {
+				if (!Double.isNaN(s.valueAt(i))) {
+					all[n++] = s.timestampAt(i);
+				}
+			}
+		}
+		Arrays.sort(all, 0, n);
+		int rows = 0;
+		for (int i = 0; i < n; i++) {
+			if (rows == 0 || all[rows - 1] != all[i]) {
+				all[rows++] = all[i];
+			}
+		}
+		long[] timestamps = Arrays.copyOf(all, rows);
+
+		// 2. each column in one pass along the rows
+		double[][] values = new double[columns.length][rows];
+		byte[][] present = new byte[columns.length][rows];
+		for (int c = 0; c < columns.length; c++) {
+			TimeSeries s = columns[c];
+			double last = 0; // 0 until the first observation, as fillna(0) gives
+			int next = 0;
+			for (int r = 0; r < rows; r++) {
+				double sum = 0;
+				int count = 0;
+				// a timestamp with nothing but NaN is no row, its points are passed over on the way to the next one
+				while (s != null && next < s.size() && s.timestampAt(next) <= timestamps[r]) {
+					double value = s.valueAt(next++);
+					if (!Double.isNaN(value)) {
+						sum += value;
+						count++;
+					}
+				}
+				if (count > 0) {
+					last = sum / count;
+					present[c][r] = 1;
+				}
+				values[c][r] = last;
+			}
+		}
+
+		return new Rows(rows, timestamps, values, present);
+	}
+
+	private static ByteBuffer putColumns(FileChannel channel, ByteBuffer out, double[][] columns, int rows)
+					throws IOException {
+		for (double[] column : columns) {
+			for (int r = 0; r < rows; r++) {
+				out = ColumnarLongParser.ensure(channel, out, 8);
+				out.putDouble(column[r]);
+			}
+		}
+		return out;
+	}
+
+	private static ByteBuffer putFlags(FileChannel channel, ByteBuffer out, byte[][] columns, int rows)
+					throws IOException {
+		for (byte[] column : columns) {
+			out = ColumnarLongParser.ensure(channel, out, rows);
+			out.put(column, 0, rows);
+		}
+		return out;
+	}
+
+	private static ByteBuffer putStrings(FileChannel channel, ByteBuffer out, List<String> strings) throws IOException {
+		out = ColumnarLongParser.ensure(channel, out, 4);
+		out.putInt(strings.size());
+		for (String s : strings) {
+			out = putString(channel, out, s);
+		}
+		return out;
+	}
+
+	private static ByteBuffer putString(FileChannel channel, ByteBuffer out, String s) throws IOException {
+		byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+		out = ColumnarLongParser.ensure(channel, out, 4 + bytes.length);
+		out.putInt(bytes.length);
+		out.put(bytes);
+		return out;
+	}
+}
@@ -0,0 +1,212 @@
+package lazic.sources;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import lazic.sources.config.Tickers;
+import lazic.utils.ingest.IngestManager;
+import lazic.utils.ingest.TimeSeries;
+import lazic.utils.ingest.TimeSeriesStore;
+import lazic.utils.ingest.TradingDays;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Runs an incremental YfPrices ingest against a stub of the Yahoo endpoints. Spark replies carry a close of 1 for
+ * every field, chart replies 2, so every stored bar shows which path it came from.
+ */
+class YfPricesTest {
+	private static final long SPARK_VALUE = 1;
+	private static final long CHART_VALUE = 2;
+	private static final String[] FEATURES = {"Close", "Open", "High", "Low", "Volume"};
+
+	private static HttpServer server;
+	private static String baseUrl;
+	private static final List<String> sparkUrls = new CopyOnWriteArrayList<>();
+	private static final Set<String> chartSymbols = ConcurrentHashMap.newKeySet();
+
+	// picked from the batches once they are known: left out of its reply, in a failing batch, in a close-only batch,
+	// and one of the failing batch's tickers whose chart request fails as well
+	private static volatile String omitted;
+	private static volatile String failing;
+	private static volatile String closeOnly;
+	private static volatile String broken;
+
+	private static final long BAR_SECONDS = System.currentTimeMillis() / 1000 - 24 * 60 * 60;
+
+	@BeforeAll
+	static void startStub() throws IOException {
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/v7/finance/spark", YfPricesTest::spark);
+		server.createContext("/v8/finance/chart/", YfPricesTest::chart);
+		server.setExecutor(Executors.newCachedThreadPool());
+		server.start();
+		baseUrl = "http://127.0.0.1:" + server.getAddress().getPort();
+
+		// read once, when the classes initialize
+		System.setProperty("norn.yahoo.baseUrl", baseUrl);
+		System.setProperty("norn.http.retries", "0");
+		System.setProperty("norn.http.ratePerHost", "1000");
+	}
+
+	@AfterAll
+	static void stopStub() {
+		server.stop(0);
+	}
+
+	@Test
+	void batchesTheLatestBarsAndFallsBackPerTicker(@TempDir Path dir) throws Exception {
+		// every ticker saved up to yesterday, so all of them go through spark
+		Properties marks = new Properties();
+		for (String ticker : Tickers.TICKERS) {
+			marks.setProperty("YfPrices|" + ticker + "|Close", Long.toString(BAR_SECONDS * 1000));
+		}
+		marks.setProperty("timeModel", Integer.toString(TradingDays.TIME_MODEL));
+		Path state = dir.resolve("ingest_state.properties");
+		try (Writer out = Files.newBufferedWriter(state, StandardCharsets.UTF_8)) {
+			marks.store(out, null);
+		}
+		IngestManager.INSTANCE.loadPrevious(dir.resolve("data_long.csv"), state);
+
+		String sparkBase = baseUrl + "/v7/finance/spark?interval=1d&range=5d&symbols=";
+		List<List<String>> batches = YfPrices.BATCH_POLICY.split(List.of(Tickers.TICKERS), sparkBase.length());
+		assertTrue(batches.size() >= 3);
+		omitted = decode(batches.get(0).get(2));
+		failing = decode(batches.get(1).get(0));
+		closeOnly = decode(batches.get(2).get(0));
+		broken = decode(batches.get(1).get(1));
+
+		TimeSeriesStore store = new TimeSeriesStore();
+		new YfPrices().ingest(store);
+
+		// one spark request per batch, each within the policy's limits
+		assertEquals(batches.size(), sparkUrls.size());
+		for (String url : sparkUrls) {
+			String symbols = url.substring(url.indexOf("symbols=") + "symbols=".length());
+			assertTrue(symbols.split(",").length <= YfPrices.BATCH_POLICY.maxSymbols(), url);
+			assertTrue(url.length() <= YfPrices.BATCH_POLICY.maxUrlLength(), url);
+		}
+
+		// a chart request for exactly the omitted ticker and the tickers of the failed and the close-only batch
+		Set<String> fallbacks = new HashSet<>();
+		fallbacks.add(omitted);
+		batches.get(1).forEach(t -> fallbacks.add(decode(t)));
+		batches.get(2).forEach(t -> fallbacks.add(decode(t)));
+		assertEquals(fallbacks, chartSymbols);
+
+		// every ticker got a full bar for yesterday, from the path it went through, except the one that failed, which
+		// takes nothing else down with it
+		long day = TradingDays.zone(null).dayMillis(BAR_SECONDS);
+		for (String ticker : Tickers.TICKERS) {
+			if (decode(ticker).equals(broken)) {
+				for (String feature : FEATURES) {
+					assertNull(store.get(ticker, feature), ticker + " " + feature);
+				}
+				continue;
+			}
+			double expected = fallbacks.contains(decode(ticker)) ? CHART_VALUE : SPARK_VALUE;
+			for (String feature : FEATURES) {
+				TimeSeries s = store.get(ticker, feature);
+				assertNotNull(s, ticker + " " + feature);
+				assertEquals(1, s.size(), ticker + " " + feature);
+				assertEquals(day, s.timestampAt(0));
+				assertEquals(expected, s.valueAt(0), ticker + " " + feature);
+			}
+		}
+	}
+
+	@Test
+	void decodesEverySymbolOfASparkReply() throws IOException {
+		String reply = sparkReply(List.of("AIR.NZ", "^GSP"), null, false);
+		Map<String, YfPrices.Chart> charts = YfPrices.parseSpark(new StringReader(reply));
+
+		assertEquals(Set.of("AIR.NZ", "^GSP"), charts.keySet());
+		YfPrices.Chart chart = charts.get("^GSP");
+		assertEquals("Pacific/Auckland", chart.timezone);
+		assertTrue(Arrays.equals(new long[] {BAR_SECONDS}, chart.timestamps));
+		assertTrue(chart.hasFullBars());
+		assertEquals(SPARK_VALUE, chart.volume[0]);
+	}
+
+	private static void spark(HttpExchange exchange) throws IOException {
+		String url = baseUrl + exchange.getRequestURI().getRawPath() + "?" + exchange.getRequestURI().getRawQuery();
+		sparkUrls.add(url);
+
+		String query = exchange.getRequestURI().getQuery();
+		List<String> symbols = List.of(query.substring(query.indexOf("symbols=") + "symbols=".length()).split(","));
+		if (symbols.contains(failing)) {
+			reply(exchange, 500, "{\"spark\":{\"result\":null,\"error\":{\"code\":\"Internal\"}}}");
+		} else {
+			reply(exchange, 200, sparkReply(symbols, omitted, symbols.contains(closeOnly)));
+		}
+	}
+
+	private static void chart(HttpExchange exchange) throws IOException {
+		String path = exchange.getRequestURI().getPath();
+		String symbol = path.substring(path.lastIndexOf('/') + 1);
+		chartSymbols.add(symbol);
+		if (symbol.equals(broken)) {
+			reply(exchange, 500, "{\"chart\":{\"result\":null,\"error\":{\"code\":\"Internal\"}}}");
+			return;
+		}
+		reply(exchange, 200, "{\"chart\":{\"result\":[" + result(CHART_VALUE, true) + "],\"error\":null}}");
+	}
+
+	private static String sparkReply(List<String> symbols, String leftOut, boolean closeOnly) {
+		List<String> results = new ArrayList<>();
+		for (String symbol : symbols) {
+			if (!symbol.equals(leftOut)) {
+				results.add("{\"symbol\":\"" + symbol + "\",\"response\":[" + result(SPARK_VALUE, !closeOnly) + "]}");
+			}
+		}
+		return "{\"spark\":{\"result\":[" + String.join(",", results) + "],\"error\":null}}";
+	}
+
+	private static String result(long value, boolean fullBars) {
+		String quote = fullBars
+						? "\"open\":[" + value + "],\"high\":[" + value + "],\"low\":[" + value + "],\"close\":[" + value
+										+ "],\"volume\":[" + value + "]"
+						: "\"close\":[" + value + "]";
+		return "{\"meta\":{\"exchangeTimezoneName\":\"Pacific/Auckland\"},\"timestamp\":[" + BAR_SECONDS
+						+ "],\"indicators\":{\"quote\":[{" + quote + "}]}}";
+	}
+
+	private static void reply(HttpExchange exchange, int status, String body) throws IOException {
+		byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().add("Content-Type", "application/json");
+		exchange.sendResponseHeaders(status, bytes.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(bytes);
+		}
+	}
+
+	private static String decode(String ticker) {
+		return URLDecoder.decode(ticker, StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,38 @@
+package lazic.utils.ingest;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ColumnarLongParserTest {
+
+	@Test
+	void loadColumnarReadsBackWhatSaveColumnarWrote(@TempDir Path dir) throws IOException {
+		TimeSeriesStore data = new TimeSeriesStore();
+		for (int i = 0; i < ColumnarLongParser.BLOCK_POINTS + 10; i++) { // spans two blocks
+			data.append("AIR.NZ", "Close", i * TradingDays.DAY_MILLIS, 1.5 + i);
+		}
+		data.append(null, "gdp", -TradingDays.DAY_MILLIS, 42);
+		data.append("FPH.NZ", "Volume", 0, Double.MAX_VALUE);
+
+		String path = dir.resolve("data_long.ncol").toString();
+		assertTrue(ColumnarLongParser.saveColumnar(path, data));
+		TimeSeriesStore loaded = new TimeSeriesStore();
+		ColumnarLongParser.loadColumnar(path, loaded);
+
+		assertEquals(points(data), points(loaded));
+	}
+
+	private static List<String> points(TimeSeriesStore store) {
+		List<String> points = new ArrayList<>();
+		store.forEach((ts, ticker, feature, value) -> points.add(ts + "," + ticker + "," + feature + "," + value));
+		return points;
+	}
+}
@@ -0,0 +1,233 @@
+package lazic.utils.ingest;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * Every indicator against a naive recomputation over its whole window (or, for the Wilder and exponential averages,
+ * their closed form) at every row.
+ */
+class FeatureEngineTest {
+	private static final String TICKER = "AIR.NZ";
+	private static final int ROWS = 70;
+	private static final double TOLERANCE = 1e-9;
+
+	@Test
+	void indicatorsMatchANaiveRecomputation() {
+		Random random = new Random(11);
+		long[] ts = new long[ROWS];
+		double[] close = new double[ROWS];
+		double[] high = new double[ROWS];
+		double[] low = new double[ROWS];
+		double[] volume = new double[ROWS];
+		for (int i = 0; i < ROWS; i++) {
+			ts[i] = (i + 1) * TradingDays.DAY_MILLIS;
+			close[i] = 100 + 10 * random.nextGaussian();
+			high[i] = close[i] + random.nextDouble() * 3;
+			low[i] = close[i] - random.nextDouble() * 3;
+			// a flat stretch of 25 rows, whose windows have a standard deviation of 0
+			volume[i] = i >= 30 && i < 55 ? 5000 : 1000 + random.nextInt(9000);
+		}
+
+		TimeSeriesStore data = new TimeSeriesStore();
+		for (int i = 0; i < ROWS; i++) {
+			data.append(TICKER, "Close", ts[i], close[i]);
+			data.append(TICKER, "Volume", ts[i], volume[i]);
+			if (i != 40) { // a row without High or Low is left out of the ATR
+				data.append(TICKER, "High", ts[i], high[i]);
+				data.append(TICKER, "Low", ts[i], low[i]);
+			}
+		}
+		// reported between closes, and one at the timestamp of a close
+		long[] epsTs = {ts[10] - 1000, ts[30], ts[50] + 1000};
+		double[] eps = {2.0, 2.5, 0.0};
+		for (int i = 0; i < epsTs.length; i++) {
+			data.append(TICKER, "annualDilutedEPS", epsTs[i], eps[i]);
+		}
+
+		TimeSeriesStore derived = FeatureEngine.compute(data);
+
+		for (int window : FeatureEngine.RETURN_WINDOWS) {
+			TreeMap<Long, Double> expected = new TreeMap<>();
+			for (int i = window; i < ROWS; i++) {
+				expected.put(ts[i], close[i] / close[i - window] - 1);
+			}
+			assertSeries(expected, derived.get(TICKER, "Return " + window));
+		}
+
+		TreeMap<Long, Double> sma = new TreeMap<>();
+		TreeMap<Long, Double> std = new TreeMap<>();
+		for (int i = FeatureEngine.MA_WINDOW - 1; i < ROWS; i++) {
+			sma.put(ts[i], mean(close, i - FeatureEngine.MA_WINDOW + 1, i + 1));
+			std.put(ts[i], std(close, i - FeatureEngine.MA_WINDOW + 1, i + 1));
+		}
+		assertSeries(sma, derived.get(TICKER, "SMA 20"));
+		assertSeries(std, derived.get(TICKER, "Std 20"));
+
+		for (int span : new int[] {FeatureEngine.EMA_FAST, FeatureEngine.EMA_SLOW}) {
+			assertSeries(ema(ts, close, span), derived.get(TICKER, "EMA " + span));
+		}
+
+		assertSeries(rsi(ts, close), derived.get(TICKER, "RSI 14"));
+		assertSeries(atr(ts, close, high, low), derived.get(TICKER, "ATR 14"));
+
+		TreeMap<Long, Double> volumeZ = new TreeMap<>();
+		for (int i = FeatureEngine.VOLUME_WINDOW - 1; i < ROWS; i++) {
+			int from = i - FeatureEngine.VOLUME_WINDOW + 1;
+			double s = std(volume, from, i + 1);
+			if (s > 0) {
+				volumeZ.put(ts[i], (volume[i] - mean(volume, from, i + 1)) / s);
+			}
+		}
+		assertEquals(ROWS - FeatureEngine.VOLUME_WINDOW + 1 - 6, volumeZ.size(), "the six flat windows are skipped");
+		assertSeries(volumeZ, derived.get(TICKER, "Volume Z 20"));
+
+		TreeMap<Long, Double> pe = new TreeMap<>();
+		for (int i = 0; i < ROWS; i++) {
+			int latest = -1;
+			for (int j = 0; j < epsTs.length; j++) {
+				if (epsTs[j] <= ts[i]) {
+					latest = j;
+				}
+			}
+			if (latest >= 0 && eps[latest] != 0) {
+				pe.put(ts[i], close[i] / eps[latest]);
+			}
+		}
+		assertEquals(20 + 21, pe.size(), "none before the first report, none for an EPS of 0");
+		assertSeries(pe, derived.get(TICKER, "PE annual"));
+	}
+
+	@Test
+	void aShortSeriesOnlyGetsTheIndicatorsItHasRowsFor() {
+		TimeSeriesStore data = new TimeSeriesStore();
+		long[] ts = new long[10];
+		double[] close = new double[10];
+		for (int i = 0; i < ts.length; i++) {
+			ts[i] = (i + 1) * TradingDays.DAY_MILLIS;
+			close[i] = 10 + i % 3;
+			data.append(TICKER, "Close", ts[i], close[i]);
+		}
+
+		TimeSeriesStore derived = FeatureEngine.compute(data);
+
+		assertEquals(9, derived.get(TICKER, "Return 1").size());
+		assertEquals(5, derived.get(TICKER, "Return 5").size());
+		assertNull(derived.get(TICKER, "Return 20"));
+		assertNull(derived.get(TICKER, "SMA 20"));
+		assertNull(derived.get(TICKER, "RSI 14"));
+		assertSeries(ema(ts, close, FeatureEngine.EMA_SLOW), derived.get(TICKER, "EMA 26"));
+	}
+
+	@Test
+	void aFlatWindowHasAStandardDeviationOfZero() {
+		FeatureEngine.RollingStats stats = new FeatureEngine.RollingStats(4);
+		double[] values = {3.1, 7.7, 0.3, 5.5, 2.2, 2.2, 2.2, 2.2};
+		for (int i = 0; i < values.length; i++) {
+			stats.slide(values[i], i >= 4 ? values[i - 4] : Double.NaN);
+			if (i >= 3) {
+				assertEquals(mean(values, i - 3, i + 1), stats.mean(), TOLERANCE);
+				assertEquals(std(values, i - 3, i + 1), stats.std(), TOLERANCE);
+			}
+		}
+		assertEquals(0.0, stats.std());
+	}
+
+	private static TreeMap<Long, Double> ema(long[] ts, double[] values, int span) {
+		// seeded with the first value: ema_i = (1 - a)^i * v_0 + sum over k = 1..i of a * (1 - a)^(i - k) * v_k
+		double alpha = 2.0 / (span + 1);
+		TreeMap<Long, Double> expected = new TreeMap<>();
+		for (int i = 0; i < ts.length; i++) {
+			double ema = Math.pow(1 - alpha, i) * values[0];
+			for (int k = 1; k <= i; k++) {
+				ema += alpha * Math.pow(1 - alpha, i - k) * values[k];
+			}
+			expected.put(ts[i], ema);
+		}
+		return expected;
+	}
+
+	private static TreeMap<Long, Double> rsi(long[] ts, double[] close) {
+		int n = FeatureEngine.RSI_WINDOW;
+		double[] up = new double[ts.length];
+		double[] down = new double[ts.length];
+		for (int i = 1; i < ts.length; i++) {
+			up[i] = Math.max(close[i] - close[i - 1], 0);
+			down[i] = Math.max(close[i - 1] - close[i], 0);
+		}
+
+		TreeMap<Long, Double> expected = new TreeMap<>();
+		for (int i = n; i < ts.length; i++) {
+			double gain = wilder(up, 1, i, n);
+			double loss = wilder(down, 1, i, n);
+			expected.put(ts[i], loss == 0 ? 100 : 100 - 100 / (1 + gain / loss));
+		}
+		return expected;
+	}
+
+	private static TreeMap<Long, Double> atr(long[] ts, double[] close, double[] high, double[] low) {
+		// the true ranges of the rows that have a High and a Low, in order
+		int n = FeatureEngine.ATR_WINDOW;
+		double[] trueRange = new double[ts.length];
+		long[] rowTs = new long[ts.length];
+		int rows = 0;
+		for (int i = 1; i < ts.length; i++) {
+			if (i != 40) {
+				trueRange[rows] = Math.max(high[i] - low[i],
+								Math.max(Math.abs(high[i] - close[i - 1]), Math.abs(low[i] - close[i - 1])));
+				rowTs[rows++] = ts[i];
+			}
+		}
+
+		TreeMap<Long, Double> expected = new TreeMap<>();
+		for (int r = n - 1; r < rows; r++) {
+			expected.put(rowTs[r], wilder(trueRange, 0, r, n));
+		}
+		return expected;
+	}
+
+	// the plain mean of values[first, first + n), then smoothed by (1 - 1/n) per row up to values[last], in closed form
+	private static double wilder(double[] values, int first, int last, int n) {
+		double decay = 1 - 1.0 / n;
+		double average = Math.pow(decay, last - (first + n - 1)) * mean(values, first, first + n);
+		for (int k = first + n; k <= last; k++) {
+			average += Math.pow(decay, last - k) * values[k] / n;
+		}
+		return average;
+	}
+
+	private static double mean(double[] values, int from, int to) {
+		double sum = 0;
+		for (int i = from; i < to; i++) {
+			sum += values[i];
+		}
+		return sum / (to - from);
+	}
+
+	private static double std(double[] values, int from, int to) {
+		double mean = mean(values, from, to);
+		double squares = 0;
+		for (int i = from; i < to; i++) {
+			squares += (values[i] - mean) * (values[i] - mean);
+		}
+		return Math.sqrt(squares / (to - from - 1));
+	}
+
+	private static void assertSeries(TreeMap<Long, Double> expected, TimeSeries actual) {
+		assertNotNull(actual);
+		assertEquals(expected.size(), actual.size(), actual.getFeature());
+		int i = 0;
+		for (var e : expected.entrySet()) {
+			assertEquals(e.getKey(), actual.timestampAt(i), actual.getFeature());
+			assertEquals(e.getValue(), actual.valueAt(i), TOLERANCE * Math.max(1, Math.abs(e.getValue())),
+							actual.getFeature() + " at row " + i);
+			i++;
+		}
+	}
+}
@@ -0,0 +1,69 @@
+package lazic.utils.ingest;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+class FutureLabelerTest {
+	private static final long LOOKAHEAD = 10;
+	private static final double THRESHOLD = 0.02;
+
+	@Test
+	void looksAtTheFirstRowAtOrAfterTheLookahead() {
+		long[] ts = {0, 5, 10, 12, 20, 25};
+		double[] close = {100, 200, 103, 300, 90, 50};
+
+		// row 0 rises to ts 10, exactly the lookahead later; row 1 is compared with ts 20, the first at or after 15,
+		// not with the rise at ts 12 before it; row 3 with ts 25; rows 4 and 5 have nothing 10 or more later
+		byte[] labels = FutureLabeler.label(ts, close, ts.length, LOOKAHEAD, THRESHOLD);
+
+		assertArrayEquals(new byte[] {1, 0, 0, 0, FutureLabeler.NO_FUTURE, FutureLabeler.NO_FUTURE}, labels);
+		assertArrayEquals(searchsorted(ts, close, ts.length), labels);
+	}
+
+	@Test
+	void theThresholdBoundaryFollowsThePandasExpression() {
+		long[] ts = {0, 10, 20, 30, 40};
+		double[] close = {100, 102.01, 104.0502, 105, 90};
+
+		// +2.01% is a rise, while +2% exactly is not: the 1e-10 added to the close in the denominator puts it just
+		// below the threshold, as in create_future_labels
+		byte[] labels = FutureLabeler.label(ts, close, ts.length, LOOKAHEAD, THRESHOLD);
+
+		assertArrayEquals(new byte[] {1, 0, 0, 0, FutureLabeler.NO_FUTURE}, labels);
+		assertArrayEquals(searchsorted(ts, close, ts.length), labels);
+	}
+
+	@Test
+	void agreesWithASearchPerRowOnARandomSeries() {
+		Random random = new Random(3);
+		long[] ts = new long[500];
+		double[] close = new double[ts.length];
+		for (int i = 1; i < ts.length; i++) {
+			ts[i] = ts[i - 1] + random.nextInt(4); // repeated timestamps and gaps
+			close[i] = 100 + random.nextGaussian() * 5;
+		}
+
+		assertArrayEquals(searchsorted(ts, close, 400), FutureLabeler.label(ts, close, 400, LOOKAHEAD, THRESHOLD),
+						"only the first rows are labelled, the rest are not looked at");
+		assertArrayEquals(searchsorted(ts, close, ts.length),
+						FutureLabeler.label(ts, close, ts.length, LOOKAHEAD, THRESHOLD));
+	}
+
+	// create_future_labels row by row: searchsorted(side="left") for ts + lookahead, NO_FUTURE where pandas drops the row
+	private static byte[] searchsorted(long[] ts, double[] close, int rows) {
+		byte[] labels = new byte[rows];
+		for (int i = 0; i < rows; i++) {
+			int future = 0;
+			while (future < rows && ts[future] < ts[i] + LOOKAHEAD) {
+				future++;
+			}
+			labels[i] = future == rows
+							? FutureLabeler.NO_FUTURE
+							: (byte) ((close[future] - close[i]) / (close[i] + 0.0000000001) >= THRESHOLD ? 1 : 0);
+		}
+		return labels;
+	}
+}
@@ -0,0 +1,64 @@
+package lazic.utils.ingest;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HostThrottleTest {
+	private static final Duration COOLDOWN = Duration.ofMillis(300);
+
+	@Test
+	void rateLimitRepliesNeverOpenTheBreaker() {
+		HostThrottle throttle = new HostThrottle("stub", 50, 100, 4, 2, COOLDOWN);
+		for (int i = 0; i < 10; i++) {
+			throttle.throttled(System.nanoTime(), 0);
+		}
+		assertFalse(throttle.isOpen());
+		assertTrue(throttle.rate() < 50);
+	}
+
+	@Test
+	void queuedRequestsWaitOutTheCooldownAndTheProbe() throws Exception {
+		HostThrottle throttle = new HostThrottle("stub", 5, 5, 1, 2, COOLDOWN);
+		assertFalse(throttle.acquire().get());
+		CompletableFuture<Boolean> second = throttle.acquire(); // 200 ms until its token is due
+		CompletableFuture<Boolean> third = throttle.acquire();
+
+		throttle.failed(System.nanoTime());
+		assertTrue(throttle.failed(System.nanoTime()));
+
+		assertTrue(second.get(2, TimeUnit.SECONDS), "the first one queued after the cooldown is the probe");
+		Thread.sleep(400);
+		assertFalse(third.isDone(), "the rest wait for the probe");
+
+		throttle.succeeded();
+		assertFalse(third.get(2, TimeUnit.SECONDS));
+		assertFalse(throttle.isOpen());
+	}
+
+	@Test
+	void aProbeThatEndsWithoutAnOutcomeHandsOnTheProbe() throws Exception {
+		HostThrottle throttle = new HostThrottle("stub", 100, 100, 4, 1, COOLDOWN);
+		assertTrue(throttle.failed(System.nanoTime()));
+		assertThrows(ExecutionException.class, () -> throttle.acquire().get(), "nothing queued, a new request fails fast");
+		Thread.sleep(COOLDOWN.toMillis() + 50);
+
+		assertTrue(throttle.acquire().get(2, TimeUnit.SECONDS));
+		assertThrows(ExecutionException.class, () -> throttle.acquire().get(), "the probe is out");
+
+		throttle.probeEnded(); // e.g. the probe was cancelled
+		assertTrue(throttle.acquire().get(2, TimeUnit.SECONDS), "the next request is the probe");
+		assertTrue(throttle.isOpen());
+
+		throttle.succeeded();
+		assertEquals(false, throttle.acquire().get(2, TimeUnit.SECONDS));
+	}
+}
@@ -0,0 +1,134 @@
+package lazic.utils.ingest;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * WebHtmlGetter with the cache enabled, against a stub that serves every path with the ETag "v1" and answers a
+ * request carrying it with a 304.
+ */
+class HttpCacheTest {
+	private static final String ETAG = "\"v1\"";
+
+	private static HttpServer server;
+	private static String baseUrl;
+	// the path and If-None-Match header of every request the stub received
+	private static final List<String> requests = new CopyOnWriteArrayList<>();
+
+	@BeforeAll
+	static void startStub() throws IOException {
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/", HttpCacheTest::serve);
+		server.setExecutor(Executors.newCachedThreadPool());
+		server.start();
+		baseUrl = "http://127.0.0.1:" + server.getAddress().getPort();
+
+		// read once, when the classes initialize
+		System.setProperty("norn.http.retries", "0");
+		System.setProperty("norn.http.ratePerHost", "1000");
+	}
+
+	@AfterAll
+	static void stopStub() {
+		server.stop(0);
+	}
+
+	@AfterEach
+	void goOnline() {
+		WebHtmlGetter.setOffline(false);
+	}
+
+	@Test
+	void aFreshEntryIsServedWithoutARequest(@TempDir Path dir) throws Exception {
+		WebHtmlGetter.enableCache(dir);
+		String url = baseUrl + "/fresh";
+
+		assertEquals("body of /fresh", read(url, Duration.ofHours(1)));
+		assertEquals("body of /fresh", read(url, Duration.ofHours(1)));
+		assertEquals(List.of("/fresh null"), requests("/fresh"), "the second read is within the TTL");
+	}
+
+	@Test
+	void aStaleEntryIsRevalidatedWithItsETag(@TempDir Path dir) throws Exception {
+		WebHtmlGetter.enableCache(dir);
+		String url = baseUrl + "/stale";
+		HttpCache cache = new HttpCache(dir);
+
+		assertEquals("body of /stale", read(url, Duration.ZERO));
+		long fetchedAt = cache.lookup(url).fetchedAtMillis();
+		Thread.sleep(5);
+
+		// the 304 has no body, the cached one is served and counts as fetched now
+		assertEquals("body of /stale", read(url, Duration.ZERO));
+		assertEquals(List.of("/stale null", "/stale " + ETAG), requests("/stale"));
+		assertTrue(cache.lookup(url).fetchedAtMillis() > fetchedAt);
+	}
+
+	@Test
+	void offlineReplaysTheCacheAndFailsOnAnythingElse(@TempDir Path dir) throws Exception {
+		WebHtmlGetter.enableCache(dir);
+		String cached = baseUrl + "/cached";
+		assertEquals("body of /cached", read(cached, Duration.ZERO));
+
+		WebHtmlGetter.setOffline(true);
+		assertEquals("body of /cached", read(cached, Duration.ZERO), "replayed whatever its age");
+		ExecutionException e = assertThrows(ExecutionException.class,
+						() -> WebHtmlGetter.getStreamAsync(baseUrl + "/uncached", Duration.ZERO).get(5, TimeUnit.SECONDS));
+		assertInstanceOf(IOException.class, e.getCause());
+
+		assertEquals(List.of("/cached null"), requests("/cached"));
+		assertEquals(List.of(), requests("/uncached"), "nothing is sent while offline");
+	}
+
+	private static String read(String url, Duration ttl) throws Exception {
+		try (InputStream in = WebHtmlGetter.getStreamAsync(url, ttl).get(5, TimeUnit.SECONDS)) {
+			return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+		}
+	}
+
+	private static List<String> requests(String path) {
+		return requests.stream().filter(r -> r.startsWith(path + " ")).toList();
+	}
+
+	private static void serve(HttpExchange exchange) throws IOException {
+		String path = exchange.getRequestURI().getPath();
+		String validator = exchange.getRequestHeaders().getFirst("If-None-Match");
+		requests.add(path + " " + validator);
+
+		exchange.getResponseHeaders().add("ETag", ETAG);
+		if (ETAG.equals(validator)) {
+			exchange.sendResponseHeaders(304, -1);
+			exchange.close();
+			return;
+		}
+
+		byte[] bytes = ("body of " + path).getBytes(StandardCharsets.UTF_8);
+		exchange.sendResponseHeaders(200, bytes.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(bytes);
+		}
+	}
+}
@@ -0,0 +1,81 @@
+package lazic.utils.ingest;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+class IngestManagerTest {
+	private static final int SOURCES = 12;
+	private static final int TICKERS = 5;
+	private static final int DAYS = 200;
+	private static final int RUNS = 50;
+
+	/**
+	 * Writes DAYS points for each of its tickers, pausing at random so the sources finish in a different order on
+	 * every run.
+	 */
+	static final class StubSource extends DataSourceBase {
+		private final int id;
+
+		StubSource(int id) {
+			this.id = id;
+		}
+
+		@Override
+		public void ingest(DataPointSink sink) throws Exception {
+			for (int t = 0; t < TICKERS; t++) {
+				Thread.sleep(ThreadLocalRandom.current().nextInt(3));
+				for (int day = 0; day < DAYS; day++) {
+					sink.accept(ticker(id, t), "F", day * TradingDays.DAY_MILLIS, value(id, t, day));
+				}
+			}
+		}
+	}
+
+	@AfterEach
+	void tearDown() {
+		IngestManager.INSTANCE.sources.clear();
+		IngestManager.INSTANCE.data.clear();
+	}
+
+	@Test
+	void fetchDataFromSourcesKeepsEveryPointOfConcurrentSources() {
+		IngestManager manager = IngestManager.INSTANCE;
+		manager.sources.clear();
+		for (int i = 0; i < SOURCES; i++) {
+			manager.register(new StubSource(i));
+		}
+
+		for (int run = 0; run < RUNS; run++) {
+			manager.fetchDataFromSources();
+
+			assertEquals((long) SOURCES * TICKERS * DAYS, manager.data.size(), "points after run " + run);
+			List<TimeSeries> series = manager.data.series();
+			assertEquals(SOURCES * TICKERS, series.size(), "series after run " + run);
+			for (int i = 0; i < SOURCES; i++) {
+				for (int t = 0; t < TICKERS; t++) {
+					TimeSeries s = manager.data.get(ticker(i, t), "F");
+					assertNotNull(s, ticker(i, t) + " after run " + run);
+					assertEquals(DAYS, s.size());
+					for (int day = 0; day < DAYS; day++) {
+						assertEquals(day * TradingDays.DAY_MILLIS, s.timestampAt(day));
+						assertEquals(value(i, t, day), s.valueAt(day));
+					}
+				}
+			}
+		}
+	}
+
+	private static String ticker(int source, int t) {
+		return "S" + source + "T" + t + ".NZ";
+	}
+
+	private static double value(int source, int t, int day) {
+		return source * 1_000_000.0 + t * 1_000.0 + day;
+	}
+}
@@ -0,0 +1,136 @@
+package lazic.utils.ingest;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class IngestSchedulerTest {
+
+	/**
+	 * Its first attempt ignores the interrupt and keeps running well past its timeout, every later one succeeds.
+	 */
+	static final class StubbornSource extends DataSourceBase {
+		final AtomicInteger attempts = new AtomicInteger();
+		final AtomicInteger running = new AtomicInteger();
+		final AtomicInteger maxRunning = new AtomicInteger();
+
+		@Override
+		public SourcePolicy policy() {
+			return new SourcePolicy(0, Duration.ofMillis(200), 2, Duration.ofMillis(10), 1);
+		}
+
+		@Override
+		public void ingest(DataPointSink sink) {
+			maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+			try {
+				if (attempts.incrementAndGet() == 1) {
+					long until = System.nanoTime() + Duration.ofMillis(350).toNanos();
+					while (System.nanoTime() < until) {
+						Thread.onSpinWait(); // uninterruptible
+					}
+				}
+				sink.accept("AIR.NZ", "Close", 0, attempts.get());
+			} finally {
+				running.decrementAndGet();
+			}
+		}
+	}
+
+	/**
+	 * Fans out over many tickers and records how many of them ran at once.
+	 */
+	static final class FanOutSource extends DataSourceBase {
+		final AtomicInteger running = new AtomicInteger();
+		final AtomicInteger maxRunning = new AtomicInteger();
+
+		@Override
+		public SourcePolicy policy() {
+			return new SourcePolicy(0, Duration.ofSeconds(30), 1, Duration.ZERO, 3);
+		}
+
+		@Override
+		public void ingest(DataPointSink sink) throws InterruptedException, IOException {
+			String[] tickers = new String[40];
+			for (int i = 0; i < tickers.length; i++) {
+				tickers[i] = "T" + i;
+			}
+			TickerFanOut.fetchAll(tickers, policy().concurrency(), (ticker, tickerSink) -> {
+				maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+				Thread.sleep(5);
+				running.decrementAndGet();
+				tickerSink.accept(ticker, "Close", 0, 1);
+			}, sink);
+		}
+	}
+
+	/**
+	 * Every ticker of its first attempt fails, as if the host's breaker were open; the second attempt gets them all but
+	 * one.
+	 */
+	static final class BlackedOutSource extends DataSourceBase {
+		final AtomicInteger attempts = new AtomicInteger();
+
+		@Override
+		public SourcePolicy policy() {
+			return new SourcePolicy(0, Duration.ofSeconds(30), 2, Duration.ofMillis(10), 4);
+		}
+
+		@Override
+		public void ingest(DataPointSink sink) throws InterruptedException, IOException {
+			int attempt = attempts.incrementAndGet();
+			String[] tickers = {"AIR.NZ", "FPH.NZ", "MEL.NZ", "SPK.NZ"};
+			int failed = TickerFanOut.fetchAll(tickers, policy().concurrency(), (ticker, tickerSink) -> {
+				if (attempt == 1 || ticker.equals("MEL.NZ")) {
+					throw new IOException("circuit open");
+				}
+				tickerSink.accept(ticker, "Close", 0, attempt);
+			}, sink);
+			assertEquals(1, failed);
+		}
+	}
+
+	@Test
+	void retryWaitsForTheTimedOutAttemptToStop() {
+		StubbornSource source = new StubbornSource();
+		List<TimeSeriesStore> segments = new ArrayList<>();
+
+		IngestScheduler.run(List.of(source), (s, segment) -> segments.add(segment));
+
+		assertEquals(2, source.attempts.get());
+		assertEquals(1, source.maxRunning.get(), "attempts overlapped");
+		assertEquals(1, segments.size());
+		assertEquals(2.0, segments.get(0).get("AIR.NZ", "Close").valueAt(0));
+	}
+
+	@Test
+	void fanOutStaysWithinTheSourceBudget() {
+		FanOutSource source = new FanOutSource();
+		List<TimeSeriesStore> segments = new ArrayList<>();
+
+		IngestScheduler.run(List.of(source), (s, segment) -> segments.add(segment));
+
+		assertEquals(40, segments.get(0).size());
+		assertTrue(source.maxRunning.get() <= 3, "ran " + source.maxRunning.get() + " tickers at once");
+	}
+
+	@Test
+	void aFanOutWhereMostTickersFailIsRetried() {
+		BlackedOutSource source = new BlackedOutSource();
+		List<TimeSeriesStore> segments = new ArrayList<>();
+
+		IngestScheduler.run(List.of(source), (s, segment) -> segments.add(segment));
+
+		assertEquals(2, source.attempts.get());
+		assertEquals(1, segments.size());
+		assertEquals(3, segments.get(0).size());
+		assertNull(segments.get(0).get("MEL.NZ", "Close"));
+	}
+}
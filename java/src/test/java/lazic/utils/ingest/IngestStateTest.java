@@ -0,0 +1,84 @@
+package lazic.utils.ingest;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class IngestStateTest {
+	private static final long DAY = TradingDays.DAY_MILLIS;
+
+	@Test
+	void marksOfExcludedFeaturesAreIgnoredAndRevivedWithABackfill(@TempDir Path dir) throws IOException {
+		IngestState state = new IngestState();
+		state.record("YfFinances", series("AIR.NZ", "annualNetIncome", 1000 * DAY));
+		state.record("YfFinances", series("AIR.NZ", "annualEbitda", 900 * DAY));
+		state.record("YfFinances", series("FPH.NZ", "annualNetIncome", 1000 * DAY));
+		assertEquals(900 * DAY, state.highWaterMark("YfFinances", "AIR.NZ"));
+
+		// a manifest without annualEbitda: its mark no longer holds the ticker back, and survives a save
+		state.project("annualNetIncome"::equals);
+		assertEquals(1000 * DAY, state.highWaterMark("YfFinances", "AIR.NZ"));
+
+		Path path = dir.resolve("ingest_state.properties");
+		state.save(path);
+		IngestState loaded = new IngestState();
+		loaded.load(path);
+		loaded.project("annualNetIncome"::equals);
+		assertEquals(1000 * DAY, loaded.highWaterMark("YfFinances", "AIR.NZ"));
+
+		// annualEbitda included again: AIR.NZ, which stored it before, is fetched from scratch until it is recorded
+		loaded.project(feature -> true);
+		assertEquals(-1, loaded.highWaterMark("YfFinances", "AIR.NZ"));
+		assertEquals(1000 * DAY, loaded.highWaterMark("YfFinances", "FPH.NZ"));
+
+		loaded.save(path);
+		loaded.load(path);
+		loaded.project(feature -> true);
+		assertEquals(-1, loaded.highWaterMark("YfFinances", "AIR.NZ"), "still to be backfilled after a failed run");
+
+		loaded.record("YfFinances", series("AIR.NZ", "annualEbitda", 1100 * DAY));
+		assertEquals(1000 * DAY, loaded.highWaterMark("YfFinances", "AIR.NZ"));
+	}
+
+	@Test
+	void aDiscontinuedFeatureDoesNotPinItsTicker() {
+		IngestState state = new IngestState();
+		long latest = 5000 * DAY;
+		state.record("YfFinances", series("AIR.NZ", "quarterlyNetIncome", latest));
+		state.record("YfFinances", series("AIR.NZ", "annualNetIncome", latest - 300 * DAY));
+		state.record("YfFinances", series("AIR.NZ", "annualDiscontinued", latest - 3000 * DAY));
+
+		assertEquals(latest - 300 * DAY, state.highWaterMark("YfFinances", "AIR.NZ"));
+		assertEquals(-1, state.highWaterMark("YfFinances", "FPH.NZ"));
+	}
+
+	@Test
+	void marksOfAnOlderTimestampConventionAreIgnored(@TempDir Path dir) throws IOException {
+		Path path = dir.resolve("ingest_state.properties");
+		Files.writeString(path, "YfPrices|AIR.NZ|Close=1700000000000\n", StandardCharsets.UTF_8);
+
+		IngestState state = new IngestState();
+		state.load(path);
+		assertEquals(1, state.timeModel());
+		assertEquals(-1, state.highWaterMark("YfPrices", "AIR.NZ"));
+
+		state.record("YfPrices", series("AIR.NZ", "Close", 1000 * DAY));
+		state.save(path);
+		state.load(path);
+		assertEquals(TradingDays.TIME_MODEL, state.timeModel());
+		assertEquals(1000 * DAY, state.highWaterMark("YfPrices", "AIR.NZ"));
+	}
+
+	private static TimeSeriesStore series(String ticker, String feature, long last) {
+		TimeSeriesStore store = new TimeSeriesStore();
+		store.append(ticker, feature, last - DAY, 1);
+		store.append(ticker, feature, last, 2);
+		return store;
+	}
+}
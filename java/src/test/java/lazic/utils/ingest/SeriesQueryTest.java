@@ -0,0 +1,115 @@
+package lazic.utils.ingest;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Slices cut by binary search against a filter over every point, on the in-memory store and on the database.
+ */
+class SeriesQueryTest {
+	private static final String[] TICKERS = {null, "AIR.NZ", "FPH.NZ", "MEL.NZ"};
+	private static final String[] FEATURES = {"Close", "Volume", "GDP"};
+
+	@Test
+	void cutsFromInclusiveToExclusive() {
+		TimeSeriesStore data = new TimeSeriesStore();
+		for (long ts : new long[] {10, 20, 20, 20, 30, 40}) {
+			data.append("AIR.NZ", "Close", ts, ts / 10.0);
+		}
+
+		assertEquals(List.of("20", "20", "20", "30"), timestamps(SeriesQuery.all().between(20, 40).select(data)),
+						"every copy of a repeated timestamp at from, none at to");
+		assertEquals(List.of("10", "20", "20", "20"), timestamps(SeriesQuery.all().between(10, 30).select(data)));
+		assertEquals(List.of(), timestamps(SeriesQuery.all().between(20, 20).select(data)));
+		assertEquals(List.of(), timestamps(SeriesQuery.all().between(21, 29).select(data)));
+		assertEquals(List.of(), timestamps(SeriesQuery.all().between(41, 100).select(data)));
+		assertEquals(List.of("10", "20", "20", "20", "30", "40"), timestamps(SeriesQuery.all().select(data)));
+	}
+
+	@Test
+	void theStoreAndTheDatabaseAgreeWithAFilterOverEveryPoint(@TempDir Path dir) throws IOException {
+		Random random = new Random(5);
+		TimeSeriesStore data = new TimeSeriesStore();
+		try (TimeSeriesDb db = TimeSeriesDb.open(dir)) {
+			// three overlapping appends, so a series spans several segments cut at the start of the newer one
+			for (int append = 0; append < 3; append++) {
+				TimeSeriesStore delta = new TimeSeriesStore();
+				for (String ticker : TICKERS) {
+					for (String feature : FEATURES) {
+						for (long ts = append * 40; ts < append * 40 + 60; ts += 1 + random.nextInt(3)) {
+							delta.append(ticker, feature, ts, random.nextDouble());
+						}
+					}
+				}
+				db.append(delta);
+				data.mergeNewer(delta);
+			}
+
+			List<Slice> slices = List.of(
+							new Slice(SeriesQuery.all(), null, null),
+							new Slice(SeriesQuery.all().between(35, 85), null, null),
+							new Slice(SeriesQuery.all().between(40, 41), null, null),
+							new Slice(SeriesQuery.all().between(-10, 0), null, null),
+							new Slice(SeriesQuery.all().between(139, 1000), null, null),
+							new Slice(SeriesQuery.features("Close").between(20, 100), null, Arrays.asList("Close")),
+							new Slice(SeriesQuery.features("Close", "Volume").tickers("FPH.NZ", "MEL.NZ").between(50, 90),
+											Arrays.asList("FPH.NZ", "MEL.NZ"), Arrays.asList("Close", "Volume")),
+							new Slice(SeriesQuery.features("GDP").tickers((String) null), Arrays.asList((String) null),
+											Arrays.asList("GDP")),
+							new Slice(SeriesQuery.all().tickers("AIR.NZ", "NOPE.NZ").between(80, 81), Arrays.asList("AIR.NZ"), null),
+							new Slice(SeriesQuery.features("Dividend"), null, Arrays.asList("Dividend")));
+
+			for (Slice slice : slices) {
+				SeriesQuery query = slice.query();
+				List<String> expected = slice.filter(data);
+				String name = query.from() + ".." + query.to();
+				assertEquals(expected, points(query.select(data)), "store " + name);
+				assertEquals(expected, points(query.select(db)), "database " + name);
+
+				List<String> visited = new ArrayList<>();
+				query.forEach(db, (ts, ticker, feature, value) -> visited.add(point(ts, ticker, feature, value)));
+				assertEquals(expected, visited, "database " + name + " visited in store order");
+			}
+		}
+	}
+
+	// a query with the tickers and features it should keep (null for all), checked against every point of the store
+	private record Slice(SeriesQuery query, List<String> tickers, List<String> features) {
+
+		List<String> filter(TimeSeriesStore data) {
+			List<String> points = new ArrayList<>();
+			data.forEach((ts, ticker, feature, value) -> {
+				if ((tickers == null || tickers.contains(ticker)) && (features == null || features.contains(feature))
+								&& ts >= query.from() && ts < query.to()) {
+					points.add(point(ts, ticker, feature, value));
+				}
+			});
+			return points;
+		}
+	}
+
+	private static List<String> points(TimeSeriesStore store) {
+		List<String> points = new ArrayList<>();
+		store.forEach((ts, ticker, feature, value) -> points.add(point(ts, ticker, feature, value)));
+		return points;
+	}
+
+	private static List<String> timestamps(TimeSeriesStore store) {
+		List<String> timestamps = new ArrayList<>();
+		store.forEach((ts, ticker, feature, value) -> timestamps.add(String.valueOf(ts)));
+		return timestamps;
+	}
+
+	private static String point(long ts, String ticker, String feature, double value) {
+		return ts + "," + ticker + "," + feature + "," + value;
+	}
+}
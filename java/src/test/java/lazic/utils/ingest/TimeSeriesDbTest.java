@@ -0,0 +1,114 @@
+package lazic.utils.ingest;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TimeSeriesDbTest {
+
+	@Test
+	void appendsMergeLikeTheStoreAndWriteOneFilePerAppend(@TempDir Path dir) throws IOException {
+		TimeSeriesStore expected = new TimeSeriesStore();
+		Random random = new Random(7);
+
+		try (TimeSeriesDb db = TimeSeriesDb.open(dir)) {
+			for (int append = 0; append < 5; append++) {
+				// every append re-fetches an overlapping tail of each series
+				TimeSeriesStore delta = new TimeSeriesStore();
+				for (int t = 0; t < 20; t++) {
+					String ticker = t == 0 ? null : "T" + t + ".NZ";
+					for (String feature : new String[] {"Close", "Volume"}) {
+						for (int day = append * 50; day < append * 50 + 80; day++) {
+							delta.append(ticker, feature, day * TradingDays.DAY_MILLIS, random.nextDouble());
+						}
+					}
+				}
+				db.append(delta);
+				expected.mergeNewer(delta);
+
+				assertEquals(append + 1, segmentFiles(dir));
+				assertEquals(points(expected), points(db));
+			}
+		}
+
+		try (TimeSeriesDb db = TimeSeriesDb.open(dir)) {
+			assertEquals(points(expected), points(db));
+			db.compact();
+			assertEquals(1, segmentFiles(dir));
+			assertEquals(points(expected), points(db));
+		}
+		try (TimeSeriesDb db = TimeSeriesDb.open(dir)) {
+			assertEquals(points(expected), points(db));
+		}
+	}
+
+	@Test
+	void readsAndConvertsAVersionOneDatabase(@TempDir Path dir) throws IOException {
+		// one series in a segment file of its own, the layout before segment files held several series
+		ByteBuffer segment = ByteBuffer.allocate(16 + 16 * 3).order(ByteOrder.LITTLE_ENDIAN);
+		segment.put("NORNSEG1".getBytes(StandardCharsets.US_ASCII)).putInt(3).putInt(0);
+		segment.putLong(10).putLong(20).putLong(30).putDouble(1.5).putDouble(2.5).putDouble(3.5);
+		Files.write(dir.resolve("seg-0.ts"), segment.array());
+
+		byte[] ticker = "AIR.NZ".getBytes(StandardCharsets.UTF_8);
+		byte[] feature = "Close".getBytes(StandardCharsets.UTF_8);
+		ByteBuffer index = ByteBuffer.allocate(8 + 8 + 4 + 4 + ticker.length + 4 + feature.length + 4 + 28)
+						.order(ByteOrder.LITTLE_ENDIAN);
+		index.put("NORNIDX1".getBytes(StandardCharsets.US_ASCII)).putLong(1).putInt(1);
+		index.putInt(ticker.length).put(ticker).putInt(feature.length).put(feature).putInt(1);
+		index.putLong(0).putInt(3).putLong(10).putLong(30);
+		Files.write(dir.resolve(TimeSeriesDb.INDEX_FILE), index.array());
+
+		try (TimeSeriesDb db = TimeSeriesDb.open(dir)) {
+			assertEquals(List.of("10,AIR.NZ,Close,1.5", "20,AIR.NZ,Close,2.5", "30,AIR.NZ,Close,3.5"), points(db));
+
+			TimeSeriesStore delta = new TimeSeriesStore();
+			delta.append("AIR.NZ", "Close", 30, 4.5);
+			db.append(delta);
+		}
+		try (TimeSeriesDb db = TimeSeriesDb.open(dir)) {
+			assertEquals(List.of("10,AIR.NZ,Close,1.5", "20,AIR.NZ,Close,2.5", "30,AIR.NZ,Close,4.5"), points(db));
+			assertEquals(1, db.timeModel(), "converting the layout keeps the timestamps as they were");
+
+			db.clear();
+			assertTrue(db.isEmpty());
+			assertEquals(0, segmentFiles(dir));
+		}
+		try (TimeSeriesDb db = TimeSeriesDb.open(dir)) {
+			assertTrue(db.isEmpty());
+			assertEquals(TradingDays.TIME_MODEL, db.timeModel());
+		}
+	}
+
+	private static long segmentFiles(Path dir) throws IOException {
+		try (Stream<Path> files = Files.list(dir)) {
+			return files.filter(f -> f.getFileName().toString().startsWith("seg-")).count();
+		}
+	}
+
+	private static List<String> points(TimeSeriesStore store) {
+		List<String> points = new ArrayList<>();
+		store.forEach((ts, ticker, feature, value) -> points.add(ts + "," + ticker + "," + feature + "," + value));
+		return points;
+	}
+
+	private static List<String> points(TimeSeriesDb db) throws IOException {
+		List<String> points = new ArrayList<>();
+		db.forEach(Long.MIN_VALUE, Long.MAX_VALUE,
+						(ts, ticker, feature, value) -> points.add(ts + "," + ticker + "," + feature + "," + value));
+		return points;
+	}
+}
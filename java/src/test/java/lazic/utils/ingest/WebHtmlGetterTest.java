@@ -0,0 +1,144 @@
+package lazic.utils.ingest;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Retries, rate limits and the circuit breaker of WebHtmlGetter against a stub server. Each path replies with its
+ * list of statuses in turn, then 200 for good. A host has one throttle, so the breaker is opened on localhost while
+ * the other tests use 127.0.0.1; the stub listens on both.
+ */
+class WebHtmlGetterTest {
+	private static final int RETRIES = 3;
+	private static final long BACKOFF_MILLIS = 50;
+	private static final long SLACK_MILLIS = 500; // scheduling, on a slow machine
+
+	private static HttpServer server;
+	private static int port;
+	private static final Map<String, List<Integer>> statuses = new ConcurrentHashMap<>();
+	private static final Map<String, List<Long>> arrivals = new ConcurrentHashMap<>();
+
+	@BeforeAll
+	static void startStub() throws IOException {
+		server = HttpServer.create(new InetSocketAddress(0), 0);
+		server.createContext("/", WebHtmlGetterTest::serve);
+		server.setExecutor(Executors.newCachedThreadPool());
+		server.start();
+		port = server.getAddress().getPort();
+
+		// read once, when the classes initialize; the breaker needs more failures in a row than one request retries
+		System.setProperty("norn.http.retries", Integer.toString(RETRIES));
+		System.setProperty("norn.http.backoffMillis", Long.toString(BACKOFF_MILLIS));
+		System.setProperty("norn.http.ratePerHost", "1000");
+		System.setProperty("norn.http.breakerThreshold", Integer.toString(RETRIES + 3));
+		System.setProperty("norn.http.breakerCooldownSeconds", "1");
+	}
+
+	@AfterAll
+	static void stopStub() {
+		server.stop(0);
+	}
+
+	@Test
+	void rateLimitRepliesAreRetriedOnceTheirRetryAfterIsOver() throws Exception {
+		for (int status : new int[] {429, 503}) {
+			String path = "/limited" + status;
+			statuses.put(path, new CopyOnWriteArrayList<>(List.of(status)));
+
+			assertEquals("ok " + path, get("127.0.0.1", path));
+
+			List<Long> at = arrivals.get(path);
+			assertEquals(2, at.size());
+			long waited = TimeUnit.NANOSECONDS.toMillis(at.get(1) - at.get(0));
+			assertTrue(waited >= 950, status + " retried after " + waited + " ms, before its Retry-After of 1 s");
+		}
+	}
+
+	@Test
+	void serverErrorsAreRetriedWithinTheJitteredBackoff() throws Exception {
+		statuses.put("/flaky", new CopyOnWriteArrayList<>(List.of(500, 502, 504)));
+
+		assertEquals("ok /flaky", get("127.0.0.1", "/flaky"));
+
+		// each wait is a random part of the backoff, which doubles with every retry
+		List<Long> at = arrivals.get("/flaky");
+		assertEquals(RETRIES + 1, at.size());
+		for (int attempt = 0; attempt < RETRIES; attempt++) {
+			long waited = TimeUnit.NANOSECONDS.toMillis(at.get(attempt + 1) - at.get(attempt));
+			long cap = TimeUnit.NANOSECONDS.toMillis(WebHtmlGetter.backoffNanos(attempt));
+			assertEquals(BACKOFF_MILLIS << attempt, cap);
+			assertTrue(waited <= cap + SLACK_MILLIS, "retry " + (attempt + 1) + " waited " + waited + " ms");
+		}
+	}
+
+	@Test
+	void theBreakerOpensOnServerErrorsAndFailsFastUntilAProbeSucceeds() throws Exception {
+		List<Integer> failing = new CopyOnWriteArrayList<>();
+		for (int i = 0; i < 2 * (RETRIES + 1); i++) {
+			failing.add(500);
+		}
+		statuses.put("/down", failing);
+
+		// 1. the retries run out, and the last error reply is passed through
+		assertEquals("error /down", get("localhost", "/down"));
+		assertEquals(RETRIES + 1, arrivals.get("/down").size());
+
+		// 2. the breaker opens two failures into the next request, whose retry is refused without being sent
+		ExecutionException e = assertThrows(ExecutionException.class, () -> get("localhost", "/down"));
+		assertInstanceOf(HostThrottle.CircuitOpenException.class, e.getCause());
+		assertEquals(RETRIES + 3, arrivals.get("/down").size());
+
+		// 3. while it is open, any request to the host fails fast, nothing reaches the stub
+		e = assertThrows(ExecutionException.class, () -> get("localhost", "/other"));
+		assertInstanceOf(HostThrottle.CircuitOpenException.class, e.getCause());
+		assertEquals(null, arrivals.get("/other"));
+
+		// 4. after the cooldown the next request is the probe; the host is back, so it closes the breaker
+		failing.clear();
+		Thread.sleep(1100);
+		assertEquals("ok /down", get("localhost", "/down"));
+		assertEquals("ok /other", get("localhost", "/other"));
+	}
+
+	private static String get(String host, String path) throws Exception {
+		return WebHtmlGetter.getAsync("http://" + host + ":" + port + path).get(10, TimeUnit.SECONDS);
+	}
+
+	private static void serve(HttpExchange exchange) throws IOException {
+		String path = exchange.getRequestURI().getPath();
+		arrivals.computeIfAbsent(path, p -> new CopyOnWriteArrayList<>()).add(System.nanoTime());
+
+		List<Integer> pending = statuses.getOrDefault(path, List.of());
+		int status = pending.isEmpty() ? 200 : pending.remove(0);
+		if (status == 429 || status == 503) {
+			exchange.getResponseHeaders().add("Retry-After", "1");
+		}
+
+		byte[] bytes = ((status == 200 ? "ok " : "error ") + path).getBytes(StandardCharsets.UTF_8);
+		exchange.sendResponseHeaders(status, bytes.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(bytes);
+		}
+	}
+}
@@ -0,0 +1,165 @@
+package lazic.utils.ingest;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+/**
+ * Writes a small store to .nwide and reads it back, checking every cell against what long_to_wide_and_impute computes
+ * for the same long rows with pandas.
+ */
+class WidePivotTest {
+	private static final long DAY = TradingDays.DAY_MILLIS;
+	private static final double NAN = Double.NaN;
+
+	@Test
+	void matchesThePandasPivotCellForCell(@TempDir Path dir) throws IOException {
+		TimeSeriesStore data = new TimeSeriesStore();
+		// AAA: a repeated timestamp averaged (the NaN beside it skipped), a timestamp with only NaN that is no row
+		data.append("AAA.NZ", "Close", 2 * DAY, 10);
+		data.append("AAA.NZ", "Close", 3 * DAY, 10);
+		data.append("AAA.NZ", "Close", 3 * DAY, 14);
+		data.append("AAA.NZ", "Close", 3 * DAY, NAN);
+		data.append("AAA.NZ", "Close", 4 * DAY, NAN);
+		data.append("AAA.NZ", "Close", 5 * DAY, 11);
+		data.append("AAA.NZ", "Volume", 3 * DAY, 500);
+		data.append("AAA.NZ", "Volume", 5 * DAY, 700);
+		// BBB: no Volume at all, and rows before and after every macro row
+		data.append("BBB.NZ", "Close", 1 * DAY, 20);
+		data.append("BBB.NZ", "Close", 6 * DAY, 21);
+		// a series of nothing but NaN gets no column
+		data.append("BBB.NZ", "Dividend", 6 * DAY, NAN);
+		// macro: Rate starts a row after GDP
+		data.append(null, "GDP", 3 * DAY, 1.5);
+		data.append(null, "GDP", 5 * DAY, 1.7);
+		data.append(null, "Rate", 5 * DAY, 5.5);
+
+		Path path = dir.resolve("data_wide.nwide");
+		assertEquals(true, WidePivot.saveWide(path.toString(), data));
+		Wide wide = Wide.read(path);
+
+		assertEquals(List.of("Close", "Volume"), wide.features);
+		assertEquals(List.of("GDP", "Rate"), wide.macroFeatures);
+		assertEquals(true, wide.labelled);
+		assertEquals(2, wide.blocks.size());
+
+		Block aaa = wide.blocks.get(0);
+		assertEquals("AAA.NZ", aaa.ticker);
+		assertArrayEquals(new long[] {2 * DAY, 3 * DAY, 5 * DAY}, aaa.timestamps);
+		assertArrayEquals(new double[] {10, 12, 11}, aaa.values[0]);
+		assertArrayEquals(new byte[] {1, 1, 1}, aaa.present[0]);
+		assertArrayEquals(new double[] {0, 500, 700}, aaa.values[1], "0 before the first observation");
+		assertArrayEquals(new byte[] {0, 1, 1}, aaa.present[1]);
+		assertArrayEquals(new double[] {NAN, 1.5, 1.7}, aaa.macroValues[0], "NaN before the first macro row");
+		assertArrayEquals(new byte[] {-1, 1, 1}, aaa.macroPresent[0]);
+		assertArrayEquals(new double[] {NAN, 0, 5.5}, aaa.macroValues[1], "0 before its first observation");
+		assertArrayEquals(new byte[] {-1, 0, 1}, aaa.macroPresent[1]);
+		assertArrayEquals(FutureLabeler.label(aaa.timestamps, aaa.values[0], 3), aaa.labels);
+
+		Block bbb = wide.blocks.get(1);
+		assertEquals("BBB.NZ", bbb.ticker);
+		assertArrayEquals(new long[] {1 * DAY, 6 * DAY}, bbb.timestamps);
+		assertArrayEquals(new double[] {20, 21}, bbb.values[0]);
+		assertArrayEquals(new double[] {0, 0}, bbb.values[1], "a feature the ticker lacks entirely is 0");
+		assertArrayEquals(new byte[] {0, 0}, bbb.present[1]);
+		assertArrayEquals(new double[] {NAN, 1.7}, bbb.macroValues[0]);
+		assertArrayEquals(new byte[] {-1, 1}, bbb.macroPresent[0]);
+		assertArrayEquals(new double[] {NAN, 5.5}, bbb.macroValues[1]);
+		assertArrayEquals(new byte[] {-1, 1}, bbb.macroPresent[1]);
+	}
+
+	@Test
+	void leavesTheLabelsOutWithoutAClose(@TempDir Path dir) throws IOException {
+		TimeSeriesStore data = new TimeSeriesStore();
+		data.append("AAA.NZ", "Volume", DAY, 500);
+
+		Path path = dir.resolve("data_wide.nwide");
+		WidePivot.saveWide(path.toString(), data);
+		Wide wide = Wide.read(path);
+
+		assertFalse(wide.labelled);
+		assertEquals(List.of(), wide.macroFeatures);
+		assertArrayEquals(new double[] {500}, wide.blocks.get(0).values[0]);
+		assertEquals(null, wide.blocks.get(0).labels);
+	}
+
+	private record Block(String ticker, long[] timestamps, double[][] values, byte[][] present,
+											 double[][] macroValues, byte[][] macroPresent, byte[] labels) { }
+
+	// a reader of the layout in the WidePivot javadoc, checking that nothing is left over
+	private record Wide(List<String> features, List<String> macroFeatures, boolean labelled, List<Block> blocks) {
+
+		static Wide read(Path path) throws IOException {
+			ByteBuffer in = ByteBuffer.wrap(Files.readAllBytes(path)).order(ByteOrder.LITTLE_ENDIAN);
+			byte[] magic = new byte[8];
+			in.get(magic);
+			assertArrayEquals(WidePivot.MAGIC, magic);
+
+			List<String> features = strings(in);
+			List<String> macroFeatures = strings(in);
+			boolean labelled = in.get() == 1;
+			int count = in.getInt();
+
+			List<Block> blocks = new ArrayList<>();
+			for (int b = 0; b < count; b++) {
+				String ticker = string(in);
+				int rows = in.getInt();
+				long[] timestamps = new long[rows];
+				for (int r = 0; r < rows; r++) {
+					timestamps[r] = in.getLong();
+				}
+				double[][] values = doubles(in, features.size(), rows);
+				byte[][] present = bytes(in, features.size(), rows);
+				double[][] macroValues = doubles(in, macroFeatures.size(), rows);
+				byte[][] macroPresent = bytes(in, macroFeatures.size(), rows);
+				byte[] labels = labelled ? bytes(in, 1, rows)[0] : null;
+				blocks.add(new Block(ticker, timestamps, values, present, macroValues, macroPresent, labels));
+			}
+			assertFalse(in.hasRemaining());
+			return new Wide(features, macroFeatures, labelled, blocks);
+		}
+
+		private static double[][] doubles(ByteBuffer in, int columns, int rows) {
+			double[][] out = new double[columns][rows];
+			for (double[] column : out) {
+				for (int r = 0; r < rows; r++) {
+					column[r] = in.getDouble();
+				}
+			}
+			return out;
+		}
+
+		private static byte[][] bytes(ByteBuffer in, int columns, int rows) {
+			byte[][] out = new byte[columns][rows];
+			for (byte[] column : out) {
+				in.get(column);
+			}
+			return out;
+		}
+
+		private static List<String> strings(ByteBuffer in) {
+			String[] out = new String[in.getInt()];
+			Arrays.setAll(out, i -> string(in));
+			return List.of(out);
+		}
+
+		private static String string(ByteBuffer in) {
+			byte[] bytes = new byte[in.getInt()];
+			in.get(bytes);
+			return new String(bytes, StandardCharsets.UTF_8);
+		}
+	}
+}
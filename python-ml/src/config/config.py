@@ -29,6 +29,10 @@ PREPROCESSED_CSV_PATH = _root / "python-ml" / "data" / "data_preprocessed.csv"
 MODEL_PKL_PATH = _root / "python-ml" / "data" / "model.pkl"
 PREDICTION_CSV_PATH = _root / "python-ml" / "data" / "predictions"
 LONG_CSV_PATH = _root / "data" / "data_long.csv"
+LONG_COLUMNAR_PATH = _root / "data" / "data_long.ncol"
+TSDB_PATH = _root / "data" / "tsdb"
+WIDE_COLUMNAR_PATH = _root / "data" / "data_wide.nwide"
 WIDE_CSV_PATH = _root / "python-ml" / "data" / "data_wide_imputed.csv"
+FEATURE_MANIFEST_PATH = _root / "data" / "feature_manifest.json" # read by the Java ingest with --manifest
 
 print("This file is not intended to be runnable")
\ No newline at end of file
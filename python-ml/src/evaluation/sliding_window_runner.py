@@ -1,8 +1,11 @@
 
+import pandas as pd
+
 from src.preprocessing.long_to_wide_csv import long_to_wide_and_impute
 from src.preprocessing.preprocessing import preprocess
-from src.preprocessing.train_test_split import split_and_save
+from src.preprocessing.train_test_split import sort_by_time, split_df_and_save
 from src.utils.csv_utils import load_csv, save_csv
+from src.utils.columnar_utils import load_wide
 from src.utils.path_utils import get_skuld_root
 from src.config.config import *
 
@@ -19,23 +22,29 @@ _wide_imputed = _root / "python-ml" / "data" / "data_wide_imputed.csv"
 
 
 def run():
-    long_to_wide_and_impute(str(_raw_data_csv), str(_wide_imputed))
+    # the pivot written by the Java ingest (--wide) replaces the pandas one, unless it is older than the long data
+    if WIDE_COLUMNAR_PATH.exists() and WIDE_COLUMNAR_PATH.stat().st_mtime >= _raw_data_csv.stat().st_mtime:
+        save_csv(load_wide(str(WIDE_COLUMNAR_PATH)), str(_wide_imputed))
+    else:
+        long_to_wide_and_impute(str(_raw_data_csv), str(_wide_imputed))
     preprocess(str(_wide_imputed), str(_full_csv))
 
-    full_df = load_csv(str(_full_csv))
-    data_end_ts = full_df[TIMESTAMP_COL].max()
+    # loaded and sorted once, every iteration then cuts its window by binary search
+    full_df = sort_by_time(load_csv(str(_full_csv)))
+    data_end_ts = full_df[TIMESTAMP_COL].iloc[-1]
 
-    print(f"Raw Data End: {load_csv(str(_raw_data_csv))[TIMESTAMP_COL].max()}")
+    raw_end_ts = pd.read_csv(_raw_data_csv, usecols=[TIMESTAMP_COL])[TIMESTAMP_COL].max()
+    print(f"Raw Data End: {raw_end_ts}")
     print(f"Preprocessed Data End (Anchor): {data_end_ts}")
 
     for i in range(0, EVAL_TEST_ITERATIONS):
-        run_iteration(i, data_end_ts)
+        run_iteration(i, data_end_ts, full_df)
 
 
-def run_iteration(i, anchor_ts):
+def run_iteration(i, anchor_ts, full_df):
     to_ts = anchor_ts - TEST_SPLIT_DURATION_MILLIS * i
     from_ts = to_ts - TEST_SPLIT_DURATION_MILLIS
-    split_and_save(str(_full_csv), from_ts, to_ts)
+    split_df_and_save(full_df, from_ts, to_ts, presorted=True)
     train_model(str(_train_csv), str(_model_file))
     predict(str(_model_file), str(_test_csv), str(_prediction_file) + str(i) + ".csv")
 
@@ -8,7 +8,8 @@ from lightgbm import LGBMClassifier
 
 from src.utils.csv_utils import load_csv, save_csv
 from src.utils.path_utils import get_skuld_root
-from src.config.config import LABEL_COL
+from src.utils.feature_manifest import write_feature_manifest
+from src.config.config import LABEL_COL, FEATURE_MANIFEST_PATH
 
 
 # =======================================================
@@ -35,9 +36,10 @@ def build_default_model() -> VotingClassifier:
 # === TRAINING PIPELINE =================================
 # =======================================================
 
-def train_model(train_csv_path: str, model_save_path: str):
+def train_model(train_csv_path: str, model_save_path: str, manifest_path: str = None):
     """
     Train a model using the specified training set and save it to disk.
+    With a manifest_path, also write the feature manifest the Java ingest can narrow its fetch down to.
     """
     df = load_csv(train_csv_path)
 
@@ -55,6 +57,9 @@ def train_model(train_csv_path: str, model_save_path: str):
     joblib.dump(model, model_save_path)
     print(f"Model saved to {model_save_path}")
 
+    if manifest_path is not None:
+        write_feature_manifest(model, X.columns, manifest_path)
+
 
 # =======================================================
 # === PREDICTION PIPELINE ===============================
@@ -97,7 +102,7 @@ if __name__ == "__main__":
 
     # Train and predict automatically
     print("Training model...")
-    train_model(str(train_csv), str(model_file))
+    train_model(str(train_csv), str(model_file), str(FEATURE_MANIFEST_PATH))
 
     print("Generating predictions...")
     predict(str(model_file), str(test_csv), str(prediction_file))
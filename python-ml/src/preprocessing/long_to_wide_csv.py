@@ -3,6 +3,7 @@ import pandas as pd
 
 from src.config.config import *
 from src.utils.csv_utils import load_csv, save_csv
+from src.utils.columnar_utils import load_long
 from src.utils.path_utils import get_skuld_root
 
 
@@ -13,8 +14,10 @@ def long_to_wide_and_impute(long_csv_path: str, imputed_csv_path: str):
     - Macro data (no ticker) forward-filled globally
     - Ticker-specific data forward-filled per ticker
     - Macro features merged onto ticker rows using as-of alignment
+    Accepts the long CSV, the .ncol columnar export or the data/tsdb database directory.
+    The Java ingest builds the same table with --wide, read it with columnar_utils.load_wide instead.
     """
-    df = load_csv(long_csv_path)
+    df = load_long(long_csv_path)
 
     # Split macro and ticker data
     df_macro = df[df['ticker'].isna()].sort_values(TIMESTAMP_COL)
@@ -51,6 +51,16 @@ def create_future_labels(df: pd.DataFrame) -> pd.DataFrame:
     return df_out
 
 
+def use_existing_labels(df: pd.DataFrame) -> pd.DataFrame:
+    """
+    Keep the labels computed by the Java FutureLabeler: the same rows and order create_future_labels
+    returns, without recomputing anything.
+    """
+    df = df[df[LABEL_COL] >= 0].sort_values([TICKER_COL, TIMESTAMP_COL]).reset_index(drop=True)
+    df[LABEL_COL] = df[LABEL_COL].astype("int8")
+    return df
+
+
 # =======================================================
 # === ONE-HOT ENCODING =================================
 # =======================================================
@@ -98,8 +108,11 @@ def preprocess(wide_csv_path: str, output_csv_path: str):
     """
     df = load_csv(wide_csv_path)
 
-    # Generate labels
-    df = create_future_labels(df)
+    # Generate labels, unless the Java pivot already did (FutureLabeler, -1 where there is no future price)
+    if LABEL_COL in df.columns:
+        df = use_existing_labels(df)
+    else:
+        df = create_future_labels(df)
 
     # One-hot encode tickers
     df = one_hot_encode(df)
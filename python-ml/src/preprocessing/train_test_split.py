@@ -1,4 +1,5 @@
 from pathlib import Path
+import numpy as np
 import pandas as pd
 
 from src.config.config import *
@@ -6,7 +7,14 @@ from src.utils.csv_utils import load_csv, save_csv
 from src.utils.path_utils import get_skuld_root
 
 
-def time_based_split(df: pd.DataFrame, from_ts: int, to_ts: int):
+def sort_by_time(df: pd.DataFrame) -> pd.DataFrame:
+    """
+    Stable sort by timestamp, done once so that every later split is two binary searches.
+    """
+    return df.sort_values(TIMESTAMP_COL, kind="stable").reset_index(drop=True)
+
+
+def time_based_split(df: pd.DataFrame, from_ts: int, to_ts: int, presorted: bool = False):
     """
     Split the dataframe into train and test sets based on a specific time window.
 
@@ -14,19 +22,25 @@ def time_based_split(df: pd.DataFrame, from_ts: int, to_ts: int):
         df: Input dataframe.
         from_ts: The timestamp marking the end of Train and start of Test.
         to_ts: The timestamp marking the end of Test. Data after this is dropped.
+        presorted: The dataframe already went through sort_by_time, skip the sort.
 
     Returns:
         train_df, test_df
     """
-    # Ensure sorted by timestamp
-    df = df.sort_values(TIMESTAMP_COL).reset_index(drop=True)
+    if not presorted:
+        df = sort_by_time(df)
+
+    # the window bounds are found by binary search on the sorted timestamps instead of masking every row
+    timestamps = df[TIMESTAMP_COL].to_numpy()
+    start = np.searchsorted(timestamps, from_ts, side="left")
+    stop = np.searchsorted(timestamps, to_ts, side="right")
 
     # Train: Everything BEFORE the 'from' timestamp
-    train_df = df[df[TIMESTAMP_COL] < from_ts].copy()
+    train_df = df.iloc[:start].copy()
 
     # Test: Everything FROM 'from' UP TO 'to'
     # Data occuring after 'to_ts' is implicitly dropped by not being included here
-    test_df = df[(df[TIMESTAMP_COL] >= from_ts) & (df[TIMESTAMP_COL] <= to_ts)].copy()
+    test_df = df.iloc[start:stop].copy()
 
     return train_df, test_df
 
@@ -37,9 +51,15 @@ def split_and_save(preprocessed_csv_path: str, from_ts: int, to_ts: int):
     and save each as CSV.
     """
     df = load_csv(preprocessed_csv_path)
+    split_df_and_save(df, from_ts, to_ts)
+
 
+def split_df_and_save(df: pd.DataFrame, from_ts: int, to_ts: int, presorted: bool = False):
+    """
+    Same as split_and_save for data that is already loaded, so a sliding window reads the CSV once.
+    """
     # Perform the split
-    train_df, test_df = time_based_split(df, from_ts, to_ts)
+    train_df, test_df = time_based_split(df, from_ts, to_ts, presorted)
 
     root = get_skuld_root()
     train_csv = root / "python-ml" / "data" / "train.csv"
@@ -0,0 +1,178 @@
+import struct
+import zlib
+from pathlib import Path
+
+import numpy as np
+import pandas as pd
+
+from src.config.config import LABEL_COL
+from src.utils.csv_utils import load_csv
+from src.utils.tsdb_utils import load_tsdb
+
+_MAGIC = b"NORNCOL1"
+
+
+def load_columnar(path: str) -> pd.DataFrame:
+    """
+    Load a long-format columnar file written by the Java ColumnarLongParser into the same
+    timestamp,ticker,feature,value DataFrame that load_csv returns for data_long.csv.
+
+    Args:
+        path (str): Path to the .ncol file.
+
+    Returns:
+        pd.DataFrame
+    """
+    path = Path(path)
+    if not path.exists():
+        raise FileNotFoundError(f"Columnar file not found: {path}")
+
+    buf = path.read_bytes()
+    if buf[:8] != _MAGIC:
+        raise ValueError(f"Not a norn columnar file: {path}")
+    pos = 8
+
+    # symbol dictionary, shared by tickers and features
+    (n_symbols,) = struct.unpack_from("<i", buf, pos)
+    pos += 4
+    symbols = []
+    for _ in range(n_symbols):
+        (length,) = struct.unpack_from("<i", buf, pos)
+        pos += 4
+        if length < 0:
+            symbols.append(None)
+        else:
+            symbols.append(buf[pos:pos + length].decode("utf-8"))
+            pos += length
+
+    (n_blocks,) = struct.unpack_from("<i", buf, pos)
+    pos += 4
+
+    timestamps, values, ticker_ids, feature_ids = [], [], [], []
+    for _ in range(n_blocks):
+        ticker_id, feature_id, count, length = struct.unpack_from("<iiii", buf, pos)
+        pos += 16
+        payload = zlib.decompress(buf[pos:pos + length])
+        pos += length
+
+        timestamps.append(np.cumsum(np.frombuffer(payload, dtype="<i8", count=count)))
+        values.append(np.frombuffer(payload, dtype="<f8", count=count, offset=8 * count))
+        ticker_ids.append(np.full(count, ticker_id, dtype=np.int32))
+        feature_ids.append(np.full(count, feature_id, dtype=np.int32))
+
+    if not timestamps:
+        return pd.DataFrame(columns=["timestamp", "ticker", "feature", "value"])
+
+    # decode dictionary ids with one vectorised lookup, a null ticker comes back as None (macro data)
+    lookup = np.asarray(symbols, dtype=object)
+    return pd.DataFrame({
+        "timestamp": np.concatenate(timestamps),
+        "ticker": lookup[np.concatenate(ticker_ids)],
+        "feature": lookup[np.concatenate(feature_ids)],
+        "value": np.concatenate(values),
+    })
+
+
+_WIDE_MAGIC = b"NORNWID1"
+
+
+def load_wide(path: str) -> pd.DataFrame:
+    """
+    Load the wide table written by the Java WidePivot into the same DataFrame that
+    long_to_wide_and_impute saves: timestamp, ticker, ticker features, macro features,
+    then the ticker and macro _present flags, rows sorted by timestamp. When the Java side
+    labelled the Close column, a LABEL_COL column follows, -1 where there is no future price.
+
+    Args:
+        path (str): Path to the .nwide file.
+
+    Returns:
+        pd.DataFrame
+    """
+    path = Path(path)
+    if not path.exists():
+        raise FileNotFoundError(f"Wide file not found: {path}")
+
+    buf = path.read_bytes()
+    if buf[:8] != _WIDE_MAGIC:
+        raise ValueError(f"Not a norn wide file: {path}")
+    pos = 8
+
+    def read_string():
+        nonlocal pos
+        (length,) = struct.unpack_from("<i", buf, pos)
+        pos += 4
+        s = buf[pos:pos + length].decode("utf-8")
+        pos += length
+        return s
+
+    def read_strings():
+        nonlocal pos
+        (count,) = struct.unpack_from("<i", buf, pos)
+        pos += 4
+        return [read_string() for _ in range(count)]
+
+    features = read_strings()
+    macro_features = read_strings()
+    labelled, n_blocks = struct.unpack_from("<bi", buf, pos)
+    pos += 5
+
+    def read_column(dtype, count):
+        nonlocal pos
+        column = np.frombuffer(buf, dtype=dtype, count=count, offset=pos)
+        pos += column.nbytes
+        return column
+
+    timestamps, tickers = [], []
+    values = {f: [] for f in features + macro_features}
+    present = {f: [] for f in features + macro_features}
+    labels = []
+    for _ in range(n_blocks):
+        ticker = read_string()
+        (rows,) = struct.unpack_from("<i", buf, pos)
+        pos += 4
+        timestamps.append(read_column("<i8", rows))
+        tickers.append(np.full(rows, ticker, dtype=object))
+        for f in features:
+            values[f].append(read_column("<f8", rows))
+        for f in features:
+            present[f].append(read_column("i1", rows))
+        for f in macro_features:
+            values[f].append(read_column("<f8", rows))
+        for f in macro_features:
+            present[f].append(read_column("i1", rows))
+        if labelled:
+            labels.append(read_column("i1", rows))
+
+    columns = ["timestamp", "ticker"] + features + macro_features + [f + "_present" for f in features + macro_features]
+    if labelled:
+        columns.append(LABEL_COL)
+    if not timestamps:
+        return pd.DataFrame(columns=columns)
+
+    data = {"timestamp": np.concatenate(timestamps), "ticker": np.concatenate(tickers)}
+    for f in features + macro_features:
+        data[f] = np.concatenate(values[f])
+    for f in features:
+        data[f + "_present"] = np.concatenate(present[f]).astype(int)
+    for f in macro_features:
+        # -1 marks rows before the first macro row, which the as-of merge leaves as NaN
+        flags = np.concatenate(present[f])
+        data[f + "_present"] = np.where(flags < 0, np.nan, flags) if (flags < 0).any() else flags.astype(int)
+    if labelled:
+        data[LABEL_COL] = np.concatenate(labels)
+
+    df = pd.DataFrame(data, columns=columns)
+    return df.sort_values("timestamp", kind="stable").reset_index(drop=True)
+
+
+def load_long(path: str) -> pd.DataFrame:
+    """
+    Load long-format data from a time-series database directory, a .ncol columnar file or a CSV,
+    chosen by the path.
+    """
+    if Path(path).is_dir():
+        return load_tsdb(path)
+    if str(path).endswith(".ncol"):
+        return load_columnar(path)
+    return load_csv(path)
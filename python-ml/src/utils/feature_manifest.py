@@ -0,0 +1,111 @@
+import json
+from pathlib import Path
+
+import numpy as np
+
+from src.config.config import TIMESTAMP_COL, TICKER_COL, LABEL_COL, CLOSE_COL, TICKER_PREFIX
+
+_PRESENT_SUFFIX = "_present"
+
+
+def feature_importances(model, feature_names) -> dict:
+    """
+    Importance of every input column, averaged over the fitted estimators that report one.
+    For a VotingClassifier that is every member but HistGradientBoosting; each member's importances are
+    normalised to sum to 1 first, so no single estimator dominates the average.
+
+    Args:
+        model: A fitted estimator, or a VotingClassifier of them.
+        feature_names: The column names the model was fitted on, in order.
+
+    Returns:
+        dict: column name -> importance
+    """
+    estimators = getattr(model, "estimators_", None) or [model]
+    total = np.zeros(len(feature_names))
+    counted = 0
+    for estimator in estimators:
+        importances = getattr(estimator, "feature_importances_", None)
+        if importances is None or len(importances) != len(feature_names):
+            continue
+        importances = np.asarray(importances, dtype=float)
+        if importances.sum() > 0:
+            total += importances / importances.sum()
+            counted += 1
+
+    if counted == 0:
+        raise ValueError("None of the estimators report feature importances")
+    return dict(zip(feature_names, total / counted))
+
+
+def to_ingest_features(importances: dict) -> dict:
+    """
+    Map wide-table column importances back onto the features the Java ingest stores: a _present flag counts
+    towards its feature, the one-hot ticker columns and bookkeeping columns are not features at all.
+    A feature's importance is the sum over its columns.
+    """
+    features = {}
+    for column, importance in importances.items():
+        if column in (TIMESTAMP_COL, TICKER_COL, LABEL_COL) or column.startswith(TICKER_PREFIX):
+            continue
+        feature = column[:-len(_PRESENT_SUFFIX)] if column.endswith(_PRESENT_SUFFIX) else column
+        features[feature] = features.get(feature, 0.0) + float(importance)
+    return features
+
+
+def _previously_pruned(path: Path) -> list:
+    """The pruned features an existing manifest at path still has queued, in queue order."""
+    if not path.exists():
+        return []
+    try:
+        return list(json.loads(path.read_text()).get("pruned", []))
+    except (ValueError, AttributeError):
+        return []
+
+
+def write_feature_manifest(model, feature_names, path, min_importance: float = 0.0, top_n: int = None,
+                           always=(), explore: int = 8):
+    """
+    Write the feature manifest the Java ingest reads with --manifest (lazic.utils.ingest.FeatureManifest):
+    the features whose importance is above min_importance, at most top_n of them, most important first.
+    CLOSE_COL and the always features are listed whatever their importance, the labels are computed from CLOSE_COL.
+
+    A pruned feature is no longer fetched, so it could never regain importance: pruned features are queued in the
+    manifest, and the explore features at the head of the queue are listed again, for the next fit to score. Those
+    still unimportant then go to the back of the queue, so every pruned feature gets its turn.
+
+    Args:
+        model: The fitted model.
+        feature_names: The column names the model was fitted on.
+        path: Where to write the manifest, data/feature_manifest.json by default on the Java side.
+        min_importance (float): Features at or below this are left out.
+        top_n (int): Keep at most this many features, None for no limit.
+        always: Features to list whatever their importance.
+        explore (int): How many pruned features to list again for another try, 0 to prune for good.
+    """
+    path = Path(path)
+    features = to_ingest_features(feature_importances(model, list(feature_names)))
+    ranked = sorted(features.items(), key=lambda item: item[1], reverse=True)
+    kept = [name for name, importance in ranked if importance > min_importance]
+    if top_n is not None:
+        kept = kept[:top_n]
+    for name in [CLOSE_COL, *always]:
+        if name not in kept:
+            kept.append(name)
+
+    # the queue: pruned before and not tried in this fit, then the ones this fit pruned
+    pruned = [name for name in _previously_pruned(path) if name not in features and name not in kept]
+    pruned += [name for name, _ in ranked if name not in kept]
+    trial = pruned[:explore]
+
+    manifest = {
+        "features": kept + trial,
+        "importances": {name: importance for name, importance in ranked},
+        "pruned": pruned[len(trial):] + trial,
+    }
+
+    tmp = path.with_name(path.name + ".tmp")
+    tmp.write_text(json.dumps(manifest, indent=2))
+    tmp.replace(path)
+    print(f"Feature manifest with {len(kept)} of {len(features)} features and {len(trial)} to try again "
+          f"saved to {path}")
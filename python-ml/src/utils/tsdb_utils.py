@@ -0,0 +1,117 @@
+import struct
+from pathlib import Path
+
+import numpy as np
+import pandas as pd
+
+_INDEX_MAGIC = b"NORNIDX3"
+_INDEX_MAGIC_V2 = b"NORNIDX2"  # the same without the time model
+_INDEX_MAGIC_V1 = b"NORNIDX1"  # a segment file per series, each a block at offset 16
+_SEGMENT_MAGICS = (b"NORNSEG2", b"NORNSEG1")
+_SEGMENT_HEADER = 16
+
+
+def _read_index(path: Path) -> list:
+    buf = (path / "index.bin").read_bytes()
+    v1 = buf[:8] == _INDEX_MAGIC_V1
+    v2 = buf[:8] == _INDEX_MAGIC_V2
+    if not v1 and not v2 and buf[:8] != _INDEX_MAGIC:
+        raise ValueError(f"Not a norn time-series database: {path}")
+    pos = 16  # magic + next segment file id
+    if not v1 and not v2:
+        pos += 4  # time model, see TradingDays.TIME_MODEL
+
+    def read_string():
+        nonlocal pos
+        (length,) = struct.unpack_from("<i", buf, pos)
+        pos += 4
+        if length < 0:
+            return None
+        s = buf[pos:pos + length].decode("utf-8")
+        pos += length
+        return s
+
+    (n_series,) = struct.unpack_from("<i", buf, pos)
+    pos += 4
+    series = []
+    for _ in range(n_series):
+        ticker = read_string()
+        feature = read_string()
+        (n_segments,) = struct.unpack_from("<i", buf, pos)
+        pos += 4
+        segments = []
+        for _ in range(n_segments):
+            if v1:
+                file_id, count, first, last = struct.unpack_from("<qiqq", buf, pos)
+                offset = _SEGMENT_HEADER
+                pos += 28
+            else:
+                file_id, offset, count, first, last = struct.unpack_from("<qqiqq", buf, pos)
+                pos += 36
+            segments.append((file_id, offset, count, first, last))
+        series.append((ticker, feature, segments))
+    return series
+
+
+def _map_segment(path: Path, file_id: int, offset: int, count: int):
+    file = path / f"seg-{file_id}.ts"
+    with open(file, "rb") as f:
+        if f.read(8) not in _SEGMENT_MAGICS:
+            raise ValueError(f"Not a norn segment: {file}")
+    timestamps = np.memmap(file, dtype="<i8", mode="r", offset=offset, shape=(count,))
+    values = np.memmap(file, dtype="<f8", mode="r", offset=offset + 8 * count, shape=(count,))
+    return timestamps, values
+
+
+def load_tsdb(path: str, start: int = None, end: int = None) -> pd.DataFrame:
+    """
+    Load a time slice of the database the Java TimeSeriesDb keeps under data/tsdb into the same
+    timestamp,ticker,feature,value DataFrame that load_csv returns for data_long.csv.
+    Blocks are memory-mapped and only the rows inside the slice are copied.
+
+    Args:
+        path (str): Path to the database directory.
+        start (int, optional): First timestamp (epoch millis) to include.
+        end (int, optional): Timestamp (epoch millis) to stop before.
+
+    Returns:
+        pd.DataFrame
+    """
+    path = Path(path)
+    if not (path / "index.bin").exists():
+        raise FileNotFoundError(f"Time-series database not found: {path}")
+
+    start = np.iinfo(np.int64).min if start is None else start
+    end = np.iinfo(np.int64).max if end is None else end
+
+    timestamps, values, tickers, features = [], [], [], []
+    for ticker, feature, segments in _read_index(path):
+        # a newer segment supersedes the older ones from its first timestamp on
+        cutoff = np.iinfo(np.int64).max
+        cutoffs = []
+        for _, _, _, first, _ in reversed(segments):
+            cutoffs.append(cutoff)
+            cutoff = min(cutoff, first)
+        cutoffs.reverse()
+
+        for (file_id, offset, count, first, last), cutoff in zip(segments, cutoffs):
+            stop = min(end, cutoff)
+            if last < start or first >= stop:
+                continue
+            ts, vals = _map_segment(path, file_id, offset, count)
+            lo, hi = np.searchsorted(ts, [start, stop], side="left")
+            if hi > lo:
+                timestamps.append(np.array(ts[lo:hi]))
+                values.append(np.array(vals[lo:hi]))
+                tickers.append(np.full(hi - lo, ticker, dtype=object))
+                features.append(np.full(hi - lo, feature, dtype=object))
+
+    if not timestamps:
+        return pd.DataFrame(columns=["timestamp", "ticker", "feature", "value"])
+
+    return pd.DataFrame({
+        "timestamp": np.concatenate(timestamps),
+        "ticker": np.concatenate(tickers),
+        "feature": np.concatenate(features),
+        "value": np.concatenate(values),
+    })